@@ -10,6 +10,11 @@ public abstract class AbstractEC2FleetCloud extends Cloud {
 
     public abstract boolean isDisableTaskResubmit();
 
+    /**
+     * @return quiet period of resubmitted tasks, see {@link EC2FleetAutoResubmitComputerLauncher}
+     */
+    public abstract int getResubmitDelaySec();
+
     public abstract int getIdleMinutes();
 
     public abstract boolean isAlwaysReconnect();
@@ -18,6 +23,15 @@ public abstract class AbstractEC2FleetCloud extends Cloud {
 
     public abstract boolean scheduleToTerminate(String instanceId);
 
+    /**
+     * Stop node accepting tasks and terminate it when running tasks complete.
+     *
+     * @param instanceId node name or instance ID
+     * @param reason     why node is draining
+     * @return <code>true</code> if node is draining
+     */
+    public abstract boolean drain(String instanceId, String reason);
+
     public abstract String getOldId();
 
 }
@@ -1,9 +1,10 @@
 package com.amazon.jenkins.ec2fleet;
 
+import com.amazon.jenkins.ec2fleet.utils.AWSClientCache;
 import com.amazon.jenkins.ec2fleet.utils.AWSUtils;
+import com.amazon.jenkins.ec2fleet.utils.EndpointResolver;
 import com.amazonaws.ClientConfiguration;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.cloudformation.AmazonCloudFormation;
 import com.amazonaws.services.cloudformation.AmazonCloudFormationClient;
 import com.amazonaws.services.cloudformation.model.Capability;
@@ -15,49 +16,39 @@ import com.amazonaws.services.cloudformation.model.Parameter;
 import com.amazonaws.services.cloudformation.model.Stack;
 import com.amazonaws.services.cloudformation.model.StackStatus;
 import com.amazonaws.services.cloudformation.model.Tag;
-import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
-import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
-import jenkins.model.Jenkins;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
 
-import javax.annotation.Nullable;
 import java.util.HashMap;
 import java.util.Map;
 
 public class CloudFormationApi {
 
+    /**
+     * @return cached client, see {@link AWSClientCache}
+     */
     public AmazonCloudFormation connect(final String awsCredentialsId, final String regionName, final String endpoint) {
+        return AWSClientCache.get(AmazonCloudFormationClient.class, awsCredentialsId, regionName, endpoint,
+                new AWSClientCache.Factory<AmazonCloudFormationClient>() {
+                    @Override
+                    public AmazonCloudFormationClient create(final AWSCredentialsProvider credentialsProvider) {
+                        return newClient(credentialsProvider, regionName, endpoint);
+                    }
+                });
+    }
+
+    private static AmazonCloudFormationClient newClient(
+            final AWSCredentialsProvider credentialsProvider, final String regionName, final String endpoint) {
         final ClientConfiguration clientConfiguration = AWSUtils.getClientConfiguration(endpoint);
-        final AmazonWebServicesCredentials credentials = AWSCredentialsHelper.getCredentials(awsCredentialsId, Jenkins.getInstance());
-        final AmazonCloudFormation client =
-                credentials != null ?
-                        new AmazonCloudFormationClient(credentials, clientConfiguration) :
+        final AmazonCloudFormationClient client =
+                credentialsProvider != null ?
+                        new AmazonCloudFormationClient(credentialsProvider, clientConfiguration) :
                         new AmazonCloudFormationClient(clientConfiguration);
 
-        final String effectiveEndpoint = getEndpoint(regionName, endpoint);
+        final String effectiveEndpoint = EndpointResolver.getEndpoint(EndpointResolver.CLOUDFORMATION, regionName, endpoint);
         if (effectiveEndpoint != null) client.setEndpoint(effectiveEndpoint);
         return client;
     }
 
-    // todo do we want to merge with EC2Api#getEndpoint
-    @Nullable
-    private String getEndpoint(@Nullable final String regionName, @Nullable final String endpoint) {
-        if (StringUtils.isNotEmpty(endpoint)) {
-            return endpoint;
-        } else if (StringUtils.isNotEmpty(regionName)) {
-            final Region region = RegionUtils.getRegion(regionName);
-            if (region != null && region.isServiceSupported(endpoint)) {
-                return region.getServiceEndpoint(endpoint);
-            } else {
-                final String domain = regionName.startsWith("cn-") ? "amazonaws.com.cn" : "amazonaws.com";
-                return "https://cloudformation." + regionName + "." + domain;
-            }
-        } else {
-            return null;
-        }
-    }
-
     public void delete(final AmazonCloudFormation client, final String stackId) {
         client.deleteStack(new DeleteStackRequest().withStackName(stackId));
     }
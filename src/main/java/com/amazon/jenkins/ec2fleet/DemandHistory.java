@@ -0,0 +1,280 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per cloud demand (busy executors plus buildable items) history used to predict demand
+ * before it appears in the queue.
+ * <p>
+ * Samples are collected by {@link DemandHistoryRecorder}, peak of samples in
+ * {@link DemandHistory#BUCKET_MINUTES} bucket is folded into two seasonal profiles, one
+ * for time of week and one for time of day, as exponentially smoothed value. Day profile
+ * is used till week profile has value for bucket, so forecast works after first day.
+ * Profiles are ring buffers indexed by bucket, so history size doesn't grow with time.
+ * <p>
+ * Before fold, forecast for bucket is compared with actual value to track forecast accuracy
+ * as smoothed mean absolute error (MAE) and mean absolute percentage error (MAPE).
+ * <p>
+ * Profiles are persisted in Jenkins root dir, current bucket samples are kept in memory only.
+ *
+ * @see EC2FleetCloud#getPredictionLeadMinutes()
+ */
+@ThreadSafe
+public class DemandHistory {
+
+    private static final Logger LOGGER = Logger.getLogger(DemandHistory.class.getName());
+
+    static final int BUCKET_MINUTES = 15;
+    static final int DAY_BUCKETS = (int) (TimeUnit.DAYS.toMinutes(1) / BUCKET_MINUTES);
+    static final int WEEK_BUCKETS = DAY_BUCKETS * 7;
+
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(BUCKET_MINUTES);
+    private static final double SMOOTHING = 0.3;
+    private static final String FILE_NAME = "ec2-fleet-demand-history.xml";
+
+    private static volatile DemandHistory instance;
+
+    public static DemandHistory get() {
+        DemandHistory result = instance;
+        if (result == null) {
+            synchronized (DemandHistory.class) {
+                result = instance;
+                if (result == null) {
+                    result = new DemandHistory(
+                            new XmlFile(new File(Jenkins.getInstance().getRootDir(), FILE_NAME)),
+                            TimeZone.getDefault());
+                    result.load();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private final transient XmlFile file;
+    private final transient TimeZone timeZone;
+
+    private Map<String, LabelHistory> labels = new HashMap<>();
+
+    @VisibleForTesting
+    DemandHistory(@Nullable final XmlFile file, final TimeZone timeZone) {
+        this.file = file;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * @param label  cloud name
+     * @param demand busy executors plus buildable items of cloud
+     * @param now    sample time in millis
+     */
+    public synchronized void record(final String label, final int demand, final long now) {
+        LabelHistory history = labels.get(label);
+        if (history == null) {
+            history = new LabelHistory();
+            labels.put(label, history);
+        }
+
+        final long bucket = toBucket(now);
+        if (history.bucket != bucket) {
+            final boolean folded = history.fold();
+            history.bucket = bucket;
+            history.peak = 0;
+            history.samples = 0;
+            if (folded) save();
+        }
+        history.peak = Math.max(history.peak, demand);
+        history.samples++;
+    }
+
+    /**
+     * @param label       cloud name
+     * @param leadMinutes how far to look ahead
+     * @param now         current time in millis
+     * @return max predicted demand from now till now plus lead time, <code>0</code> if unknown
+     */
+    public synchronized int forecast(final String label, final int leadMinutes, final long now) {
+        final LabelHistory history = labels.get(label);
+        if (history == null) return 0;
+
+        double result = 0;
+        final long last = toBucket(now + TimeUnit.MINUTES.toMillis(leadMinutes));
+        for (long bucket = toBucket(now); bucket <= last; bucket++) {
+            final Double predicted = history.predict(bucket);
+            if (predicted != null) result = Math.max(result, predicted);
+        }
+        return (int) Math.ceil(result);
+    }
+
+    /**
+     * @param labels cloud names
+     * @return accuracy for clouds weighted by number of checked forecasts,
+     * <code>null</code> if no forecast was checked yet
+     */
+    @Nullable
+    public synchronized Accuracy getAccuracy(final Collection<String> labels) {
+        double mae = 0;
+        double mape = 0;
+        int checks = 0;
+        int percentageChecks = 0;
+        for (final String label : labels) {
+            final LabelHistory history = this.labels.get(label);
+            if (history == null) continue;
+            mae += history.mae * history.checks;
+            checks += history.checks;
+            mape += history.mape * history.percentageChecks;
+            percentageChecks += history.percentageChecks;
+        }
+        if (checks == 0) return null;
+        return new Accuracy(mae / checks, percentageChecks == 0 ? 0 : mape / percentageChecks, checks);
+    }
+
+    private long toBucket(final long time) {
+        return (time + timeZone.getOffset(time)) / BUCKET_MILLIS;
+    }
+
+    private void load() {
+        if (file == null || !file.exists()) return;
+        try {
+            file.unmarshal(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot load demand history, start from scratch", e);
+        }
+        if (labels == null) labels = new HashMap<>();
+    }
+
+    private void save() {
+        if (file == null) return;
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot save demand history", e);
+        }
+    }
+
+    private static class LabelHistory {
+
+        private final double[] week = new double[WEEK_BUCKETS];
+        private final int[] weekSamples = new int[WEEK_BUCKETS];
+        private final double[] day = new double[DAY_BUCKETS];
+        private final int[] daySamples = new int[DAY_BUCKETS];
+
+        private double mae;
+        private double mape;
+        private int checks;
+        private int percentageChecks;
+
+        private transient long bucket = -1;
+        private transient int peak;
+        private transient int samples;
+
+        @Nullable
+        private Double predict(final long bucket) {
+            final int weekIndex = (int) (bucket % WEEK_BUCKETS);
+            if (weekSamples[weekIndex] > 0) return week[weekIndex];
+            final int dayIndex = (int) (bucket % DAY_BUCKETS);
+            if (daySamples[dayIndex] > 0) return day[dayIndex];
+            return null;
+        }
+
+        /**
+         * @return <code>true</code> if current bucket was folded to profiles
+         */
+        private boolean fold() {
+            if (samples == 0) return false;
+
+            final Double predicted = predict(bucket);
+            if (predicted != null) {
+                final double error = Math.abs(peak - predicted);
+                mae = checks == 0 ? error : smooth(mae, error);
+                checks++;
+                // percentage error is undefined for zero demand
+                if (peak > 0) {
+                    final double percentageError = error / peak;
+                    mape = percentageChecks == 0 ? percentageError : smooth(mape, percentageError);
+                    percentageChecks++;
+                }
+            }
+
+            final int weekIndex = (int) (bucket % WEEK_BUCKETS);
+            week[weekIndex] = weekSamples[weekIndex] == 0 ? peak : smooth(week[weekIndex], peak);
+            weekSamples[weekIndex]++;
+            final int dayIndex = (int) (bucket % DAY_BUCKETS);
+            day[dayIndex] = daySamples[dayIndex] == 0 ? peak : smooth(day[dayIndex], peak);
+            daySamples[dayIndex]++;
+            return true;
+        }
+
+        private static double smooth(final double current, final double value) {
+            return current * (1 - SMOOTHING) + value * SMOOTHING;
+        }
+
+    }
+
+    /**
+     * Consumed by <code>EC2FleetStatusWidget/index.jelly</code>
+     */
+    @SuppressWarnings("unused")
+    public static class Accuracy {
+
+        private final double mae;
+        private final double mape;
+        private final int checks;
+
+        public Accuracy(final double mae, final double mape, final int checks) {
+            this.mae = mae;
+            this.mape = mape;
+            this.checks = checks;
+        }
+
+        /**
+         * @return mean absolute error in executors
+         */
+        public double getMae() {
+            return mae;
+        }
+
+        /**
+         * @return mean absolute percentage error, <code>0.1</code> is 10%
+         */
+        public double getMape() {
+            return mape;
+        }
+
+        public int getChecks() {
+            return checks;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Accuracy that = (Accuracy) o;
+            return Double.compare(that.mae, mae) == 0 &&
+                    Double.compare(that.mape, mape) == 0 &&
+                    checks == that.checks;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mae, mape, checks);
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples demand of clouds with prediction enabled: executors busy on nodes of cloud plus buildable
+ * items which cloud could provision. Items are matched by assigned label instead of strict
+ * {@link hudson.model.Label#loadStatistics} of label atoms, which miss items with compound label
+ * like <code>linux &amp;&amp; docker</code> and items without label.
+ *
+ * @see DemandHistory
+ */
+@Extension
+@SuppressWarnings("unused")
+public class DemandHistoryRecorder extends PeriodicWork {
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /**
+     * <h2>Exceptions</h2>
+     * This method will be executed by {@link PeriodicWork} inside {@link java.util.concurrent.ScheduledExecutorService}
+     * by default it stops execution if task throws exception, however {@link PeriodicWork} fix that
+     * by catch any exception and just log it, so we safe to throw exception here.
+     */
+    @Override
+    protected void doRun() {
+        final List<EC2FleetCloud> clouds = new ArrayList<>();
+        for (final Cloud cloud : getClouds()) {
+            if (cloud instanceof EC2FleetCloud && ((EC2FleetCloud) cloud).getPredictionLeadMinutes() > 0) {
+                clouds.add((EC2FleetCloud) cloud);
+            }
+        }
+        if (clouds.isEmpty()) return;
+
+        final int[] demand = new int[clouds.size()];
+        for (int i = 0; i < clouds.size(); i++) demand[i] = clouds.get(i).countBusyExecutors();
+        for (final Queue.BuildableItem item : getBuildableItems()) {
+            final Label label = item.getAssignedLabel();
+            for (int i = 0; i < clouds.size(); i++) {
+                if (clouds.get(i).canProvision(label)) demand[i]++;
+            }
+        }
+
+        final DemandHistory history = getHistory();
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < clouds.size(); i++) history.record(clouds.get(i).name, demand[i], now);
+    }
+
+    @VisibleForTesting
+    List<Queue.BuildableItem> getBuildableItems() {
+        return Jenkins.getInstance().getQueue().getBuildableItems();
+    }
+
+    @VisibleForTesting
+    DemandHistory getHistory() {
+        return DemandHistory.get();
+    }
+
+    /**
+     * We return {@link List} instead of original {@link Jenkins.CloudList}
+     * to simplify testing as jenkins list requires actual {@link Jenkins} instance.
+     *
+     * @return basic java list
+     */
+    @VisibleForTesting
+    List<Cloud> getClouds() {
+        return Jenkins.getActiveInstance().clouds;
+    }
+
+}
@@ -1,9 +1,12 @@
 package com.amazon.jenkins.ec2fleet;
 
+import com.amazon.jenkins.ec2fleet.utils.AWSClientCache;
 import com.amazon.jenkins.ec2fleet.utils.AWSUtils;
+import com.amazon.jenkins.ec2fleet.utils.EndpointResolver;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
@@ -13,13 +16,13 @@ import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceStateName;
 import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
-import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
-import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import jenkins.model.Jenkins;
+import hudson.util.DaemonThreadFactory;
 import org.apache.commons.lang.StringUtils;
 
 import javax.annotation.Nullable;
@@ -27,9 +30,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,8 +55,27 @@ public class EC2Api {
             InstanceStateName.ShuttingDown.toString()
     );
 
+    private static final ImmutableSet<String> GONE_STATES = ImmutableSet.of(
+            InstanceStateName.Terminated.toString(),
+            InstanceStateName.ShuttingDown.toString()
+    );
+
     private static final int BATCH_SIZE = 900;
 
+    private static final int TERMINATE_BATCH_SIZE = 100;
+    private static final int TERMINATE_THREADS = 8;
+
+    /**
+     * Error codes which are not related to specific instance in request, so there is no reason
+     * to split chunk to find failed instance.
+     */
+    private static final ImmutableSet<String> CHUNK_WIDE_ERROR_CODES = ImmutableSet.of(
+            "UnauthorizedOperation", "AuthFailure", "RequestLimitExceeded", "Throttling"
+    );
+
+    private static final ExecutorService TERMINATE_EXECUTOR =
+            Executors.newFixedThreadPool(TERMINATE_THREADS, new DaemonThreadFactory());
+
     private static final String NOT_FOUND_ERROR_CODE = "InvalidInstanceID.NotFound";
     private static final Pattern INSTANCE_ID_PATTERN = Pattern.compile("(i-[0-9a-zA-Z]+)");
 
@@ -73,13 +101,29 @@ public class EC2Api {
 
         final List<List<String>> batches = Lists.partition(new ArrayList<>(instanceIds), batchSize);
         for (final List<String> batch : batches) {
-            describeInstancesBatch(ec2, described, batch);
+            describeInstancesBatch(ec2, described, batch, TERMINATED_STATES);
+        }
+        return described;
+    }
+
+    /**
+     * Same as {@link EC2Api#describeInstances(AmazonEC2, Set)} but includes stopped and stopping instances
+     */
+    public Map<String, Instance> describeNotTerminatedInstances(final AmazonEC2 ec2, final Set<String> instanceIds) {
+        final Map<String, Instance> described = new HashMap<>();
+        // don't do actual call if no data
+        if (instanceIds.isEmpty()) return described;
+
+        final List<List<String>> batches = Lists.partition(new ArrayList<>(instanceIds), BATCH_SIZE);
+        for (final List<String> batch : batches) {
+            describeInstancesBatch(ec2, described, batch, GONE_STATES);
         }
         return described;
     }
 
     private static void describeInstancesBatch(
-            final AmazonEC2 ec2, final Map<String, Instance> described, final List<String> batch) {
+            final AmazonEC2 ec2, final Map<String, Instance> described, final List<String> batch,
+            final Set<String> excludedStates) {
         // we are going to modify list, so copy
         final List<String> copy = new ArrayList<>(batch);
 
@@ -100,7 +144,7 @@ public class EC2Api {
                     for (final Reservation r : result.getReservations()) {
                         for (final Instance instance : r.getInstances()) {
                             // if instance not in terminated state, add it to described
-                            if (!TERMINATED_STATES.contains(instance.getState().getName())) {
+                            if (!excludedStates.contains(instance.getState().getName())) {
                                 described.put(instance.getInstanceId(), instance);
                             }
                         }
@@ -127,13 +171,66 @@ public class EC2Api {
     }
 
     /**
-     * Auto handle instance not found exception if any and assume those instances as already terminated
+     * Terminate instances in chunks of {@link EC2Api#TERMINATE_BATCH_SIZE}, chunks are executed in parallel.
+     * Auto handle instance not found exception if any and assume those instances as already terminated.
+     * <p>
+     * Any other failure doesn't stop termination of the rest of instances, instead instance ID is returned
+     * as failed, so caller could retry it later.
      *
      * @param ec2 ec2 client
      * @param instanceIds set of instance ids
+     * @return instance ids which were not terminated, never <code>null</code>
      */
-    public void terminateInstances(final AmazonEC2 ec2, final Collection<String> instanceIds) {
-        final List<String> temp = new ArrayList<>(instanceIds);
+    public Set<String> terminateInstances(final AmazonEC2 ec2, final Collection<String> instanceIds) {
+        return terminateInstances(ec2, instanceIds, TERMINATE_BATCH_SIZE);
+    }
+
+    public Set<String> terminateInstances(final AmazonEC2 ec2, final Collection<String> instanceIds, final int batchSize) {
+        final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+        // don't do actual call if no data
+        if (instanceIds.isEmpty()) return failed;
+
+        final List<String> sorted = new ArrayList<>(instanceIds);
+        // just to simplify debug by having consist order
+        Collections.sort(sorted);
+        final List<List<String>> batches = Lists.partition(sorted, batchSize);
+
+        // no reason to pay for thread switch if only one batch
+        if (batches.size() == 1) {
+            terminateInstancesBatch(ec2, batches.get(0), failed);
+            return failed;
+        }
+
+        final List<Future<?>> futures = new ArrayList<>();
+        for (final List<String> batch : batches) {
+            futures.add(TERMINATE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    terminateInstancesBatch(ec2, batch, failed);
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // we don't know result of rest batches, assume all of them failed
+                for (int j = i; j < batches.size(); j++) failed.addAll(batches.get(j));
+                break;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Unexpected failure during instances termination", e.getCause());
+                failed.addAll(batches.get(i));
+            }
+        }
+        return failed;
+    }
+
+    private static void terminateInstancesBatch(
+            final AmazonEC2 ec2, final List<String> batch, final Set<String> failed) {
+        // we are going to modify list, so copy
+        final List<String> temp = new ArrayList<>(batch);
         // Retry if termination failed due to NOT_FOUND_ERROR_CODE
         while (temp.size() > 0) {
             try {
@@ -143,20 +240,76 @@ public class EC2Api {
             } catch (AmazonEC2Exception exception) {
                 // if we cannot find instance, that's fine assume them as terminated
                 // remove from request and try again
-                if (exception.getErrorCode().equals(NOT_FOUND_ERROR_CODE)) {
+                if (NOT_FOUND_ERROR_CODE.equals(exception.getErrorCode())) {
                     final List<String> notFoundInstanceIds = parseInstanceIdsFromNotFoundException(exception.getMessage());
-                    if (notFoundInstanceIds.isEmpty()) {
-                        // looks like we cannot parse correctly, rethrow
-                        throw exception;
+                    // looks like we cannot parse correctly, nothing to retry
+                    if (notFoundInstanceIds.isEmpty() || !temp.removeAll(notFoundInstanceIds)) {
+                        markFailed(temp, exception, failed);
+                        temp.clear();
                     }
-                    temp.removeAll(notFoundInstanceIds);
+                } else if (temp.size() > 1 && !CHUNK_WIDE_ERROR_CODES.contains(exception.getErrorCode())
+                        && exception.getErrorType() != AmazonServiceException.ErrorType.Service) {
+                    // error is caused by some of instances in chunk, split it to find them
+                    // and not block termination of rest
+                    final List<String> half = new ArrayList<>(temp.subList(0, temp.size() / 2));
+                    temp.removeAll(half);
+                    terminateInstancesBatch(ec2, half, failed);
                 } else {
-                    LOGGER.warning(String.format("Failed terminating EC2 instanceId(s): %s with following exception: %s",
-                            StringUtils.join(instanceIds, ","), exception.getMessage()));
-                    throw exception;
+                    markFailed(temp, exception, failed);
+                    temp.clear();
                 }
+            } catch (AmazonClientException exception) {
+                // network failure or SDK ran out of retries, same as failed chunk for multiple batches
+                markFailed(temp, exception, failed);
+                temp.clear();
+            }
+        }
+    }
+
+    /**
+     * Stop instances in chunks of {@link EC2Api#TERMINATE_BATCH_SIZE}, failure of chunk doesn't stop
+     * rest of chunks.
+     *
+     * @return instance ids which were not stopped, never <code>null</code>
+     */
+    public Set<String> stopInstances(final AmazonEC2 ec2, final Collection<String> instanceIds) {
+        final Set<String> failed = new HashSet<>();
+        for (final List<String> batch : Lists.partition(new ArrayList<>(instanceIds), TERMINATE_BATCH_SIZE)) {
+            try {
+                ec2.stopInstances(new StopInstancesRequest(batch));
+            } catch (AmazonEC2Exception exception) {
+                LOGGER.warning(String.format("Failed stopping EC2 instanceId(s): %s with following exception: %s",
+                        StringUtils.join(batch, ","), exception.getMessage()));
+                failed.addAll(batch);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Start stopped instances in chunks of {@link EC2Api#TERMINATE_BATCH_SIZE}, failure of chunk
+     * doesn't stop rest of chunks.
+     *
+     * @return instance ids which were not started, never <code>null</code>
+     */
+    public Set<String> startInstances(final AmazonEC2 ec2, final Collection<String> instanceIds) {
+        final Set<String> failed = new HashSet<>();
+        for (final List<String> batch : Lists.partition(new ArrayList<>(instanceIds), TERMINATE_BATCH_SIZE)) {
+            try {
+                ec2.startInstances(new StartInstancesRequest(batch));
+            } catch (AmazonEC2Exception exception) {
+                LOGGER.warning(String.format("Failed starting EC2 instanceId(s): %s with following exception: %s",
+                        StringUtils.join(batch, ","), exception.getMessage()));
+                failed.addAll(batch);
             }
         }
+        return failed;
+    }
+
+    private static void markFailed(final List<String> instanceIds, final Exception exception, final Set<String> failed) {
+        LOGGER.warning(String.format("Failed terminating EC2 instanceId(s): %s with following exception: %s",
+                StringUtils.join(instanceIds, ","), exception.getMessage()));
+        failed.addAll(instanceIds);
     }
 
     public void tagInstances(final AmazonEC2 ec2, final Set<String> instanceIds, final String key, final String value) {
@@ -169,12 +322,25 @@ public class EC2Api {
         ec2.createTags(request);
     }
 
+    /**
+     * @return cached client, see {@link AWSClientCache}
+     */
     public AmazonEC2 connect(final String awsCredentialsId, final String regionName, final String endpoint) {
+        return AWSClientCache.get(AmazonEC2Client.class, awsCredentialsId, regionName, endpoint,
+                new AWSClientCache.Factory<AmazonEC2Client>() {
+                    @Override
+                    public AmazonEC2Client create(final AWSCredentialsProvider credentialsProvider) {
+                        return newClient(credentialsProvider, regionName, endpoint);
+                    }
+                });
+    }
+
+    private AmazonEC2Client newClient(
+            final AWSCredentialsProvider credentialsProvider, final String regionName, final String endpoint) {
         final ClientConfiguration clientConfiguration = AWSUtils.getClientConfiguration(endpoint);
-        final AmazonWebServicesCredentials credentials = AWSCredentialsHelper.getCredentials(awsCredentialsId, Jenkins.getInstance());
         final AmazonEC2Client client =
-                credentials != null ?
-                        new AmazonEC2Client(credentials, clientConfiguration) :
+                credentialsProvider != null ?
+                        new AmazonEC2Client(credentialsProvider, clientConfiguration) :
                         new AmazonEC2Client(clientConfiguration);
 
         final String effectiveEndpoint = getEndpoint(regionName, endpoint);
@@ -183,42 +349,15 @@ public class EC2Api {
     }
 
     /**
-     * Derive EC2 API endpoint. If <code>endpoint</code> parameter not empty will use
-     * it as first priority, otherwise will try to find region in {@link RegionUtils} by <code>regionName</code>
-     * and use endpoint from it, if not available will generate endpoint as string and check if
-     * region name looks like China <code>cn-</code> prefix.
-     * <p>
-     * Implementation details
-     * <p>
-     * {@link RegionUtils} is static information, and to get new region required to be updated,
-     * as it's not possible too fast as you need to check new version of lib, moreover new version of lib
-     * could be pointed to new version of Jenkins which is not a case for our plugin as some of installation
-     * still on <code>1.6.x</code>
-     * <p>
-     * For example latest AWS SDK lib depends on Jackson2 plugin which starting from version <code>2.8.7.0</code>
-     * require Jenkins at least <code>2.60</code> https://plugins.jenkins.io/jackson2-api
-     * <p>
-     * List of all AWS endpoints
-     * https://docs.aws.amazon.com/general/latest/gr/rande.html
+     * Derive EC2 API endpoint.
      *
      * @param regionName like us-east-1 not a airport code, could be <code>null</code>
      * @param endpoint   custom endpoint could be <code>null</code>
      * @return <code>null</code> or actual endpoint
+     * @see EndpointResolver#getEndpoint(String, String, String)
      */
     @Nullable
     public String getEndpoint(@Nullable final String regionName, @Nullable final String endpoint) {
-        if (StringUtils.isNotEmpty(endpoint)) {
-            return endpoint;
-        } else if (StringUtils.isNotEmpty(regionName)) {
-            final Region region = RegionUtils.getRegion(regionName);
-            if (region != null && region.isServiceSupported(endpoint)) {
-                return region.getServiceEndpoint(endpoint);
-            } else {
-                final String domain = regionName.startsWith("cn-") ? "amazonaws.com.cn" : "amazonaws.com";
-                return "https://ec2." + regionName + "." + domain;
-            }
-        } else {
-            return null;
-        }
+        return EndpointResolver.getEndpoint(EndpointResolver.EC2, regionName, endpoint);
     }
 }
@@ -3,6 +3,7 @@ package com.amazon.jenkins.ec2fleet;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.Action;
 import hudson.model.Actionable;
+import hudson.model.Computer;
 import hudson.model.Executor;
 import hudson.model.Queue;
 import hudson.model.Result;
@@ -13,6 +14,7 @@ import hudson.slaves.DelegatingComputerLauncher;
 import hudson.slaves.SlaveComputer;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -36,14 +38,29 @@ public class EC2FleetAutoResubmitComputerLauncher extends DelegatingComputerLaun
     private static final Level LOG_LEVEL = Level.INFO;
     private static final Logger LOGGER = Logger.getLogger(EC2FleetAutoResubmitComputerLauncher.class.getName());
 
+    public EC2FleetAutoResubmitComputerLauncher(final ComputerLauncher launcher) {
+        super(launcher);
+    }
+
     /**
-     * Delay which will be applied when job {@link Queue#scheduleInternal(Queue.Task, int, List)}
-     * rescheduled after offline
+     * Measures connect latency of node for {@link NodeHealth}
+     *
+     * @param computer computer
+     * @param listener listener
      */
-    private static final int RESCHEDULE_QUIET_PERIOD_SEC = 10;
+    @SuppressFBWarnings(
+            value = "BC_UNCONFIRMED_CAST",
+            justification = "to ignore EC2FleetNodeComputer cast")
+    @Override
+    public void launch(final SlaveComputer computer, final TaskListener listener) throws IOException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        super.launch(computer, listener);
+        if (computer == null || !computer.isOnline()) return;
 
-    public EC2FleetAutoResubmitComputerLauncher(final ComputerLauncher launcher) {
-        super(launcher);
+        final AbstractEC2FleetCloud cloud = ((EC2FleetNodeComputer) computer).getCloud();
+        if (cloud instanceof EC2FleetCloud) {
+            ((EC2FleetCloud) cloud).recordConnect((EC2FleetNodeComputer) computer, System.currentTimeMillis() - start);
+        }
     }
 
     /**
@@ -85,26 +102,7 @@ public class EC2FleetAutoResubmitComputerLauncher extends DelegatingComputerLaun
         LOGGER.log(LOG_LEVEL, "DISCONNECTED: " + computer.getDisplayName());
 
         if (!cloud.isDisableTaskResubmit() && computer.isOffline()) {
-            final List<Executor> executors = computer.getExecutors();
-            LOGGER.log(LOG_LEVEL, "Start retriggering executors for " + computer.getDisplayName());
-
-            for (Executor executor : executors) {
-                final Queue.Executable executable = executor.getCurrentExecutable();
-                if (executable != null) {
-                    executor.interrupt(Result.ABORTED, new EC2TerminationCause(computer.getDisplayName()));
-
-                    final SubTask subTask = executable.getParent();
-                    final Queue.Task task = subTask.getOwnerTask();
-
-                    List<Action> actions = new ArrayList<>();
-                    if (executable instanceof Actionable) {
-                        actions = ((Actionable) executable).getActions();
-                    }
-                    LOGGER.log(LOG_LEVEL, "RETRIGGERING: " + task + " - WITH ACTIONS: " + actions);
-                    Queue.getInstance().schedule2(task, RESCHEDULE_QUIET_PERIOD_SEC, actions);
-                }
-            }
-            LOGGER.log(LOG_LEVEL, "Finished retriggering executors for " + computer.getDisplayName());
+            resubmit(computer, cloud);
         } else {
             LOGGER.log(LOG_LEVEL, "Skipping executable resubmission for " + computer.getDisplayName()
                     + " - disableTaskResubmit: " + cloud.isDisableTaskResubmit() + " - offline: " + computer.isOffline());
@@ -114,4 +112,52 @@ public class EC2FleetAutoResubmitComputerLauncher extends DelegatingComputerLaun
         super.afterDisconnect(computer, listener);
     }
 
+    /**
+     * Abort executables of computer and put their tasks back to the queue with the same actions.
+     * Used on disconnect and ahead of known termination, like spot interruption.
+     * <p>
+     * Tasks are scheduled in one batch under queue lock with {@link AbstractEC2FleetCloud#getResubmitDelaySec()},
+     * resubmitted tasks avoid computer and go ahead of new work, see {@link EC2FleetResubmitAction}.
+     *
+     * @param computer computer
+     * @param cloud    cloud of computer
+     */
+    static void resubmit(final Computer computer, final AbstractEC2FleetCloud cloud) {
+        final List<Executor> executors = computer.getExecutors();
+        LOGGER.log(LOG_LEVEL, "Start retriggering executors for " + computer.getDisplayName());
+
+        final List<Queue.Task> tasks = new ArrayList<>();
+        final List<List<Action>> tasksActions = new ArrayList<>();
+        for (Executor executor : executors) {
+            final Queue.Executable executable = executor.getCurrentExecutable();
+            if (executable != null) {
+                executor.interrupt(Result.ABORTED, new EC2TerminationCause(computer.getDisplayName()));
+
+                final SubTask subTask = executable.getParent();
+                final Queue.Task task = subTask.getOwnerTask();
+
+                List<Action> actions = new ArrayList<>();
+                if (executable instanceof Actionable) {
+                    actions = ((Actionable) executable).getActions();
+                }
+                LOGGER.log(LOG_LEVEL, "RETRIGGERING: " + task + " - WITH ACTIONS: " + actions);
+                tasks.add(task);
+                tasksActions.add(EC2FleetResubmitAction.withFailedNode(actions, computer.getName()));
+            }
+        }
+
+        if (!tasks.isEmpty()) {
+            final int delaySec = cloud.getResubmitDelaySec();
+            // one queue lock and maintenance for all tasks of computer
+            Queue.withLock(new Runnable() {
+                @Override
+                public void run() {
+                    final Queue queue = Queue.getInstance();
+                    for (int i = 0; i < tasks.size(); i++) queue.schedule2(tasks.get(i), delaySec, tasksActions.get(i));
+                }
+            });
+        }
+        LOGGER.log(LOG_LEVEL, "Finished retriggering executors for " + computer.getDisplayName());
+    }
+
 }
@@ -0,0 +1,99 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefers nodes of {@link EC2FleetCloud} with {@link EC2FleetCloud#getCacheAffinityWaitSec()} which recently
+ * ran the same job or job of the same folder, see {@link WarmCache}. Node is skipped if other node of the same
+ * cloud with better affinity could take the task. When task waits in queue longer than configured time
+ * it goes to any node.
+ * <p>
+ * Warm nodes are found by {@link EC2FleetCloud#getWarmNodes(String)} instead of scanning all nodes.
+ */
+@Extension
+@SuppressWarnings("unused")
+public class EC2FleetCacheAffinityDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canTake(final Node node, final Queue.BuildableItem item) {
+        if (!(node instanceof EC2FleetNode)) return null;
+        final AbstractEC2FleetCloud cloud = ((EC2FleetNode) node).getCloud();
+        if (!(cloud instanceof EC2FleetCloud)) return null;
+
+        final int waitSec = ((EC2FleetCloud) cloud).getCacheAffinityWaitSec();
+        if (waitSec < 1 || getNow() - item.getInQueueSince() >= TimeUnit.SECONDS.toMillis(waitSec)) return null;
+
+        final List<String> keys = WarmCache.getKeys(item.task);
+        if (keys.isEmpty()) return null;
+
+        final int affinity = getAffinity(node.toComputer(), keys);
+        if (affinity == WarmCache.JOB_AFFINITY) return null;
+
+        final Node warmer = findWarmerNode((EC2FleetCloud) cloud, node, affinity, keys, item);
+        return warmer == null ? null : new WarmerNodeAvailable(warmer.getNodeName());
+    }
+
+    @Nullable
+    private Node findWarmerNode(final EC2FleetCloud cloud, final Node node, final int affinity,
+                                final List<String> keys, final Queue.BuildableItem item) {
+        // job key gives job affinity, folder key gives folder affinity, see WarmCache#getKeys
+        for (int i = 0; i < keys.size() && WarmCache.JOB_AFFINITY - i > affinity; i++) {
+            for (final String name : cloud.getWarmNodes(keys.get(i))) {
+                final Node other = getNode(name);
+                if (other == null || other == node || !(other instanceof EC2FleetNode)
+                        || ((EC2FleetNode) other).getCloud() != cloud) continue;
+
+                final Computer otherComputer = other.toComputer();
+                if (otherComputer == null || otherComputer.isOffline() || !otherComputer.isAcceptingTasks()) continue;
+                // busy warm node is worth to wait for, index could be stale so cache of node decides
+                if (getAffinity(otherComputer, keys) <= affinity) continue;
+                // checks label, mode and node properties
+                if (other.canTake(item) == null) return other;
+            }
+        }
+        return null;
+    }
+
+    private static int getAffinity(@Nullable final Computer computer, final List<String> keys) {
+        if (!(computer instanceof EC2FleetNodeComputer)) return 0;
+        return ((EC2FleetNodeComputer) computer).getWarmCache().getAffinity(keys);
+    }
+
+    @VisibleForTesting
+    long getNow() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    @Nullable
+    Node getNode(final String name) {
+        return Jenkins.getInstance().getNode(name);
+    }
+
+    static class WarmerNodeAvailable extends CauseOfBlockage {
+
+        private final String nodeName;
+
+        WarmerNodeAvailable(final String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Waiting for node with warm workspace " + nodeName;
+        }
+
+    }
+
+}
@@ -1,7 +1,9 @@
 package com.amazon.jenkins.ec2fleet;
 
+import com.amazon.jenkins.ec2fleet.fleet.AutoScalingGroupFleet;
 import com.amazon.jenkins.ec2fleet.fleet.EC2Fleet;
 import com.amazon.jenkins.ec2fleet.fleet.EC2Fleets;
+import com.amazon.jenkins.ec2fleet.utils.AWSClientCache;
 import com.amazon.jenkins.ec2fleet.utils.AwsPermissionChecker;
 import com.amazon.jenkins.ec2fleet.utils.EC2FleetCloudAwareUtils;
 import com.amazon.jenkins.ec2fleet.utils.RegionHelper;
@@ -18,34 +20,47 @@ import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
 import hudson.slaves.Cloud;
 import hudson.slaves.ComputerConnector;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.NodeProvisioner;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -68,10 +83,21 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
 
     private static final int DEFAULT_MAX_TOTAL_USES = -1;
 
+    private static final int DEFAULT_STOPPED_POOL_MAX_AGE_MINUTES = 24 * 60;
+
+    private static final long RETENTION_CHECK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
     private static final SimpleFormatter sf = new SimpleFormatter();
     private static final Logger LOGGER = Logger.getLogger(EC2FleetCloud.class.getName());
     private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor();
 
+    /**
+     * Runs {@link EC2FleetCloud#update()} right after provision for clouds with
+     * {@link EC2FleetCloud#noDelayProvision}, so fleet is modified without waiting for {@link CloudNanny}.
+     * Single thread, each cloud has at most one scheduled update, so queue is bounded by amount of clouds.
+     */
+    private static final ExecutorService IMMEDIATE_UPDATE_EXECUTOR = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+
     /**
      * Provide unique identifier for this instance of {@link EC2FleetCloud}, <code>transient</code>
      * will not be stored. Not available for customer, instead use {@link EC2FleetCloud#name}
@@ -140,6 +166,62 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
      */
     private final boolean noDelayProvision;
 
+    /**
+     * Number of idle executors which cloud keeps ready on top of current load,
+     * <code>null</code> for configurations saved before setting was introduced
+     */
+    private Integer minSpareSize;
+
+    /**
+     * @see DemandHistory
+     */
+    private Integer predictionLeadMinutes;
+
+    private List<ScheduledCapacity> scheduledCapacities;
+
+    /**
+     * @see StoppedInstancePool
+     */
+    private Integer stoppedPoolSize;
+    private Integer stoppedPoolMaxAgeMinutes;
+
+    /**
+     * @see ScaleInController
+     */
+    private Integer scaleInCooldownMinutes;
+    private Integer scaleInMaxInstances;
+    private Integer scaleInDemandWindowMinutes;
+
+    /**
+     * @see EC2FleetConsolidationDispatcher
+     */
+    private Integer consolidationThreshold;
+
+    /**
+     * @see EC2FleetCacheAffinityDispatcher
+     */
+    private Integer cacheAffinityWaitSec;
+
+    /**
+     * @see EC2FleetNodeComputer#drain(String, Long)
+     */
+    private Integer drainTimeoutMinutes;
+
+    /**
+     * @see SpotInterruptionHandler
+     */
+    private String interruptionQueueUrl;
+
+    /**
+     * @see EC2FleetAutoResubmitComputerLauncher
+     */
+    private Integer resubmitDelaySec;
+
+    /**
+     * @see NodeHealth
+     */
+    private Integer quarantineScore;
+
     /**
      * {@link EC2FleetCloud#update()} updating this field, this is one thread
      * related to {@link CloudNanny}. At the same time {@link EC2RetentionStrategy}
@@ -154,12 +236,105 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
 
     private transient int toAdd;
 
+    /**
+     * Capacity requested by {@link EC2FleetCloud#reserve(int, long)}, not linked to planned nodes
+     */
+    private transient int reservedCapacityToAdd;
+
+    private transient List<Reservation> reservations;
+
     private transient Set<String> instanceIdsToTerminate;
 
+    /**
+     * Subset of {@link EC2FleetCloud#instanceIdsToTerminate} which plugin failed to terminate
+     * during last {@link EC2FleetCloud#update()}. Fleet capacity for them was already decreased,
+     * so they should not be counted again when plugin calculates new target capacity.
+     */
+    private transient Set<String> instanceIdsToRetryTermination;
+
     private transient Set<NodeProvisioner.PlannedNode> plannedNodesCache;
 
+    /**
+     * {@link EC2FleetCloud#update()} could be called by {@link CloudNanny} and immediate update
+     * after provision at the same time, but it works with snapshot of state so should not run in parallel
+     */
+    private transient ReentrantLock updateLock;
+
+    private transient AtomicBoolean immediateUpdateScheduled;
+
+    /**
+     * Average weight of instance types of fleet instances, <code>null</code> if fleet has no instances
+     * or doesn't use weights
+     */
+    private transient volatile Double observedAverageWeight;
+
+    /**
+     * Min and max size of active {@link ScheduledCapacity} windows, evaluated by {@link EC2FleetCloud#update()},
+     * <code>null</code> if no active window overrides size
+     */
+    private transient volatile Integer scheduledMinSize;
+    private transient volatile Integer scheduledMaxSize;
+
+    /**
+     * Min and max size passed to last {@link EC2Fleet#modify}, <code>null</code> if fleet was not modified
+     * since start, guarded by {@link EC2FleetCloud#updateLock}
+     */
+    private transient Integer appliedMinSize;
+    private transient Integer appliedMaxSize;
+
     private transient ArrayList<ScheduledFuture<?>> plannedNodeScheduledFutures;
 
+    private transient StoppedInstancePool stoppedInstancePool;
+
+    private transient ScaleInController scaleInController;
+
+    private transient SpotInterruptionHandler spotInterruptionHandler;
+
+    /**
+     * Time of last {@link EC2FleetCloud#checkRetention(long)}, guarded by {@link EC2FleetCloud#updateLock}
+     */
+    private transient long lastRetentionCheckMillis;
+
+    private transient AtomicBoolean retentionCheckRequested;
+
+    /**
+     * Tasks accepted by cloud nodes which ran the same job before and which didn't, see {@link WarmCache}
+     */
+    private transient AtomicLong cacheHits;
+    private transient AtomicLong cacheMisses;
+
+    private transient WarmNodeIndex warmNodeIndex;
+
+    /**
+     * Number of draining nodes, updated by {@link EC2FleetCloud#update()} and {@link EC2FleetCloud#drain(String, String)},
+     * they are going to be terminated so they don't count as excess capacity
+     */
+    private transient int drainingCount;
+
+    private transient FleetHealth fleetHealth;
+
+    /**
+     * Nodes quarantined since last update which should be replaced, guarded by <code>this</code>
+     */
+    private transient int quarantinedCount;
+
+    /**
+     * Accepting nodes with idle executors busiest first for {@link EC2FleetConsolidationDispatcher},
+     * <code>null</code> if should be rebuilt, see {@link EC2FleetCloud#getPackingOrder()}
+     */
+    private transient volatile List<Node> packingOrder;
+
+    /**
+     * Parsed {@link EC2FleetCloud#labelString}, lazy as parsing requires {@link Jenkins} instance
+     */
+    private transient volatile Set<LabelAtom> labelAtoms;
+
+    /**
+     * {@link EC2FleetCloud#labelString} is final, so cache is never invalidated, any
+     * configuration change creates new cloud instance
+     */
+    private transient LabelMatchCache labelMatchCache;
+
     @DataBoundConstructor
     public EC2FleetCloud(final String name,
                          final String oldId,
@@ -226,6 +401,308 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         return noDelayProvision;
     }
 
+    public int getMinSpareSize() {
+        return minSpareSize == null ? 0 : minSpareSize;
+    }
+
+    @DataBoundSetter
+    public void setMinSpareSize(final Integer minSpareSize) {
+        this.minSpareSize = minSpareSize;
+    }
+
+    /**
+     * @return how far ahead cloud provisions for predicted demand, <code>0</code> if prediction disabled
+     */
+    public int getPredictionLeadMinutes() {
+        return predictionLeadMinutes == null ? 0 : predictionLeadMinutes;
+    }
+
+    @DataBoundSetter
+    public void setPredictionLeadMinutes(final Integer predictionLeadMinutes) {
+        this.predictionLeadMinutes = predictionLeadMinutes;
+    }
+
+    public List<ScheduledCapacity> getScheduledCapacities() {
+        return scheduledCapacities == null ? Collections.<ScheduledCapacity>emptyList() : scheduledCapacities;
+    }
+
+    @DataBoundSetter
+    public void setScheduledCapacities(final List<ScheduledCapacity> scheduledCapacities) {
+        this.scheduledCapacities = scheduledCapacities == null ? null : new ArrayList<>(scheduledCapacities);
+    }
+
+    /**
+     * @return max number of stopped instances kept for fast scale out, <code>0</code> if pool disabled
+     */
+    public int getStoppedPoolSize() {
+        return stoppedPoolSize == null ? 0 : stoppedPoolSize;
+    }
+
+    @DataBoundSetter
+    public void setStoppedPoolSize(final Integer stoppedPoolSize) {
+        this.stoppedPoolSize = stoppedPoolSize;
+    }
+
+    public int getStoppedPoolMaxAgeMinutes() {
+        return stoppedPoolMaxAgeMinutes == null ? DEFAULT_STOPPED_POOL_MAX_AGE_MINUTES : stoppedPoolMaxAgeMinutes;
+    }
+
+    @DataBoundSetter
+    public void setStoppedPoolMaxAgeMinutes(final Integer stoppedPoolMaxAgeMinutes) {
+        this.stoppedPoolMaxAgeMinutes = stoppedPoolMaxAgeMinutes;
+    }
+
+    /**
+     * @return minutes after scale out during which idle nodes are not released, <code>0</code> if disabled
+     */
+    public int getScaleInCooldownMinutes() {
+        return scaleInCooldownMinutes == null ? 0 : scaleInCooldownMinutes;
+    }
+
+    @DataBoundSetter
+    public void setScaleInCooldownMinutes(final Integer scaleInCooldownMinutes) {
+        this.scaleInCooldownMinutes = scaleInCooldownMinutes;
+    }
+
+    /**
+     * @return max idle nodes released per cooldown interval, <code>0</code> if unlimited
+     */
+    public int getScaleInMaxInstances() {
+        return scaleInMaxInstances == null ? 0 : scaleInMaxInstances;
+    }
+
+    @DataBoundSetter
+    public void setScaleInMaxInstances(final Integer scaleInMaxInstances) {
+        this.scaleInMaxInstances = scaleInMaxInstances;
+    }
+
+    /**
+     * @return minutes of demand history which cloud keeps executors for, <code>0</code> if disabled
+     */
+    public int getScaleInDemandWindowMinutes() {
+        return scaleInDemandWindowMinutes == null ? 0 : scaleInDemandWindowMinutes;
+    }
+
+    @DataBoundSetter
+    public void setScaleInDemandWindowMinutes(final Integer scaleInDemandWindowMinutes) {
+        this.scaleInDemandWindowMinutes = scaleInDemandWindowMinutes;
+    }
+
+    /**
+     * @return utilization in percent below which busy node is drained to consolidate load,
+     * <code>0</code> if consolidation disabled
+     */
+    public int getConsolidationThreshold() {
+        return consolidationThreshold == null ? 0 : consolidationThreshold;
+    }
+
+    @DataBoundSetter
+    public void setConsolidationThreshold(final Integer consolidationThreshold) {
+        this.consolidationThreshold = consolidationThreshold;
+    }
+
+    /**
+     * @return seconds task waits for node with warm workspace, <code>0</code> if cache affinity disabled
+     */
+    public int getCacheAffinityWaitSec() {
+        return cacheAffinityWaitSec == null ? 0 : cacheAffinityWaitSec;
+    }
+
+    @DataBoundSetter
+    public void setCacheAffinityWaitSec(final Integer cacheAffinityWaitSec) {
+        this.cacheAffinityWaitSec = cacheAffinityWaitSec;
+    }
+
+    /**
+     * @return minutes draining node waits for running tasks before termination, <code>0</code> if no limit
+     */
+    public int getDrainTimeoutMinutes() {
+        return drainTimeoutMinutes == null ? 0 : drainTimeoutMinutes;
+    }
+
+    @DataBoundSetter
+    public void setDrainTimeoutMinutes(final Integer drainTimeoutMinutes) {
+        this.drainTimeoutMinutes = drainTimeoutMinutes;
+    }
+
+    /**
+     * @return URL of SQS queue with spot interruption and rebalance notices, <code>null</code> if disabled
+     */
+    @Nullable
+    public String getInterruptionQueueUrl() {
+        return interruptionQueueUrl;
+    }
+
+    @DataBoundSetter
+    public void setInterruptionQueueUrl(final String interruptionQueueUrl) {
+        this.interruptionQueueUrl = StringUtils.trimToNull(interruptionQueueUrl);
+    }
+
+    /**
+     * @return quiet period of resubmitted tasks, <code>0</code> by default so tasks resume as soon as possible
+     */
+    @Override
+    public int getResubmitDelaySec() {
+        return resubmitDelaySec == null ? 0 : resubmitDelaySec;
+    }
+
+    @DataBoundSetter
+    public void setResubmitDelaySec(final Integer resubmitDelaySec) {
+        this.resubmitDelaySec = resubmitDelaySec;
+    }
+
+    /**
+     * @return health score in percent below which node is quarantined, <code>0</code> if quarantine disabled
+     */
+    public int getQuarantineScore() {
+        return quarantineScore == null ? 0 : quarantineScore;
+    }
+
+    @DataBoundSetter
+    public void setQuarantineScore(final Integer quarantineScore) {
+        this.quarantineScore = quarantineScore;
+    }
+
+    /**
+     * @param duration build duration in millis
+     * @param failed   <code>true</code> if build failed or executor hit problem, result of Pipeline run
+     *                 is unknown till run completes so only problems count for its <code>node</code> blocks
+     */
+    void recordBuild(final EC2FleetNodeComputer computer, final Queue.Task task, final long duration,
+                     final boolean failed) {
+        if (getQuarantineScore() < 1) return;
+
+        final String key = FleetHealth.getKey(task);
+        final Long median = key == null ? null : fleetHealth.recordBuild(key, duration, failed);
+        computer.getHealth().recordBuild(
+                median == null || failed ? null : median / (double) Math.max(1, duration), failed);
+        checkHealth(computer);
+    }
+
+    /**
+     * @param latency millis from launch till node is online
+     */
+    void recordConnect(final EC2FleetNodeComputer computer, final long latency) {
+        if (getQuarantineScore() < 1) return;
+
+        final Long median = fleetHealth.recordConnect(latency);
+        if (median != null) computer.getHealth().recordConnect(median / (double) Math.max(1, latency));
+        checkHealth(computer);
+    }
+
+    /**
+     * Unhealthy node is quarantined, it is drained and replaced, so it is terminated by
+     * {@link EC2FleetCloud#checkRetention(long)} when running tasks complete. Quarantined node stays
+     * drained till it can be terminated.
+     */
+    private void checkHealth(final EC2FleetNodeComputer computer) {
+        final NodeHealth health = computer.getHealth();
+        final List<String> reasons = health.check(getQuarantineScore(), fleetHealth.getFailureRate());
+        if (reasons.isEmpty()) return;
+
+        final String reason = StringUtils.join(reasons, ", ");
+        if (!health.quarantine(reason)) return;
+        warning("quarantine %s with health score %s, %s", computer.getName(), health.getScore(), reason);
+        drain(computer.getName(), "quarantine, " + reason);
+        synchronized (this) {
+            quarantinedCount++;
+        }
+        // quarantine is rare, replace node right away
+        requestRetentionCheck();
+        scheduleImmediateUpdate();
+    }
+
+    /**
+     * @param nodeName node which accepted task
+     * @param keys     keys of task, see {@link WarmCache#getKeys(Queue.Task)}
+     * @param evicted  keys evicted from cache of node by task
+     * @param hit      <code>true</code> if node ran the same job before
+     */
+    void recordCacheAccess(final String nodeName, final List<String> keys, final Collection<String> evicted,
+                           final boolean hit) {
+        (hit ? cacheHits : cacheMisses).incrementAndGet();
+        warmNodeIndex.record(nodeName, keys, evicted);
+    }
+
+    /**
+     * @param key job or folder key, see {@link WarmCache#getKeys(Queue.Task)}
+     * @return names of nodes which ran job or job of folder, could include nodes which evicted key already
+     */
+    List<String> getWarmNodes(final String key) {
+        return warmNodeIndex.getNodes(key);
+    }
+
+    /**
+     * @return share of tasks which went to node which ran the same job before,
+     * <code>null</code> if no tasks yet
+     */
+    @Nullable
+    public Double getCacheHitRatio() {
+        final long hits = cacheHits.get();
+        final long total = hits + cacheMisses.get();
+        return total == 0 ? null : hits / (double) total;
+    }
+
+    @Nullable
+    public Integer getScheduledMinSize() {
+        return scheduledMinSize;
+    }
+
+    @Nullable
+    public Integer getScheduledMaxSize() {
+        return scheduledMaxSize;
+    }
+
+    /**
+     * @return min size of active {@link ScheduledCapacity} window if any, otherwise configured one
+     */
+    public int getEffectiveMinSize() {
+        final Integer scheduled = scheduledMinSize;
+        return scheduled == null ? minSize : scheduled;
+    }
+
+    /**
+     * @return max size of active {@link ScheduledCapacity} window if any, otherwise configured one,
+     * never less than {@link EC2FleetCloud#getEffectiveMinSize()}
+     */
+    public int getEffectiveMaxSize() {
+        final Integer scheduled = scheduledMaxSize;
+        return Math.max(scheduled == null ? maxSize : scheduled, getEffectiveMinSize());
+    }
+
+    /**
+     * @return max predicted executors demand of cloud within {@link EC2FleetCloud#getPredictionLeadMinutes()},
+     * <code>0</code> if prediction disabled or no history yet
+     */
+    public int getPredictedDemand() {
+        final int leadMinutes = getPredictionLeadMinutes();
+        if (leadMinutes < 1) return 0;
+
+        return DemandHistory.get().forecast(name, leadMinutes, System.currentTimeMillis());
+    }
+
+    /**
+     * @return accuracy of demand forecast of cloud, <code>null</code> if prediction disabled or not checked yet
+     */
+    @Nullable
+    public DemandHistory.Accuracy getForecastAccuracy() {
+        if (getPredictionLeadMinutes() < 1) return null;
+
+        return DemandHistory.get().getAccuracy(Collections.singletonList(name));
+    }
+
+    /**
+     * @return executors running tasks on nodes of cloud, see {@link DemandHistoryRecorder}
+     */
+    int countBusyExecutors() {
+        int result = 0;
+        for (final Node node : getFleetNodes(Collections.<String>emptySet())) {
+            final Computer computer = node.toComputer();
+            if (computer != null) result += computer.countBusy();
+        }
+        return result;
+    }
+
     /**
      * See {@link EC2FleetCloud#awsCredentialsId} documentation. Don't use fields directly to be able
      * get old version of plugin and for new.
@@ -307,6 +784,18 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         return labelString;
     }
 
+    /**
+     * @return atoms of {@link EC2FleetCloud#getLabelString()}, parsed once per cloud instance
+     */
+    public Set<LabelAtom> getLabelAtoms() {
+        Set<LabelAtom> result = labelAtoms;
+        if (result == null) {
+            result = Collections.unmodifiableSet(Label.parse(labelString));
+            labelAtoms = result;
+        }
+        return result;
+    }
+
     public int getIdleMinutes() {
         return (idleMinutes != null) ? idleMinutes : 0;
     }
@@ -348,24 +837,303 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         this.plannedNodeScheduledFutures = futures;
     }
 
-    @VisibleForTesting
-    synchronized Set<String> getInstanceIdsToTerminate() {
-        return instanceIdsToTerminate;
+    @VisibleForTesting
+    synchronized Set<String> getInstanceIdsToTerminate() {
+        return instanceIdsToTerminate;
+    }
+
+    @VisibleForTesting
+    synchronized Set<String> getInstanceIdsToRetryTermination() {
+        return instanceIdsToRetryTermination;
+    }
+
+    @VisibleForTesting
+    synchronized int getToAdd() {
+        return toAdd;
+    }
+
+    @VisibleForTesting
+    synchronized FleetStateStats getStats() {
+        return stats;
+    }
+
+    @VisibleForTesting
+    synchronized void setStats(final FleetStateStats stats) {
+        this.stats = stats;
+    }
+
+    private static boolean isWarm(final Computer computer) {
+        return computer instanceof EC2FleetNodeComputer
+                && !((EC2FleetNodeComputer) computer).getWarmCache().isEmpty();
+    }
+
+    private boolean isScaleInControlled() {
+        return getScaleInCooldownMinutes() > 0 || getScaleInMaxInstances() > 0 || getScaleInDemandWindowMinutes() > 0;
+    }
+
+    /**
+     * @return idle nodes idle for too long with their executors, longest idle first, with cache
+     * affinity nodes without cache hits go first, so warm nodes are kept
+     */
+    private Map<String, Integer> getScaleInCandidates(final List<Node> nodes) {
+        final long maxIdle = TimeUnit.MINUTES.toMillis(getIdleMinutes());
+        final long now = System.currentTimeMillis();
+        final List<Computer> idle = new ArrayList<>();
+        for (final Node node : nodes) {
+            final Computer computer = node.toComputer();
+            if (computer == null || !computer.isIdle()) continue;
+            if (now - computer.getIdleStartMilliseconds() > maxIdle) idle.add(computer);
+        }
+        final boolean preferCold = getCacheAffinityWaitSec() > 0;
+        Collections.sort(idle, new Comparator<Computer>() {
+            @Override
+            public int compare(final Computer o1, final Computer o2) {
+                if (preferCold) {
+                    final int warm = Boolean.compare(isWarm(o1), isWarm(o2));
+                    if (warm != 0) return warm;
+                }
+                return Long.compare(o1.getIdleStartMilliseconds(), o2.getIdleStartMilliseconds());
+            }
+        });
+
+        final Map<String, Integer> result = new LinkedHashMap<>();
+        for (final Computer computer : idle) result.put(computer.getName(), computer.getNumExecutors());
+        return result;
+    }
+
+    @Override
+    public boolean drain(final String instanceId, final String reason) {
+        final Node node = Jenkins.getInstance().getNode(instanceId);
+        if (node == null) return false;
+        final Computer computer = node.toComputer();
+        if (!(computer instanceof EC2FleetNodeComputer)) return false;
+
+        final int timeout = getDrainTimeoutMinutes();
+        final Long deadline = timeout > 0 ? System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(timeout) : null;
+        if (((EC2FleetNodeComputer) computer).drain(reason, deadline)) {
+            synchronized (this) {
+                drainingCount++;
+            }
+            info("drain %s, %s", instanceId, reason);
+        }
+        return true;
+    }
+
+    /**
+     * Retention pass over all nodes of cloud instead of independent {@link EC2RetentionStrategy#check} of
+     * each node, so with thousands of nodes pass takes queue lock and cloud lock once and terminations are
+     * submitted as one batch. Idle nodes are checked under queue lock, so they can't take task after
+     * they were chosen.
+     * <ul>
+     * <li>draining node is released when running tasks complete or drain deadline passed, drain is
+     * cancelled if cloud refuses termination</li>
+     * <li>capacity above max size is released from idle nodes first, rest of it from busy nodes which
+     * are drained</li>
+     * <li>node idle for too long is released unless it is spare capacity or scale in is deferred</li>
+     * </ul>
+     */
+    @VisibleForTesting
+    void checkRetention(final long now) {
+        final Set<String> terminating;
+        final int capacity;
+        synchronized (this) {
+            // Let plugin sync up with current state of fleet
+            if (stats == null) return;
+            terminating = new HashSet<>(instanceIdsToTerminate);
+            capacity = stats.getNumDesired() - getCapacityToTerminate();
+        }
+
+        final List<Node> nodes = getFleetNodes(terminating);
+        Queue.withLock(new Runnable() {
+            @Override
+            public void run() {
+                checkRetentionUnderQueueLock(nodes, capacity, now);
+            }
+        });
+    }
+
+    /**
+     * Run retention pass by next update, for example when node is idle for too long, instead of waiting
+     * for next periodic pass. Update is not scheduled right away as it reads state of fleet from AWS,
+     * timers of many nodes would poll AWS all the time for precision which next update gives anyway.
+     */
+    void requestRetentionCheck() {
+        retentionCheckRequested.set(true);
+    }
+
+    private void checkRetentionUnderQueueLock(final List<Node> nodes, final int capacity, final long now) {
+        final Map<String, EC2FleetNodeComputer> drained = new LinkedHashMap<>();
+        final Map<String, EC2FleetNodeComputer> idle = new LinkedHashMap<>();
+        final Map<String, EC2FleetNodeComputer> busy = new LinkedHashMap<>();
+        int draining = 0;
+        for (final Node node : nodes) {
+            final Computer computer = node.toComputer();
+            if (!(computer instanceof EC2FleetNodeComputer)) continue;
+
+            final EC2FleetNodeComputer fleetComputer = (EC2FleetNodeComputer) computer;
+            if (fleetComputer.isDraining()) {
+                draining++;
+                final Long deadline = fleetComputer.getDrainDeadline();
+                if (fleetComputer.countBusy() < 1 || deadline != null && now >= deadline) {
+                    drained.put(node.getNodeName(), fleetComputer);
+                }
+            } else if (fleetComputer.isIdle()) {
+                idle.put(node.getNodeName(), fleetComputer);
+            } else {
+                busy.put(node.getNodeName(), fleetComputer);
+            }
+        }
+
+        final Set<String> toTerminate = new LinkedHashSet<>(drained.keySet());
+        // draining nodes are released already
+        int excess = capacity - draining - getEffectiveMaxSize();
+        if (excess > 0) info("fleet has excess capacity of %s more than the max allowed: %s", excess, getEffectiveMaxSize());
+        for (final String instanceId : idle.keySet()) {
+            if (excess < 1) break;
+            toTerminate.add(instanceId);
+            excess--;
+        }
+        final List<EC2FleetNodeComputer> toDrain = new ArrayList<>();
+        for (final EC2FleetNodeComputer fleetComputer : busy.values()) {
+            if (excess < 1) break;
+            toDrain.add(fleetComputer);
+            excess--;
+        }
+        toTerminate.addAll(getIdleForTooLong(nodes, idle.keySet(), toTerminate));
+
+        final Set<String> scheduled = scheduleToTerminate(toTerminate);
+        for (final String instanceId : toTerminate) {
+            final EC2FleetNodeComputer fleetComputer = drained.containsKey(instanceId)
+                    ? drained.get(instanceId) : idle.get(instanceId);
+            if (scheduled.contains(instanceId)) {
+                fleetComputer.setAcceptingTasks(false);
+            } else if (fleetComputer.isDraining() && !fleetComputer.getHealth().isQuarantined()) {
+                info("cancel drain of %s as it cannot be terminated", instanceId);
+                fleetComputer.cancelDrain();
+            }
+        }
+
+        final int timeout = getDrainTimeoutMinutes();
+        final Long deadline = timeout > 0 ? now + TimeUnit.MINUTES.toMillis(timeout) : null;
+        for (final EC2FleetNodeComputer fleetComputer : toDrain) {
+            // busy node completes running tasks before termination
+            if (fleetComputer.drain("excess capacity", deadline)) info("drain %s, excess capacity", fleetComputer.getName());
+        }
+        info("retention check of %s nodes, terminate %s, drain %s", nodes.size(), scheduled, toDrain.size());
+    }
+
+    /**
+     * Idle node is spare capacity if without it cloud will have less idle executors than
+     * {@link EC2FleetCloud#getMinSpareSize()} plus reserved executors or less executors than predicted demand,
+     * counts are updated as nodes are chosen. Idle node is deferred by {@link ScaleInController} during
+     * cooldown after scale out, when more nodes were released in current interval than allowed or when
+     * without it cloud doesn't have executors for recent peak demand. Candidates are ranked once per pass.
+     *
+     * @param idle     idle nodes which are not draining
+     * @param released nodes chosen for termination by this pass
+     * @return idle nodes which should be terminated, longest idle first
+     */
+    private List<String> getIdleForTooLong(final List<Node> nodes, final Set<String> idle, final Set<String> released) {
+        if (getIdleMinutes() < 1) return Collections.emptyList();
+
+        final Map<String, Node> remaining = new LinkedHashMap<>();
+        for (final Node node : nodes) {
+            if (!released.contains(node.getNodeName())) remaining.put(node.getNodeName(), node);
+        }
+        final List<Node> remainingNodes = new ArrayList<>(remaining.values());
+        final Map<String, Integer> candidates = getScaleInCandidates(remainingNodes);
+        candidates.keySet().retainAll(idle);
+
+        final int minIdle = getMinSpareSize() + getReservedExecutors();
+        final int predicted = getPredictedDemand();
+        int idleExecutors = countIdleExecutors(remainingNodes);
+        int executors = countExecutors(remainingNodes);
+        final ScaleInController.Pass scaleIn = isScaleInControlled() ? scaleInController.startPass(executors,
+                TimeUnit.MINUTES.toMillis(getScaleInCooldownMinutes()), getScaleInMaxInstances(),
+                TimeUnit.MINUTES.toMillis(getScaleInDemandWindowMinutes()), System.currentTimeMillis()) : null;
+        final List<String> result = new ArrayList<>();
+        for (final Map.Entry<String, Integer> candidate : candidates.entrySet()) {
+            final String instanceId = candidate.getKey();
+            final int nodeIdle = countIdleExecutors(Collections.singletonList(remaining.get(instanceId)));
+            if (idleExecutors - nodeIdle < minIdle || executors - candidate.getValue() < predicted) {
+                fine("keep idle instance %s as spare capacity", instanceId);
+                continue;
+            }
+            if (scaleIn != null && scaleIn.isDeferred(instanceId, candidate.getValue())) {
+                fine("scale in of idle instance %s deferred", instanceId);
+                continue;
+            }
+            result.add(instanceId);
+            idleExecutors -= nodeIdle;
+            executors -= candidate.getValue();
+        }
+        return result;
+    }
+
+    private static int countDraining(final List<Node> nodes) {
+        int result = 0;
+        for (final Node node : nodes) {
+            final Computer computer = node.toComputer();
+            if (computer instanceof EC2FleetNodeComputer && ((EC2FleetNodeComputer) computer).isDraining()) result++;
+        }
+        return result;
     }
 
-    @VisibleForTesting
-    synchronized int getToAdd() {
-        return toAdd;
-    }
+    /**
+     * Reserve idle executors for known upcoming demand, for example pipeline which is going to run
+     * parallel stages. Capacity for executors which are not available is requested on next update,
+     * which is started immediately. Idle nodes covering reservation are not terminated till
+     * reservation expires, after that they are terminated as usual when idle for too long.
+     *
+     * @param executors executors to reserve
+     * @param ttlMillis reservation time to live
+     * @return executors reserved, could be less than requested if max size reached
+     */
+    public synchronized int reserve(final int executors, final long ttlMillis) {
+        if (executors < 1 || ttlMillis < 1) return 0;
 
-    @VisibleForTesting
-    synchronized FleetStateStats getStats() {
-        return stats;
+        if (stats == null) {
+            info("First update not done, skip reservation");
+            return 0;
+        }
+
+        final int cap = stats.getNumDesired() - getCapacityToTerminate() + toAdd + reservedCapacityToAdd;
+        final List<Node> nodes = getFleetNodes(instanceIdsToTerminate);
+        final int available = Math.max(0,
+                countIdleExecutors(nodes) + getPendingExecutors(cap, nodes.size()) - getReservedExecutors());
+
+        int reserved = Math.min(executors, available);
+        if (reserved < executors && cap < getEffectiveMaxSize()) {
+            final int toProvision = getCapacityForExecutors(executors - reserved, cap);
+            reservedCapacityToAdd += toProvision;
+            scaleInController.recordScaleOut(System.currentTimeMillis());
+            final double averageWeight = getAverageWeight();
+            reserved = Math.min(executors,
+                    reserved + getInstancesByWeight(toProvision, averageWeight) * getExecutorsByWeight(averageWeight));
+            scheduleImmediateUpdate();
+        }
+
+        reservations.add(new Reservation(reserved, System.currentTimeMillis() + ttlMillis));
+        info("reserved %s of %s executors for %s ms", reserved, executors, ttlMillis);
+        return reserved;
     }
 
-    @VisibleForTesting
-    synchronized void setStats(final FleetStateStats stats) {
-        this.stats = stats;
+    /**
+     * @return executors reserved by not expired reservations
+     */
+    public synchronized int getReservedExecutors() {
+        final long now = System.currentTimeMillis();
+        int result = 0;
+        final Iterator<Reservation> iterator = reservations.iterator();
+        while (iterator.hasNext()) {
+            final Reservation reservation = iterator.next();
+            if (reservation.expireAt <= now) {
+                iterator.remove();
+            } else {
+                result += reservation.executors;
+            }
+        }
+        return result;
     }
 
     @Override
@@ -374,8 +1142,10 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             // Let plugin sync up with current state of fleet
             return false;
         }
-        if(stats.getNumDesired() - instanceIdsToTerminate.size() > maxSize) {
-            info("fleet has excess capacity of %s more than the max allowed: %s", stats.getNumDesired() - instanceIdsToTerminate.size(), maxSize);
+        final int effectiveMaxSize = getEffectiveMaxSize();
+        final int capacity = stats.getNumDesired() - getCapacityToTerminate() - drainingCount;
+        if(capacity > effectiveMaxSize) {
+            info("fleet has excess capacity of %s more than the max allowed: %s", capacity, effectiveMaxSize);
             return true;
         }
         return false;
@@ -390,10 +1160,10 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             return Collections.emptyList();
         }
 
-        final int cap = stats.getNumDesired() + toAdd;
+        final int cap = stats.getNumDesired() + toAdd + reservedCapacityToAdd;
 
-        if (cap >= getMaxSize()) {
-            info("max %s reached, no more provision", getMaxSize());
+        if (cap >= getEffectiveMaxSize()) {
+            info("max %s reached, no more provision", getEffectiveMaxSize());
             return Collections.emptyList();
         }
 
@@ -402,13 +1172,17 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             return Collections.emptyList();
         }
 
+        // fleet capacity is in weight units, instance of type with weight 2 takes 2 units
+        final double averageWeight = getAverageWeight();
+        final int plannedNodeExecutors = getExecutorsByWeight(averageWeight);
         // if the planned node has 0 executors configured force it to 1 so we end up doing an unweighted check
-        final int numExecutors1 = this.numExecutors == 0 ? 1 : this.numExecutors;
+        final int numExecutors1 = Math.max(plannedNodeExecutors, 1);
 
         // Calculate the ceiling, without having to work with doubles from Math.ceil
         // https://stackoverflow.com/a/21830188/877024
-        final int weightedExcessWorkload = (excessWorkload + numExecutors1 - 1) / numExecutors1;
-        int targetCapacity = Math.min(cap + weightedExcessWorkload, getMaxSize());
+        final int instancesToProvision = (excessWorkload + numExecutors1 - 1) / numExecutors1;
+        final int weightedExcessWorkload = (int) Math.ceil(instancesToProvision * averageWeight);
+        int targetCapacity = Math.min(cap + weightedExcessWorkload, getEffectiveMaxSize());
 
         int toProvision = targetCapacity - cap;
         info("to provision = %s", toProvision);
@@ -419,14 +1193,20 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         }
 
         toAdd += toProvision;
+        scaleInController.recordScaleOut(System.currentTimeMillis());
+        if (noDelayProvision) scheduleImmediateUpdate();
+
+        final int plannedNodesToProvision = getInstancesByWeight(toProvision, averageWeight);
+        info("planned nodes = %s with %s executors, average weight %s",
+                plannedNodesToProvision, plannedNodeExecutors, averageWeight);
 
         final List<NodeProvisioner.PlannedNode> resultList = new ArrayList<>();
-        for (int f = 0; f < toProvision; ++f) {
+        for (int f = 0; f < plannedNodesToProvision; ++f) {
             // todo make name unique per fleet
 
             final SettableFuture<Node> settableFuture = SettableFuture.create();
             final NodeProvisioner.PlannedNode plannedNode = new NodeProvisioner.PlannedNode(
-                    "FleetNode-" + f, settableFuture, this.numExecutors);
+                    "FleetNode-" + f, settableFuture, plannedNodeExecutors);
 
             resultList.add(plannedNode);
             plannedNodesCache.add(plannedNode);
@@ -456,24 +1236,66 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
      * @return current state
      */
     public FleetStateStats update() {
+        updateLock.lock();
+        try {
+            return updateUnderLock();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void scheduleImmediateUpdate() {
+        // one scheduled update will pick up all provisions made before it starts
+        if (!immediateUpdateScheduled.compareAndSet(false, true)) return;
+
+        IMMEDIATE_UPDATE_EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                immediateUpdateScheduled.set(false);
+                try {
+                    update();
+                } catch (Exception e) {
+                    // next update by CloudNanny will try again
+                    warning(e, "immediate update after provision failed");
+                }
+            }
+        });
+    }
+
+    private FleetStateStats updateUnderLock() {
         info("start");
 
+        // terminations chosen by retention are submitted by this update
+        final long now = System.currentTimeMillis();
+        if (retentionCheckRequested.getAndSet(false) || now - lastRetentionCheckMillis >= RETENTION_CHECK_INTERVAL_MILLIS) {
+            lastRetentionCheckMillis = now;
+            checkRetention(now);
+        }
+
         final int currentToAdd;
+        final int currentReservedCapacityToAdd;
         final Set<String> currentInstanceIdsToTerminate;
+        final Set<String> currentInstanceIdsToRetryTermination;
+        final int currentCapacityToTerminate;
 
         // make snapshot of current state to work with
         // this method should always work with snapshot
         // as data could be modified
         synchronized (this) {
             currentToAdd = toAdd;
+            currentReservedCapacityToAdd = reservedCapacityToAdd;
             currentInstanceIdsToTerminate = new HashSet<>(instanceIdsToTerminate);
+            currentInstanceIdsToRetryTermination = new HashSet<>(instanceIdsToRetryTermination);
+            currentInstanceIdsToRetryTermination.retainAll(currentInstanceIdsToTerminate);
+            currentCapacityToTerminate = getCapacityToTerminate();
         }
 
         // we check state to make sure that fleet not in modification state
         // if it's under modification let stop immediately and don't update state
         // because some fleet implementation like (EC2SpotFleet) reflects state only at the end
         // of modification, see EC2SpotFleet doc
-        FleetStateStats currentState = EC2Fleets.get(fleet).getState(
+        final EC2Fleet ec2Fleet = EC2Fleets.get(fleet);
+        FleetStateStats currentState = ec2Fleet.getState(
                 getAwsCredentialsId(), region, endpoint, getFleet());
         if (currentState.getState().isModifying()) {
             info("Fleet under modification, try update later, %s", currentState.getState().getDetailed());
@@ -482,29 +1304,74 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             }
         }
 
+        updateScheduledCapacity(Calendar.getInstance());
+
+        if (isStoppedInstancePoolEnabled(ec2Fleet)) {
+            stoppedInstancePool.sync(Registry.getEc2Api().connect(getAwsCredentialsId(), region, endpoint),
+                    (AutoScalingGroupFleet) ec2Fleet, this, currentState.getStandbyInstances(), getStoppedPoolSize(),
+                    TimeUnit.MINUTES.toMillis(getStoppedPoolMaxAgeMinutes()), System.currentTimeMillis());
+            // started pool instances are not part of group capacity till they leave standby,
+            // count them as desired, so plugin doesn't request the same capacity twice
+            currentState = new FleetStateStats(currentState,
+                    currentState.getNumDesired() + stoppedInstancePool.getStartingCount());
+        }
+
         // fleet could be updated outside of plugin, we should be ready that
         // real target capacity is zero or less then plugin thinks and make sure
         // new target capacity will not be negative
-        final int targetCapacity = Math.max(0,
-                currentState.getNumDesired() - currentInstanceIdsToTerminate.size() + currentToAdd);
+        final int requestedCapacity = Math.max(0, currentState.getNumDesired() - currentCapacityToTerminate
+                + currentToAdd + currentReservedCapacityToAdd);
+        final int predictedToAdd = getPredictedCapacityToAdd(requestedCapacity, currentInstanceIdsToTerminate);
+        final int spareToAdd = getSpareCapacityToAdd(requestedCapacity + predictedToAdd, currentInstanceIdsToTerminate);
+        // scheduled min size launches instances ahead of known spike
+        final Integer currentScheduledMinSize = scheduledMinSize;
+        final int scheduledToAdd = currentScheduledMinSize == null ? 0 : Math.max(0,
+                currentScheduledMinSize - (requestedCapacity + predictedToAdd + spareToAdd));
+        final int replacementToAdd = getReplacementCapacityToAdd(
+                requestedCapacity + predictedToAdd + spareToAdd + scheduledToAdd, currentInstanceIdsToTerminate);
+        final int targetCapacity = requestedCapacity + predictedToAdd + spareToAdd + scheduledToAdd + replacementToAdd;
+        if (predictedToAdd + spareToAdd + scheduledToAdd + replacementToAdd > 0) {
+            scaleInController.recordScaleOut(System.currentTimeMillis());
+        }
+        if (getScaleInDemandWindowMinutes() > 0) recordDemand(currentInstanceIdsToTerminate);
+        if (getConsolidationThreshold() > 0) consolidate(currentInstanceIdsToTerminate);
+        // nodes could be added or removed
+        invalidatePackingOrder();
+        final Set<String> nodeNames = new HashSet<>();
+        for (final Node node : getFleetNodes(Collections.<String>emptySet())) nodeNames.add(node.getNodeName());
+        warmNodeIndex.retainNodes(nodeNames);
+        final int currentDrainingCount = countDraining(getFleetNodes(currentInstanceIdsToTerminate));
+        synchronized (this) {
+            drainingCount = currentDrainingCount;
+        }
         currentState = new FleetStateStats(currentState, targetCapacity);
 
-        updateByState(currentToAdd, currentInstanceIdsToTerminate, targetCapacity, currentState);
+        final Set<String> failedToTerminate = updateByState(
+                currentToAdd + currentReservedCapacityToAdd + predictedToAdd + spareToAdd + scheduledToAdd
+                        + replacementToAdd,
+                currentInstanceIdsToTerminate, currentInstanceIdsToRetryTermination,
+                targetCapacity, currentState);
 
         // lock and update state of plugin, so terminate or provision could work with new state of world
         synchronized (this) {
             instanceIdsToTerminate.removeAll(currentInstanceIdsToTerminate);
+            // failed instances will be terminated on next update, capacity for them already released
+            instanceIdsToTerminate.addAll(failedToTerminate);
+            instanceIdsToRetryTermination.clear();
+            instanceIdsToRetryTermination.addAll(failedToTerminate);
             // toAdd only grows outside of this method, so we can subtract
             toAdd = toAdd - currentToAdd;
+            reservedCapacityToAdd = reservedCapacityToAdd - currentReservedCapacityToAdd;
             stats = currentState;
 
             removePlannedNodeScheduledFutures(currentToAdd);
 
             // since data could be changed between two sync blocks we need to recalculate target capacity
             final int updatedTargetCapacity = Math.max(0,
-                    stats.getNumDesired() - instanceIdsToTerminate.size() + toAdd);
+                    stats.getNumDesired() - getCapacityToTerminate() + toAdd + reservedCapacityToAdd);
             // limit planned pool according to real target capacity
-            while (plannedNodesCache.size() > updatedTargetCapacity) {
+            final int maxPlannedNodes = getInstancesByWeight(updatedTargetCapacity, getAverageWeight());
+            while (plannedNodesCache.size() > maxPlannedNodes) {
                 info("planned nodes %s are greater than the targetCapacity %s, canceling node", plannedNodesCache.size(), updatedTargetCapacity);
                 final Iterator<NodeProvisioner.PlannedNode> iterator = plannedNodesCache.iterator();
                 final NodeProvisioner.PlannedNode plannedNodeToCancel = iterator.next();
@@ -516,6 +1383,125 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         }
     }
 
+    /**
+     * Drain one partially busy node with lowest utilization below {@link EC2FleetCloud#getConsolidationThreshold()},
+     * if other nodes have enough idle executors to take its load. Drained node doesn't accept new tasks
+     * and is terminated by {@link EC2RetentionStrategy} when last task completes. One node per update,
+     * so load moves gradually.
+     */
+    @VisibleForTesting
+    void consolidate(final Set<String> terminating) {
+        final List<Node> nodes = getFleetNodes(terminating);
+        final int threshold = getConsolidationThreshold();
+        int accepting = 0;
+        Node candidateNode = null;
+        Computer candidate = null;
+        int candidateUtilization = 0;
+        for (final Node node : nodes) {
+            final Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || !computer.isAcceptingTasks()) continue;
+            accepting++;
+
+            final int busy = computer.countBusy();
+            // idle nodes are released by retention strategy
+            if (busy < 1 || node.getNumExecutors() < 2) continue;
+            final int utilization = busy * 100 / node.getNumExecutors();
+            if (utilization < threshold && (candidate == null || utilization < candidateUtilization)) {
+                candidateNode = node;
+                candidate = computer;
+                candidateUtilization = utilization;
+            }
+        }
+        if (candidate == null || accepting <= getEffectiveMinSize()) return;
+
+        final int otherIdle = countIdleExecutors(nodes) - candidate.countIdle();
+        if (otherIdle - candidate.countBusy() < getMinSpareSize() + getReservedExecutors()) return;
+
+        final String toDrain = candidateNode.getNodeName();
+        info("drain %s with utilization %s%% to consolidate load", toDrain, candidateUtilization);
+        Queue.withLock(new Runnable() {
+            @Override
+            public void run() {
+                // draining node is terminated by retention pass, drain is cancelled if it cannot be terminated
+                drain(toDrain, "consolidation");
+            }
+        });
+    }
+
+    /**
+     * Busiest first, so {@link EC2FleetConsolidationDispatcher} finds node to pack task onto without
+     * scanning all nodes for each queue item and node. Built once and reused till busy executors of cloud nodes
+     * change, see {@link EC2FleetCloud#invalidatePackingOrder()}. Nodes are not checked again,
+     * caller should check that node is still online, accepts tasks and has idle executors.
+     *
+     * @return accepting nodes with idle executors, busiest first
+     */
+    List<Node> getPackingOrder() {
+        List<Node> result = packingOrder;
+        if (result != null) return result;
+
+        final Map<Node, Integer> busy = new HashMap<>();
+        for (final Node node : getFleetNodes(Collections.<String>emptySet())) {
+            final Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || !computer.isAcceptingTasks()) continue;
+            if (computer.countIdle() < 1) continue;
+            busy.put(node, computer.countBusy());
+        }
+        result = new ArrayList<>(busy.keySet());
+        Collections.sort(result, new Comparator<Node>() {
+            @Override
+            public int compare(final Node o1, final Node o2) {
+                return Integer.compare(busy.get(o2), busy.get(o1));
+            }
+        });
+        packingOrder = result;
+        return result;
+    }
+
+    /**
+     * Called when task is accepted or completed by cloud node and by {@link EC2FleetCloud#update()}
+     */
+    void invalidatePackingOrder() {
+        packingOrder = null;
+    }
+
+    /**
+     * Demand is executors busy on cloud nodes plus executors of planned nodes, which are
+     * provisioned for tasks waiting in queue.
+     */
+    private void recordDemand(final Set<String> terminating) {
+        final List<Node> nodes = getFleetNodes(terminating);
+        int planned = 0;
+        synchronized (this) {
+            for (final NodeProvisioner.PlannedNode plannedNode : plannedNodesCache) planned += plannedNode.numExecutors;
+        }
+        scaleInController.recordDemand(countExecutors(nodes) - countIdleExecutors(nodes) + planned,
+                System.currentTimeMillis(), TimeUnit.MINUTES.toMillis(getScaleInDemandWindowMinutes()));
+    }
+
+    /**
+     * Evaluate {@link ScheduledCapacity} windows. When windows overlap, max of min sizes and
+     * min of max sizes is used.
+     */
+    @VisibleForTesting
+    void updateScheduledCapacity(final Calendar now) {
+        Integer min = null;
+        Integer max = null;
+        for (final ScheduledCapacity scheduledCapacity : getScheduledCapacities()) {
+            if (!scheduledCapacity.isActive(now)) continue;
+            final Integer windowMin = scheduledCapacity.getMinSize();
+            if (windowMin != null) min = min == null ? windowMin : Math.max(min, windowMin);
+            final Integer windowMax = scheduledCapacity.getMaxSize();
+            if (windowMax != null) max = max == null ? windowMax : Math.min(max, windowMax);
+        }
+
+        if (!Objects.equals(min, scheduledMinSize) || !Objects.equals(max, scheduledMaxSize)) {
+            info("scheduled capacity changed, min size %s, max size %s", min, max);
+        }
+        scheduledMinSize = min;
+        scheduledMaxSize = max;
+    }
+
     public boolean removePlannedNodeScheduledFutures(final int numToRemove) {
         if (numToRemove < 1) {
             return false;
@@ -533,45 +1519,106 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         return true;
     }
 
-    private void updateByState(
+    /**
+     * Pool works only for auto scaling group which could keep instance out of capacity in standby,
+     * spot and EC2 fleets replace stopped instances.
+     */
+    private boolean isStoppedInstancePoolEnabled(final EC2Fleet ec2Fleet) {
+        return getStoppedPoolSize() > 0 && ec2Fleet instanceof AutoScalingGroupFleet;
+    }
+
+    /**
+     * Number of instances scheduled to termination for which fleet capacity was not released yet.
+     */
+    private int getCapacityToTerminate() {
+        int result = instanceIdsToTerminate.size();
+        for (final String instanceId : instanceIdsToRetryTermination) {
+            if (instanceIdsToTerminate.contains(instanceId)) result--;
+        }
+        return result;
+    }
+
+    private void modify(final EC2Fleet ec2Fleet, final int targetCapacity) {
+        final int effectiveMinSize = getEffectiveMinSize();
+        final int effectiveMaxSize = getEffectiveMaxSize();
+        ec2Fleet.modify(getAwsCredentialsId(), region, endpoint, fleet, targetCapacity,
+                effectiveMinSize, effectiveMaxSize);
+        appliedMinSize = effectiveMinSize;
+        appliedMaxSize = effectiveMaxSize;
+        info("Update fleet target capacity to %s", targetCapacity);
+    }
+
+    /**
+     * @return <code>true</code> if effective min or max size differs from last applied one,
+     * configured size is assumed to be applied if fleet was not modified since start
+     */
+    private boolean isEffectiveSizeChanged() {
+        final int lastMinSize = appliedMinSize == null ? minSize : appliedMinSize;
+        final int lastMaxSize = appliedMaxSize == null ? Math.max(maxSize, minSize) : appliedMaxSize;
+        return getEffectiveMinSize() != lastMinSize || getEffectiveMaxSize() != lastMaxSize;
+    }
+
+    /**
+     * @return instance IDs which were not terminated, never <code>null</code>
+     */
+    private Set<String> updateByState(
             final int currentToAdd, final Set<String> currentInstanceIdsToTerminate,
+            final Set<String> currentInstanceIdsToRetryTermination,
             final int targetCapacity, final FleetStateStats newStatus) {
         final Jenkins jenkins = Jenkins.getInstance();
 
         final AmazonEC2 ec2 = Registry.getEc2Api().connect(getAwsCredentialsId(), region, endpoint);
 
-        if (currentToAdd > 0 || currentInstanceIdsToTerminate.size() > 0) {
-            // todo fix negative value
-            // we do update any time even real capacity was not update like remove one add one to
-            // update fleet settings with NoTermination so we can terminate instances on our own
-            EC2Fleets.get(fleet).modify(
-                    getAwsCredentialsId(), region, endpoint, fleet, targetCapacity, minSize, maxSize);
-            info("Update fleet target capacity to %s", targetCapacity);
-        }
-
-        if (currentInstanceIdsToTerminate.size() > 0) {
-            // internally removeNode lock on queue to correctly update node list
-            // we do big block for all removal to avoid delay on lock waiting
-            // for each node
-            Queue.withLock(new Runnable() {
-                @Override
-                public void run() {
-                    for (final String instanceId : currentInstanceIdsToTerminate) {
-                        final Node node = jenkins.getNode(instanceId);
-                        if (node != null) {
-                            try {
-                                jenkins.removeNode(node);
-                            } catch (IOException e) {
-                                warning("unable remove node %s from Jenkins, skip, just terminate EC2 instance", instanceId);
-                            }
-                        }
-                    }
+        final EC2Fleet ec2Fleet = EC2Fleets.get(fleet);
+        final Set<String> failedToTerminate = new HashSet<>();
+        if (ec2Fleet instanceof AutoScalingGroupFleet) {
+            // auto scaling group terminates instance and decreases desired capacity in one call,
+            // so we terminate first and update group only if we need more capacity or some
+            // termination failed, no chance for group to launch replacement for instance we are going to kill
+            if (currentInstanceIdsToTerminate.size() > 0) {
+                removeTerminatingNodes(currentInstanceIdsToTerminate);
+
+                final Set<String> toReleaseCapacity = new HashSet<>(currentInstanceIdsToTerminate);
+                toReleaseCapacity.removeAll(currentInstanceIdsToRetryTermination);
+                final AutoScalingGroupFleet autoScalingGroupFleet = (AutoScalingGroupFleet) ec2Fleet;
+                if (isStoppedInstancePoolEnabled(ec2Fleet)) {
+                    toReleaseCapacity.removeAll(stoppedInstancePool.stop(ec2, autoScalingGroupFleet, this,
+                            toReleaseCapacity, getStoppedPoolSize(), System.currentTimeMillis()));
                 }
-            });
-            info("Delete terminating nodes from Jenkins: %s", currentInstanceIdsToTerminate);
+                failedToTerminate.addAll(autoScalingGroupFleet.terminateInstances(
+                        getAwsCredentialsId(), region, endpoint, toReleaseCapacity, true));
+                failedToTerminate.addAll(autoScalingGroupFleet.terminateInstances(
+                        getAwsCredentialsId(), region, endpoint, currentInstanceIdsToRetryTermination, false));
+                logTerminationResult(currentInstanceIdsToTerminate, failedToTerminate);
+            }
+
+            int groupCapacity = targetCapacity;
+            if (isStoppedInstancePoolEnabled(ec2Fleet)) {
+                final int started = stoppedInstancePool.start(ec2, currentToAdd);
+                if (started > 0) info("Started %s instances from stopped pool", started);
+                // group gets capacity for started instances when they leave standby
+                groupCapacity = targetCapacity - stoppedInstancePool.getStartingCount();
+            }
+
+            // group keeps min and max size of ended scheduled window until modified, which fails
+            // decrementing termination, so update group as soon as effective size changed
+            if (currentToAdd > 0 || failedToTerminate.size() > 0 || isEffectiveSizeChanged()) {
+                modify(ec2Fleet, groupCapacity);
+            }
+        } else {
+            if (currentToAdd > 0 || currentInstanceIdsToTerminate.size() > 0) {
+                // todo fix negative value
+                // we do update any time even real capacity was not update like remove one add one to
+                // update fleet settings with NoTermination so we can terminate instances on our own
+                modify(ec2Fleet, targetCapacity);
+            }
+
+            if (currentInstanceIdsToTerminate.size() > 0) {
+                removeTerminatingNodes(currentInstanceIdsToTerminate);
 
-            Registry.getEc2Api().terminateInstances(ec2, currentInstanceIdsToTerminate);
-            info("Instance(s): %s were terminated", currentInstanceIdsToTerminate);
+                failedToTerminate.addAll(Registry.getEc2Api().terminateInstances(ec2, currentInstanceIdsToTerminate));
+                logTerminationResult(currentInstanceIdsToTerminate, failedToTerminate);
+            }
         }
 
         info("fleet instances: %s", newStatus.getInstances());
@@ -587,6 +1634,7 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
 
         // Fleet takes a while to display terminated instances. Update stats with current view of active instance count
         newStatus.setNumActive(described.size());
+        observedAverageWeight = getAverageWeight(described.values(), newStatus.getInstanceTypeWeights());
 
         // currentJenkinsNodes contains all registered Jenkins nodes related to this cloud
         final Set<String> jenkinsInstances = new HashSet<>();
@@ -669,6 +1717,38 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
                 }
             });
         }
+        return failedToTerminate;
+    }
+
+    private void removeTerminatingNodes(final Set<String> instanceIds) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        // internally removeNode lock on queue to correctly update node list
+        // we do big block for all removal to avoid delay on lock waiting
+        // for each node
+        Queue.withLock(new Runnable() {
+            @Override
+            public void run() {
+                for (final String instanceId : instanceIds) {
+                    final Node node = jenkins.getNode(instanceId);
+                    if (node != null) {
+                        try {
+                            jenkins.removeNode(node);
+                        } catch (IOException e) {
+                            warning("unable remove node %s from Jenkins, skip, just terminate EC2 instance", instanceId);
+                        }
+                    }
+                }
+            }
+        });
+        info("Delete terminating nodes from Jenkins: %s", instanceIds);
+    }
+
+    private void logTerminationResult(final Set<String> instanceIds, final Set<String> failedToTerminate) {
+        if (failedToTerminate.isEmpty()) {
+            info("Instance(s): %s were terminated", instanceIds);
+        } else {
+            warning("Instance(s): %s were not terminated, retry on next update", failedToTerminate);
+        }
     }
 
     /**
@@ -687,6 +1767,24 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
      * @return <code>true</code> if node scheduled to delete, otherwise <code>false</code>
      */
     public synchronized boolean scheduleToTerminate(final String instanceId) {
+        return scheduleToTerminateUnderLock(instanceId);
+    }
+
+    /**
+     * Batch version of {@link EC2FleetCloud#scheduleToTerminate(String)}, takes cloud lock once.
+     *
+     * @param instanceIds node names or instance IDs in order of priority
+     * @return instance IDs scheduled to delete, never <code>null</code>
+     */
+    public synchronized Set<String> scheduleToTerminate(final Collection<String> instanceIds) {
+        final Set<String> result = new HashSet<>();
+        for (final String instanceId : instanceIds) {
+            if (scheduleToTerminateUnderLock(instanceId)) result.add(instanceId);
+        }
+        return result;
+    }
+
+    private boolean scheduleToTerminateUnderLock(final String instanceId) {
         info("Attempting to terminate instance: %s", instanceId);
 
         if (stats == null) {
@@ -694,9 +1792,13 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             return false;
         }
 
+        // draining node is checked till it is removed
+        if (instanceIdsToTerminate.contains(instanceId)) return true;
+
         // We can't remove instances beyond minSize
-        if (minSize > 0 && stats.getNumActive() - instanceIdsToTerminate.size() <= minSize) {
-            info("Not terminating %s because we need a minimum of %s instances running.", instanceId, minSize);
+        final int effectiveMinSize = getEffectiveMinSize();
+        if (effectiveMinSize > 0 && stats.getNumActive() - getCapacityToTerminate() <= effectiveMinSize) {
+            info("Not terminating %s because we need a minimum of %s instances running.", instanceId, effectiveMinSize);
             return false;
         }
 
@@ -706,8 +1808,197 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
 
     @Override
     public boolean canProvision(final Label label) {
-        boolean result = fleet != null && (label == null || Label.parse(this.labelString).containsAll(label.listAtoms()));
-        fine("CanProvision called on fleet: \"" + this.labelString + "\" wanting: \"" + (label == null ? "(unspecified)" : label.getName()) + "\". Returning " + result + ".");
+        final boolean result = fleet != null && (label == null || matches(label));
+        if (LOGGER.isLoggable(Level.FINE)) {
+            fine("CanProvision called on fleet: \"" + this.labelString + "\" wanting: \"" + (label == null ? "(unspecified)" : label.getName()) + "\". Returning " + result + ".");
+        }
+        return result;
+    }
+
+    /**
+     * Average weight of instances in fleet, if no instances yet average of configured weights,
+     * <code>1</code> if fleet doesn't use weights.
+     */
+    private double getAverageWeight() {
+        final Double observed = observedAverageWeight;
+        if (observed != null) return observed;
+
+        final Map<String, Double> weights = stats == null
+                ? Collections.<String, Double>emptyMap() : stats.getInstanceTypeWeights();
+        if (weights.isEmpty()) return 1;
+        double sum = 0;
+        for (final Double weight : weights.values()) sum += weight;
+        return sum / weights.size();
+    }
+
+    /**
+     * @return average weight of instances which type has weight, <code>null</code> if there are no such instances
+     */
+    @Nullable
+    private static Double getAverageWeight(final Collection<Instance> instances, final Map<String, Double> weights) {
+        double sum = 0;
+        int count = 0;
+        for (final Instance instance : instances) {
+            final Double weight = weights.get(instance.getInstanceType());
+            if (weight == null) continue;
+            sum += weight;
+            count++;
+        }
+        return count == 0 ? null : sum / count;
+    }
+
+    private int getExecutorsByWeight(final double weight) {
+        if (!scaleExecutorsByWeight) return numExecutors;
+        return (int) Math.max(Math.round(numExecutors * weight), 1);
+    }
+
+    private static int getInstancesByWeight(final int capacity, final double averageWeight) {
+        if (capacity < 1) return 0;
+        return Math.max((int) Math.ceil(capacity / averageWeight), 1);
+    }
+
+    /**
+     * Capacity required on top of <code>targetCapacity</code> to keep {@link EC2FleetCloud#getMinSpareSize()}
+     * idle executors. Instances which are requested but not registered in Jenkins yet are counted as idle.
+     *
+     * @param targetCapacity capacity requested by provision
+     * @param terminating    instance IDs scheduled to termination, not counted as spare
+     * @return capacity to add, limited by <code>maxSize</code>
+     */
+    private int getSpareCapacityToAdd(final int targetCapacity, final Set<String> terminating) {
+        final int minSpare = getMinSpareSize();
+        if (minSpare < 1 || targetCapacity >= getEffectiveMaxSize()) return 0;
+
+        final List<Node> nodes = getFleetNodes(terminating);
+        final int spare = countIdleExecutors(nodes) + getPendingExecutors(targetCapacity, nodes.size());
+        if (spare >= minSpare) return 0;
+
+        final int result = getCapacityForExecutors(minSpare - spare, targetCapacity);
+        info("idle executors %s less than min spare %s, adding capacity %s", spare, minSpare, result);
+        return result;
+    }
+
+    /**
+     * Capacity required on top of <code>targetCapacity</code> to have executors for demand predicted by
+     * {@link DemandHistory}, so instances are booting before demand appears in the queue.
+     *
+     * @param targetCapacity capacity requested by provision
+     * @param terminating    instance IDs scheduled to termination, not counted
+     * @return capacity to add, limited by <code>maxSize</code>
+     */
+    private int getPredictedCapacityToAdd(final int targetCapacity, final Set<String> terminating) {
+        if (targetCapacity >= getEffectiveMaxSize()) return 0;
+        final int predicted = getPredictedDemand();
+        if (predicted < 1) return 0;
+
+        final List<Node> nodes = getFleetNodes(terminating);
+        final int executors = countExecutors(nodes) + getPendingExecutors(targetCapacity, nodes.size());
+        if (executors >= predicted) return 0;
+
+        final int result = getCapacityForExecutors(predicted - executors, targetCapacity);
+        info("executors %s less than predicted demand %s, adding capacity %s", executors, predicted, result);
+        return result;
+    }
+
+    /**
+     * Capacity required on top of <code>targetCapacity</code> to replace nodes which got spot interruption
+     * or rebalance notice or were quarantined, so replacement boots while node is drained. Capacity of
+     * replaced node is released as usual when it is terminated.
+     *
+     * @param targetCapacity capacity requested by provision
+     * @param terminating    instance IDs scheduled to termination, notices for them are ignored
+     * @return capacity to add, limited by <code>maxSize</code>
+     */
+    private int getReplacementCapacityToAdd(final int targetCapacity, final Set<String> terminating) {
+        int toReplace = getInterruptionQueueUrl() == null ? 0
+                : spotInterruptionHandler.handle(this, getFleetNodes(terminating), System.currentTimeMillis());
+        synchronized (this) {
+            toReplace += quarantinedCount;
+            quarantinedCount = 0;
+        }
+        if (toReplace < 1) return 0;
+
+        final int result = Math.max(0, Math.min((int) Math.ceil(toReplace * getAverageWeight()),
+                getEffectiveMaxSize() - targetCapacity));
+        info("%s nodes interrupted or quarantined, adding capacity %s", toReplace, result);
+        return result;
+    }
+
+    /**
+     * @return executors of instances which are requested but not registered in Jenkins yet
+     */
+    private int getPendingExecutors(final int targetCapacity, final int registeredNodes) {
+        final double averageWeight = getAverageWeight();
+        final int pendingInstances = Math.max(0, getInstancesByWeight(targetCapacity, averageWeight) - registeredNodes);
+        return pendingInstances * getExecutorsByWeight(averageWeight);
+    }
+
+    private int getCapacityForExecutors(final int executors, final int targetCapacity) {
+        final double averageWeight = getAverageWeight();
+        final int instances = (int) Math.ceil(executors / (double) getExecutorsByWeight(averageWeight));
+        return Math.min((int) Math.ceil(instances * averageWeight), getEffectiveMaxSize() - targetCapacity);
+    }
+
+    private List<Node> getFleetNodes(final Set<String> excluded) {
+        final List<Node> result = new ArrayList<>();
+        for (final Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof EC2FleetNode && ((EC2FleetNode) node).getCloud() == this
+                    && !excluded.contains(node.getNodeName())) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private static int countExecutors(final List<Node> nodes) {
+        int result = 0;
+        for (final Node node : nodes) result += node.getNumExecutors();
+        return result;
+    }
+
+    /**
+     * Executors of node which is not online yet will be idle soon, node which doesn't accept
+     * tasks (for example drained by max total uses) doesn't have idle executors.
+     */
+    private static int countIdleExecutors(final List<Node> nodes) {
+        int result = 0;
+        for (final Node node : nodes) {
+            final Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline()) {
+                result += node.getNumExecutors();
+            } else if (computer.isAcceptingTasks()) {
+                result += computer.countIdle();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Planned nodes are created with executors of average instance, when real instance brings more
+     * executors than planned, cancel other planned nodes covered by difference, so Jenkins doesn't count
+     * capacity twice. Less executors will be requested again by Jenkins on next provision.
+     *
+     * @param extraExecutors real executors minus planned
+     */
+    private void reconcilePlannedNodes(int extraExecutors) {
+        final Iterator<NodeProvisioner.PlannedNode> iterator = plannedNodesCache.iterator();
+        while (iterator.hasNext()) {
+            final NodeProvisioner.PlannedNode plannedNode = iterator.next();
+            if (plannedNode.numExecutors < 1 || plannedNode.numExecutors > extraExecutors) break;
+            iterator.remove();
+            extraExecutors -= plannedNode.numExecutors;
+            info("instance has more executors than planned, removing planned node");
+            // with set(null) Jenkins will remove future from plannedCapacity without making a fuss
+            ((SettableFuture<Node>) plannedNode.future).set(null);
+        }
+    }
+
+    private boolean matches(final Label label) {
+        Boolean result = labelMatchCache.get(label);
+        if (result == null) {
+            result = getLabelAtoms().containsAll(label.listAtoms());
+            labelMatchCache.put(label, result);
+        }
         return result;
     }
 
@@ -721,7 +2012,20 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
 
         plannedNodesCache = new HashSet<>();
         instanceIdsToTerminate = new HashSet<>();
+        instanceIdsToRetryTermination = new HashSet<>();
         plannedNodeScheduledFutures = new ArrayList<>();
+        reservations = new ArrayList<>();
+        stoppedInstancePool = new StoppedInstancePool();
+        scaleInController = new ScaleInController();
+        spotInterruptionHandler = new SpotInterruptionHandler();
+        fleetHealth = new FleetHealth();
+        cacheHits = new AtomicLong();
+        cacheMisses = new AtomicLong();
+        warmNodeIndex = new WarmNodeIndex();
+        labelMatchCache = new LabelMatchCache();
+        updateLock = new ReentrantLock();
+        immediateUpdateScheduled = new AtomicBoolean();
+        retentionCheckRequested = new AtomicBoolean();
     }
 
     private void removeNode(final String instanceId) {
@@ -771,8 +2075,8 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
 
         final Double instanceTypeWeight = stats.getInstanceTypeWeights().get(instance.getInstanceType());
         final int effectiveNumExecutors;
-        if (scaleExecutorsByWeight && instanceTypeWeight != null) {
-            effectiveNumExecutors = (int) Math.max(Math.round(numExecutors * instanceTypeWeight), 1);
+        if (instanceTypeWeight != null) {
+            effectiveNumExecutors = getExecutorsByWeight(instanceTypeWeight);
         } else {
             effectiveNumExecutors = numExecutors;
         }
@@ -801,6 +2105,7 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             final NodeProvisioner.PlannedNode plannedNode = plannedNodesCache.iterator().next();
             plannedNodesCache.remove(plannedNode);
             future = ((SettableFuture<Node>) plannedNode.future);
+            reconcilePlannedNodes(effectiveNumExecutors - plannedNode.numExecutors);
         }
 
         // use getters for timeout and interval as they provide default value
@@ -830,10 +2135,49 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
         LOGGER.log(Level.WARNING, getLogPrefix() + String.format(msg, args), t);
     }
 
+    private static class Reservation {
+
+        private final int executors;
+        private final long expireAt;
+
+        private Reservation(final int executors, final long expireAt) {
+            this.executors = executors;
+            this.expireAt = expireAt;
+        }
+
+    }
+
     @Extension
     @SuppressWarnings("unused")
     public static class DescriptorImpl extends Descriptor<Cloud> {
 
+        /**
+         * Defaults of AWS transport profile, tuned for steady high frequency polling of
+         * AWS API instead of SDK defaults which assume occasional calls.
+         *
+         * @see com.amazon.jenkins.ec2fleet.utils.AWSUtils#getClientConfiguration(String)
+         */
+        public static final int DEFAULT_AWS_MAX_CONNECTIONS = 100;
+        public static final int DEFAULT_AWS_CONNECTION_TIMEOUT_MILLIS = 5000;
+        public static final int DEFAULT_AWS_SOCKET_TIMEOUT_MILLIS = 30000;
+        public static final int DEFAULT_AWS_REQUEST_TIMEOUT_MILLIS = 60000;
+        public static final long DEFAULT_AWS_CONNECTION_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+        public static final boolean DEFAULT_AWS_TCP_KEEP_ALIVE = true;
+        public static final boolean DEFAULT_AWS_GZIP = true;
+        public static final int DEFAULT_AWS_MAX_ERROR_RETRY = 5;
+        public static final boolean DEFAULT_AWS_THROTTLED_RETRIES = true;
+
+        // nullable to distinguish not configured value after upgrade from configured one
+        private Integer awsMaxConnections;
+        private Integer awsConnectionTimeoutMillis;
+        private Integer awsSocketTimeoutMillis;
+        private Integer awsRequestTimeoutMillis;
+        private Long awsConnectionTtlMillis;
+        private Boolean awsTcpKeepAlive;
+        private Boolean awsGzip;
+        private Integer awsMaxErrorRetry;
+        private Boolean awsThrottledRetries;
+
         public DescriptorImpl() {
             super();
             load();
@@ -894,9 +2238,10 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             final AwsPermissionChecker awsPermissionChecker = new AwsPermissionChecker(awsCredentialsId, region, endpoint);
             final List<String> missingPermissions = awsPermissionChecker.getMissingPermissions(fleet);
             // TODO: DryRun does not work as expected for TerminateInstances and does not exists for UpdateAutoScalingGroup
-            final String disclaimer = String.format("Skipping validation for following permissions: %s, %s",
+            final String disclaimer = String.format("Skipping validation for following permissions: %s, %s, %s",
                     AwsPermissionChecker.FleetAPI.TerminateInstances,
-                    AwsPermissionChecker.FleetAPI.UpdateAutoScalingGroup);
+                    AwsPermissionChecker.FleetAPI.UpdateAutoScalingGroup,
+                    AwsPermissionChecker.FleetAPI.TerminateInstanceInAutoScalingGroup);
             if(missingPermissions.isEmpty()) {
                 return FormValidation.ok(String.format("Success! %s", disclaimer));
             }
@@ -905,10 +2250,92 @@ public class EC2FleetCloud extends AbstractEC2FleetCloud {
             return FormValidation.error(String.format("%s %n %s", errorMessage, disclaimer));
         }
 
+        public int getAwsMaxConnections() {
+            return awsMaxConnections == null ? DEFAULT_AWS_MAX_CONNECTIONS : awsMaxConnections;
+        }
+
+        public void setAwsMaxConnections(final Integer awsMaxConnections) {
+            this.awsMaxConnections = awsMaxConnections;
+        }
+
+        public int getAwsConnectionTimeoutMillis() {
+            return awsConnectionTimeoutMillis == null ? DEFAULT_AWS_CONNECTION_TIMEOUT_MILLIS : awsConnectionTimeoutMillis;
+        }
+
+        public void setAwsConnectionTimeoutMillis(final Integer awsConnectionTimeoutMillis) {
+            this.awsConnectionTimeoutMillis = awsConnectionTimeoutMillis;
+        }
+
+        public int getAwsSocketTimeoutMillis() {
+            return awsSocketTimeoutMillis == null ? DEFAULT_AWS_SOCKET_TIMEOUT_MILLIS : awsSocketTimeoutMillis;
+        }
+
+        public void setAwsSocketTimeoutMillis(final Integer awsSocketTimeoutMillis) {
+            this.awsSocketTimeoutMillis = awsSocketTimeoutMillis;
+        }
+
+        public int getAwsRequestTimeoutMillis() {
+            return awsRequestTimeoutMillis == null ? DEFAULT_AWS_REQUEST_TIMEOUT_MILLIS : awsRequestTimeoutMillis;
+        }
+
+        public void setAwsRequestTimeoutMillis(final Integer awsRequestTimeoutMillis) {
+            this.awsRequestTimeoutMillis = awsRequestTimeoutMillis;
+        }
+
+        public long getAwsConnectionTtlMillis() {
+            return awsConnectionTtlMillis == null ? DEFAULT_AWS_CONNECTION_TTL_MILLIS : awsConnectionTtlMillis;
+        }
+
+        public void setAwsConnectionTtlMillis(final Long awsConnectionTtlMillis) {
+            this.awsConnectionTtlMillis = awsConnectionTtlMillis;
+        }
+
+        public boolean getAwsTcpKeepAlive() {
+            return awsTcpKeepAlive == null ? DEFAULT_AWS_TCP_KEEP_ALIVE : awsTcpKeepAlive;
+        }
+
+        public void setAwsTcpKeepAlive(final Boolean awsTcpKeepAlive) {
+            this.awsTcpKeepAlive = awsTcpKeepAlive;
+        }
+
+        public boolean getAwsGzip() {
+            return awsGzip == null ? DEFAULT_AWS_GZIP : awsGzip;
+        }
+
+        public void setAwsGzip(final Boolean awsGzip) {
+            this.awsGzip = awsGzip;
+        }
+
+        public int getAwsMaxErrorRetry() {
+            return awsMaxErrorRetry == null ? DEFAULT_AWS_MAX_ERROR_RETRY : awsMaxErrorRetry;
+        }
+
+        public void setAwsMaxErrorRetry(final Integer awsMaxErrorRetry) {
+            this.awsMaxErrorRetry = awsMaxErrorRetry;
+        }
+
+        public boolean getAwsThrottledRetries() {
+            return awsThrottledRetries == null ? DEFAULT_AWS_THROTTLED_RETRIES : awsThrottledRetries;
+        }
+
+        public void setAwsThrottledRetries(final Boolean awsThrottledRetries) {
+            this.awsThrottledRetries = awsThrottledRetries;
+        }
+
+        public FormValidation doCheckAwsMaxConnections(@QueryParameter final int value) {
+            return value > 0 ? FormValidation.ok() : FormValidation.error("Max connections must be greater than 0");
+        }
+
+        public FormValidation doCheckAwsMaxErrorRetry(@QueryParameter final int value) {
+            return value >= 0 ? FormValidation.ok() : FormValidation.error("Max error retry must be greater or equal to 0");
+        }
+
         @Override
         public boolean configure(final StaplerRequest req, final JSONObject formData) throws FormException {
             req.bindJSON(this, formData);
             save();
+            // cached clients keep transport profile they were created with
+            AWSClientCache.invalidate();
             return super.configure(req, formData);
         }
 
@@ -0,0 +1,70 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+
+import javax.annotation.Nullable;
+
+/**
+ * Packs tasks onto busy nodes of {@link EC2FleetCloud} with {@link EC2FleetCloud#getConsolidationThreshold()},
+ * node is skipped if other node of the same cloud which is busier could take the task. Without packing
+ * load of multi-executor nodes spreads thin, so nodes stay partially busy and never become idle for scale in.
+ * <p>
+ * Busier nodes are taken from {@link EC2FleetCloud#getPackingOrder()}, which is built once per cloud and
+ * reused till busy executors change, so check usually stops at first node of order.
+ * <p>
+ * Nodes with low utilization are drained by {@link EC2FleetCloud#update()}.
+ */
+@Extension
+@SuppressWarnings("unused")
+public class EC2FleetConsolidationDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canTake(final Node node, final Queue.BuildableItem item) {
+        if (!(node instanceof EC2FleetNode)) return null;
+        final AbstractEC2FleetCloud cloud = ((EC2FleetNode) node).getCloud();
+        if (!(cloud instanceof EC2FleetCloud) || ((EC2FleetCloud) cloud).getConsolidationThreshold() < 1) return null;
+
+        final Computer computer = node.toComputer();
+        if (computer == null) return null;
+
+        final Node busier = findBusierNode((EC2FleetCloud) cloud, node, computer.countBusy(), item);
+        return busier == null ? null : new BusierNodeAvailable(busier.getNodeName());
+    }
+
+    @Nullable
+    private static Node findBusierNode(final EC2FleetCloud cloud, final Node node, final int busy,
+                                       final Queue.BuildableItem item) {
+        for (final Node other : cloud.getPackingOrder()) {
+            final Computer otherComputer = other.toComputer();
+            if (otherComputer == null) continue;
+            // order is busiest first, rest of nodes are not busier
+            if (otherComputer.countBusy() <= busy) break;
+            if (other == node || otherComputer.isOffline() || !otherComputer.isAcceptingTasks()
+                    || otherComputer.countIdle() < 1) continue;
+            // checks label, mode and node properties
+            if (other.canTake(item) == null) return other;
+        }
+        return null;
+    }
+
+    static class BusierNodeAvailable extends CauseOfBlockage {
+
+        private final String nodeName;
+
+        BusierNodeAvailable(final String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Packing tasks onto busier node " + nodeName;
+        }
+
+    }
+
+}
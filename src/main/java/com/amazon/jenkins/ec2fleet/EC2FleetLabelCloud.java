@@ -23,6 +23,7 @@ import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
 import hudson.slaves.Cloud;
 import hudson.slaves.ComputerConnector;
 import hudson.slaves.NodeProperty;
@@ -119,6 +120,11 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
 
     private transient Map<String, State> states;
 
+    /**
+     * Cleared when {@link EC2FleetLabelCloud#states} get new or lose label
+     */
+    private transient LabelMatchCache labelMatchCache;
+
     @DataBoundConstructor
     public EC2FleetLabelCloud(final String name,
                               final String oldId,
@@ -194,6 +200,14 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
         return disableTaskResubmit;
     }
 
+    /**
+     * Label cloud resubmits tasks without delay
+     */
+    @Override
+    public int getResubmitDelaySec() {
+        return 0;
+    }
+
     public int getInitOnlineTimeoutSec() {
         return initOnlineTimeoutSec == null ? DEFAULT_INIT_ONLINE_TIMEOUT_SEC : initOnlineTimeoutSec;
     }
@@ -260,6 +274,19 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
         return Boolean.FALSE;
     }
 
+    /**
+     * Label cloud doesn't have drain deadline, node is terminated when running tasks complete
+     */
+    @Override
+    public boolean drain(final String instanceId, final String reason) {
+        final Node node = Jenkins.getActiveInstance().getNode(instanceId);
+        if (node == null) return false;
+        final Computer computer = node.toComputer();
+        if (!(computer instanceof EC2FleetNodeComputer)) return false;
+        if (((EC2FleetNodeComputer) computer).drain(reason, null)) info("drain %s, %s", instanceId, reason);
+        return true;
+    }
+
 //    @VisibleForTesting
 //    synchronized Set<NodeProvisioner.PlannedNode> getPlannedNodesCache() {
 //        return plannedNodesCache;
@@ -291,8 +318,9 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
 
         List<NodeProvisioner.PlannedNode> r = new ArrayList<>();
 
+        final Set<LabelAtom> labelAtoms = label.listAtoms();
         for (Map.Entry<String, State> state : states.entrySet()) {
-            if (Label.parse(state.getKey()).containsAll(label.listAtoms())) {
+            if (state.getValue().labelAtoms.containsAll(labelAtoms)) {
                 LOGGER.info("provision " + label + " excessWorkload " + excessWorkload);
 
                 final FleetStateStats stats = state.getValue().stats;
@@ -341,28 +369,52 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
 
     private static class State {
         final String fleetId;
+        /**
+         * Parsed state label, state is created per label and never changes it
+         */
+        final Set<LabelAtom> labelAtoms;
         FleetStateStats stats;
         int targetCapacity;
         int toAdd;
         final Set<NodeProvisioner.PlannedNode> plannedNodes;
         final Set<NodeProvisioner.PlannedNode> plannedNodesToRemove;
         final Set<String> instanceIdsToTerminate;
+        /**
+         * Instances which failed termination on previous update, their capacity is already released
+         */
+        final Set<String> instanceIdsToRetryTermination;
 
-        public State(String fleetId) {
+        public State(String fleetId, Set<LabelAtom> labelAtoms) {
             this.fleetId = fleetId;
+            this.labelAtoms = labelAtoms;
             this.plannedNodes = new HashSet<>();
             this.plannedNodesToRemove = new HashSet<>();
             this.instanceIdsToTerminate = new HashSet<>();
+            this.instanceIdsToRetryTermination = new HashSet<>();
         }
 
         public State(State state) {
             this.plannedNodes = new HashSet<>(state.plannedNodes);
             this.fleetId = state.fleetId;
+            this.labelAtoms = state.labelAtoms;
             this.stats = state.stats;
             this.targetCapacity = state.targetCapacity;
             this.toAdd = state.toAdd;
             this.plannedNodesToRemove = new HashSet<>(state.plannedNodesToRemove);
             this.instanceIdsToTerminate = new HashSet<>(state.instanceIdsToTerminate);
+            this.instanceIdsToRetryTermination = new HashSet<>(state.instanceIdsToRetryTermination);
+            this.instanceIdsToRetryTermination.retainAll(this.instanceIdsToTerminate);
+        }
+
+        /**
+         * @return capacity which is not released yet for instances scheduled to termination
+         */
+        int getCapacityToTerminate() {
+            int result = instanceIdsToTerminate.size();
+            for (final String instanceId : instanceIdsToRetryTermination) {
+                if (instanceIdsToTerminate.contains(instanceId)) result--;
+            }
+            return result;
         }
     }
 
@@ -386,11 +438,11 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
             state.stats = currentStats.get(state.fleetId);
 
             state.targetCapacity = Math.max(0,
-                    state.stats.getNumDesired() - state.instanceIdsToTerminate.size() + state.toAdd);
+                    state.stats.getNumDesired() - state.getCapacityToTerminate() + state.toAdd);
             state.stats = new FleetStateStats(state.stats, state.targetCapacity);
         }
 
-        updateByState(currentStates);
+        final Set<String> failedToTerminate = updateByState(currentStates);
 
         synchronized (this) {
             for (Map.Entry<String, State> entry : currentStates.entrySet()) {
@@ -398,6 +450,14 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
 
                 state.stats = entry.getValue().stats;
                 state.instanceIdsToTerminate.removeAll(entry.getValue().instanceIdsToTerminate);
+                // failed instances will be terminated on next update, capacity for them already released
+                state.instanceIdsToRetryTermination.clear();
+                for (final String instanceId : entry.getValue().instanceIdsToTerminate) {
+                    if (failedToTerminate.contains(instanceId)) {
+                        state.instanceIdsToTerminate.add(instanceId);
+                        state.instanceIdsToRetryTermination.add(instanceId);
+                    }
+                }
                 // toAdd only grow outside of this method, so we can subtract
                 state.toAdd = state.toAdd - entry.getValue().toAdd;
                 // remove released planned nodes
@@ -414,13 +474,16 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
         }
     }
 
-    private void updateByState(final Map<String, State> states) {
+    /**
+     * @return instance IDs which failed termination, never <code>null</code>
+     */
+    private Set<String> updateByState(final Map<String, State> states) {
         final Jenkins jenkins = Jenkins.getActiveInstance();
 
         final AmazonEC2 ec2 = Registry.getEc2Api().connect(getAwsCredentialsId(), region, endpoint);
 
         for (State state : states.values()) {
-            if (state.toAdd > 0 || state.instanceIdsToTerminate.size() > 0) {
+            if (state.toAdd > 0 || state.getCapacityToTerminate() > 0) {
                 // todo fix negative value
                 // we do update any time even real capacity was not update like remove one add one to
                 // update fleet settings with NoTermination so we can terminate instances on our own
@@ -430,6 +493,7 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
             }
         }
 
+        final Set<String> failedToTerminate;
         final List<String> instanceIdsToRemove = new ArrayList<>();
         for (State state : states.values()) {
             instanceIdsToRemove.addAll(state.instanceIdsToTerminate);
@@ -456,8 +520,14 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
             });
             info("Delete terminating nodes from Jenkins %s", instanceIdsToRemove);
 
-            Registry.getEc2Api().terminateInstances(ec2, instanceIdsToRemove);
-            info("Instances %s were terminated with result", instanceIdsToRemove);
+            failedToTerminate = Registry.getEc2Api().terminateInstances(ec2, instanceIdsToRemove);
+            if (failedToTerminate.isEmpty()) {
+                info("Instances %s were terminated with result", instanceIdsToRemove);
+            } else {
+                warning("Instances %s were not terminated, retry on next update", failedToTerminate);
+            }
+        } else {
+            failedToTerminate = Collections.emptySet();
         }
 
         for (final Map.Entry<String, State> entry : states.entrySet()) {
@@ -469,6 +539,8 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
             final Set<String> fleetInstances = new HashSet<>(state.stats.getInstances());
 
             final Map<String, Instance> described = Registry.getEc2Api().describeInstances(ec2, fleetInstances);
+            // don't add node back for instance which failed termination
+            described.keySet().removeAll(failedToTerminate);
             info("described instances %s", described.keySet());
 
             // currentJenkinsNodes contains all registered Jenkins nodes related to this cloud
@@ -552,6 +624,7 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
                 });
             }
         }
+        return failedToTerminate;
     }
 
     public synchronized boolean scheduleToTerminate(final String instanceId) {
@@ -566,10 +639,13 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
             return false;
         }
 
+        // draining node is checked till it is removed
+        if (state.instanceIdsToTerminate.contains(instanceId)) return true;
+
         // We can't remove instances beyond minSize
         final EC2FleetLabelParameters parameters = new EC2FleetLabelParameters(node.getLabelString());
         final int minSize = parameters.getIntOrDefault("minSize", this.minSize);
-        if (minSize > 0 && state.stats.getNumDesired() - state.instanceIdsToTerminate.size() <= minSize) {
+        if (minSize > 0 && state.stats.getNumDesired() - state.getCapacityToTerminate() <= minSize) {
             info("Not terminating %s because we need a minimum of %s instances running.", instanceId, minSize);
             return false;
         }
@@ -581,12 +657,24 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
     // sync as we are using modifyable state
     @Override
     public synchronized boolean canProvision(final Label label) {
-        for (String labelString : states.keySet()) {
-            final boolean r = label == null || Label.parse(labelString).containsAll(label.listAtoms());
-            fine("CanProvision called on fleet: \"" + labelString + "\" wanting: \"" + (label == null ? "(unspecified)" : label.getName()) + "\". Returning " + r + ".");
-            if (r) return true;
+        if (label == null) return !states.isEmpty();
+
+        Boolean result = labelMatchCache.get(label);
+        if (result == null) {
+            result = false;
+            final Set<LabelAtom> labelAtoms = label.listAtoms();
+            for (State state : states.values()) {
+                if (state.labelAtoms.containsAll(labelAtoms)) {
+                    result = true;
+                    break;
+                }
+            }
+            labelMatchCache.put(label, result);
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            fine("CanProvision called on fleet wanting: \"" + label.getName() + "\". Returning " + result + ".");
         }
-        return false;
+        return result;
     }
 
     private Object readResolve() {
@@ -597,6 +685,7 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
     private void init() {
         id = new LazyUuid();
         states = new HashMap<>();
+        labelMatchCache = new LabelMatchCache();
     }
 
     private void addNewSlave(
@@ -784,7 +873,8 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
             for (final String label : runningStacksWithLabels) {
                 if (!states.containsKey(label)) {
                     final CloudFormationApi.StackInfo stack = allStacks.get(label);
-                    states.put(label, new State(stack.fleetId));
+                    states.put(label, new State(stack.fleetId, Collections.unmodifiableSet(Label.parse(label))));
+                    labelMatchCache.clear();
                 }
             }
 
@@ -794,6 +884,7 @@ public class EC2FleetLabelCloud extends AbstractEC2FleetCloud {
                 Map.Entry<String, State> state = iterator.next();
                 if (!runningStacksWithLabels.contains(state.getKey())) {
                     iterator.remove();
+                    labelMatchCache.clear();
                 }
             }
         }
@@ -2,12 +2,17 @@ package com.amazon.jenkins.ec2fleet;
 
 import hudson.model.Slave;
 import hudson.slaves.SlaveComputer;
+import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * @see EC2FleetNode
@@ -20,6 +25,33 @@ public class EC2FleetNodeComputer extends SlaveComputer implements EC2FleetCloud
 
     private volatile AbstractEC2FleetCloud cloud;
 
+    private final WarmCache warmCache = new WarmCache();
+
+    private final NodeHealth health = new NodeHealth();
+
+    /**
+     * Why node is draining, <code>null</code> if node is not draining
+     */
+    private volatile String drainReason;
+
+    /**
+     * Time when draining node is terminated even if it still runs tasks, <code>null</code> if no deadline
+     */
+    private volatile Long drainDeadline;
+
+    /**
+     * If node accepted tasks before drain, node which is switched off by max total uses stays switched
+     * off when drain is cancelled
+     */
+    private volatile boolean acceptingTasksBeforeDrain;
+
+    /**
+     * Idle timeout scheduled when last running task completed, <code>null</code> if node is busy
+     *
+     * @see EC2RetentionStrategy
+     */
+    private ScheduledFuture<?> idleTimeout;
+
     public EC2FleetNodeComputer(final Slave slave, @Nonnull final String name, @Nonnull final AbstractEC2FleetCloud cloud) {
         super(slave);
         this.name = name;
@@ -57,6 +89,90 @@ public class EC2FleetNodeComputer extends SlaveComputer implements EC2FleetCloud
         return cloud;
     }
 
+    /**
+     * @return jobs recently executed by node
+     */
+    public WarmCache getWarmCache() {
+        return warmCache;
+    }
+
+    /**
+     * @return health of node compared to other nodes of cloud
+     */
+    public NodeHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Stop accepting tasks, node is terminated by {@link EC2RetentionStrategy} when running tasks
+     * complete or deadline passed.
+     *
+     * @param reason   why node is draining
+     * @param deadline time when node is terminated even if busy, <code>null</code> if no deadline
+     * @return <code>true</code> if drain started, <code>false</code> if node is draining already
+     */
+    public synchronized boolean drain(@Nonnull final String reason, @Nullable final Long deadline) {
+        if (drainReason != null) return false;
+        drainReason = reason;
+        drainDeadline = deadline;
+        acceptingTasksBeforeDrain = isAcceptingTasks();
+        setAcceptingTasks(false);
+        return true;
+    }
+
+    /**
+     * Drain could be cancelled if node can't be terminated, for example because of min size,
+     * node accepts tasks again only if it accepted them before drain
+     */
+    public synchronized void cancelDrain() {
+        if (drainReason == null) return;
+        drainReason = null;
+        drainDeadline = null;
+        setAcceptingTasks(acceptingTasksBeforeDrain);
+    }
+
+    public boolean isDraining() {
+        return drainReason != null;
+    }
+
+    @Nullable
+    public String getDrainReason() {
+        return drainReason;
+    }
+
+    @Nullable
+    public Long getDrainDeadline() {
+        return drainDeadline;
+    }
+
+    /**
+     * Replace idle timeout, previous one is cancelled
+     *
+     * @param idleTimeout new timeout, <code>null</code> to cancel current one
+     */
+    public synchronized void setIdleTimeout(@Nullable final ScheduledFuture<?> idleTimeout) {
+        if (this.idleTimeout != null) this.idleTimeout.cancel(false);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Drain node via REST, <code>POST /computer/{name}/drain</code>
+     *
+     * @return HttpResponse
+     */
+    @RequirePOST
+    public HttpResponse doDrain() {
+        checkPermission(DISCONNECT);
+        final EC2FleetNode node = getNode();
+        if (node != null) {
+            final AbstractEC2FleetCloud cloud = node.getCloud();
+            if (cloud != null) {
+                cloud.drain(node.getNodeName(), "requested by " + Jenkins.getAuthentication().getName());
+            }
+        }
+        return HttpResponses.forwardToPreviousPage();
+    }
+
     /**
      * When the agent is deleted, schedule EC2 instance for termination
      *
@@ -0,0 +1,60 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.TransientComputerActionFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Shows {@link NodeHealth} and quarantine reason on computer page of nodes of {@link EC2FleetCloud}
+ * with {@link EC2FleetCloud#getQuarantineScore()}, <code>/computer/{name}/health</code>
+ */
+public class EC2FleetNodeHealthAction implements Action {
+
+    private final EC2FleetNodeComputer computer;
+
+    EC2FleetNodeHealthAction(final EC2FleetNodeComputer computer) {
+        this.computer = computer;
+    }
+
+    @Override
+    public String getIconFileName() {
+        final AbstractEC2FleetCloud cloud = computer.getCloud();
+        if (!(cloud instanceof EC2FleetCloud) || ((EC2FleetCloud) cloud).getQuarantineScore() < 1) return null;
+        return getHealth().isQuarantined() ? "warning.png" : "monitor.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return getHealth().isQuarantined() ? "Quarantined" : "Health";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "health";
+    }
+
+    public EC2FleetNodeComputer getComputer() {
+        return computer;
+    }
+
+    public NodeHealth getHealth() {
+        return computer.getHealth();
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static class Factory extends TransientComputerActionFactory {
+
+        @Override
+        public Collection<? extends Action> createFor(final Computer target) {
+            if (!(target instanceof EC2FleetNodeComputer)) return Collections.emptyList();
+            return Collections.singletonList(new EC2FleetNodeHealthAction((EC2FleetNodeComputer) target));
+        }
+
+    }
+
+}
@@ -2,10 +2,18 @@ package com.amazon.jenkins.ec2fleet;
 
 import com.google.common.util.concurrent.SettableFuture;
 import hudson.model.Computer;
+import hudson.model.Label;
 import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.slaves.NodeProvisioner;
 import hudson.util.DaemonThreadFactory;
+import jenkins.model.Jenkins;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +38,11 @@ import java.util.logging.Logger;
  * make a few short interval reconnection initially (when EC2 instance still is not ready) after that
  * with big interval, experiment shows a few minutes and more.
  * <p>
+ * When node is resolved, {@link Queue} maintenance and {@link NodeProvisioner} review for all labels which
+ * node matches, including label expressions, are requested, so waiting items are dispatched to new executors immediately instead of next periodic pass.
+ * Queue hands free executors to buildable items in queue order, so oldest item gets the node.
+ * Requests for nodes resolved within {@link EC2FleetOnlineChecker#DISPATCH_DELAY_MILLIS} are batched.
+ * <p>
  * Based on https://github.com/jenkinsci/ec2-plugin/blob/master/src/main/java/hudson/plugins/ec2/EC2Cloud.java#L640
  *
  * @see EC2FleetCloud
@@ -43,6 +56,12 @@ class EC2FleetOnlineChecker implements Runnable {
     // use daemon thread, so no problem when stop jenkins
     private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
 
+    private static final long DISPATCH_DELAY_MILLIS = 10;
+
+    private static final Set<Node> NODES_TO_DISPATCH = new HashSet<>();
+
+    private static boolean dispatchScheduled;
+
     public static void start(final Node node, final SettableFuture<Node> future, final long timeout, final long interval) {
         EXECUTOR.execute(new EC2FleetOnlineChecker(node, future, timeout, interval));
     }
@@ -71,6 +90,7 @@ class EC2FleetOnlineChecker implements Runnable {
         if (timeout < 1 || interval < 1) {
             future.set(node);
             LOGGER.log(Level.INFO, String.format("%s connection check disabled, resolve planned node", node.getNodeName()));
+            scheduleDispatch(node);
             return;
         }
 
@@ -79,6 +99,7 @@ class EC2FleetOnlineChecker implements Runnable {
             if (computer.isOnline()) {
                 future.set(node);
                 LOGGER.log(Level.INFO, String.format("%s connected, resolve planned node", node.getNodeName()));
+                scheduleDispatch(node);
                 return;
             }
         }
@@ -98,4 +119,54 @@ class EC2FleetOnlineChecker implements Runnable {
         EXECUTOR.schedule(this, interval, TimeUnit.MILLISECONDS);
     }
 
+    private static void scheduleDispatch(final Node node) {
+        synchronized (NODES_TO_DISPATCH) {
+            NODES_TO_DISPATCH.add(node);
+            if (dispatchScheduled) return;
+            dispatchScheduled = true;
+        }
+
+        EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, DISPATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void dispatch() {
+        final List<Node> nodes;
+        synchronized (NODES_TO_DISPATCH) {
+            nodes = new ArrayList<>(NODES_TO_DISPATCH);
+            NODES_TO_DISPATCH.clear();
+            dispatchScheduled = false;
+        }
+
+        final Jenkins jenkins = Jenkins.getInstance();
+        final Queue queue = jenkins.getQueue();
+        if (queue != null) queue.scheduleMaintenance();
+
+        // items wait on provisioner of their label, including expressions like linux && docker
+        final List<Label> labels = new ArrayList<>();
+        for (final Label label : jenkins.getLabels()) {
+            for (final Node node : nodes) {
+                if (label.contains(node)) {
+                    labels.add(label);
+                    break;
+                }
+            }
+        }
+        for (final Label label : labels) {
+            if (label.nodeProvisioner != null) label.nodeProvisioner.suggestReviewNow();
+        }
+        final NodeProvisioner unlabeledNodeProvisioner = jenkins.unlabeledNodeProvisioner;
+        for (final Node node : nodes) {
+            if (node.getMode() == Node.Mode.NORMAL && unlabeledNodeProvisioner != null) {
+                unlabeledNodeProvisioner.suggestReviewNow();
+                break;
+            }
+        }
+        LOGGER.log(Level.FINE, String.format("Scheduled queue maintenance and review for labels %s", labels));
+    }
+
 }
@@ -0,0 +1,142 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipeline step to reserve executors of {@link EC2FleetCloud} ahead of time, for example
+ * before parallel stages, so provision starts before tasks appear in the queue.
+ * <pre>
+ * ec2FleetPrewarm label: 'linux', executors: 50, ttlMinutes: 15
+ * </pre>
+ * Returns number of reserved executors, reservation is spread across clouds which can provision label.
+ *
+ * @see EC2FleetCloud#reserve(int, long)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class EC2FleetPrewarmStep extends Step {
+
+    public static final int DEFAULT_TTL_MINUTES = 15;
+
+    private final String label;
+    private final int executors;
+    private Integer ttlMinutes;
+
+    @DataBoundConstructor
+    public EC2FleetPrewarmStep(final String label, final int executors) {
+        this.label = label;
+        this.executors = executors;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getExecutors() {
+        return executors;
+    }
+
+    public int getTtlMinutes() {
+        return ttlMinutes == null ? DEFAULT_TTL_MINUTES : ttlMinutes;
+    }
+
+    @DataBoundSetter
+    public void setTtlMinutes(final Integer ttlMinutes) {
+        this.ttlMinutes = ttlMinutes;
+    }
+
+    @Override
+    public StepExecution start(final StepContext context) {
+        return new Execution(this, context);
+    }
+
+    @VisibleForTesting
+    static class Execution extends SynchronousNonBlockingStepExecution<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient EC2FleetPrewarmStep step;
+
+        Execution(final EC2FleetPrewarmStep step, final StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            final TaskListener listener = getContext().get(TaskListener.class);
+            final Label label = StringUtils.isBlank(step.label) ? null : Label.get(step.label);
+            final long ttlMillis = TimeUnit.MINUTES.toMillis(step.getTtlMinutes());
+
+            int reserved = 0;
+            for (final Cloud cloud : getClouds()) {
+                if (reserved >= step.executors) break;
+                if (!(cloud instanceof EC2FleetCloud) || !cloud.canProvision(label)) continue;
+
+                final int cloudReserved = ((EC2FleetCloud) cloud).reserve(step.executors - reserved, ttlMillis);
+                if (cloudReserved > 0) {
+                    listener.getLogger().println(String.format("Reserved %s executors in %s for %s min",
+                            cloudReserved, cloud.getDisplayName(), step.getTtlMinutes()));
+                }
+                reserved += cloudReserved;
+            }
+
+            if (reserved < step.executors) {
+                listener.getLogger().println(String.format("Only %s of %s executors reserved for label '%s'",
+                        reserved, step.executors, StringUtils.defaultString(step.label)));
+            }
+            return reserved;
+        }
+
+        @VisibleForTesting
+        List<Cloud> getClouds() {
+            return Jenkins.getActiveInstance().clouds;
+        }
+
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "ec2FleetPrewarm";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Reserve EC2 Fleet executors ahead of time";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(TaskListener.class);
+        }
+
+        public FormValidation doCheckExecutors(@QueryParameter final int value) {
+            if (value < 1) return FormValidation.error("Executors should be positive");
+            return FormValidation.ok();
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Action;
+import hudson.model.InvisibleAction;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Marks task resubmitted by {@link EC2FleetAutoResubmitComputerLauncher}, keeps nodes where task was
+ * interrupted, so task avoids them, see {@link EC2FleetResubmitQueueTaskDispatcher}, and goes ahead
+ * of new work, see {@link EC2FleetResubmitQueueSorter}.
+ */
+public class EC2FleetResubmitAction extends InvisibleAction {
+
+    @Nonnull
+    private final Set<String> failedNodes;
+
+    public EC2FleetResubmitAction(@Nonnull final Set<String> failedNodes) {
+        this.failedNodes = Collections.unmodifiableSet(new TreeSet<>(failedNodes));
+    }
+
+    @Nonnull
+    public Set<String> getFailedNodes() {
+        return failedNodes;
+    }
+
+    /**
+     * Task could be resubmitted a few times, so failed nodes of previous resubmit are kept.
+     *
+     * @param actions    actions of interrupted executable
+     * @param failedNode node where task was interrupted
+     * @return actions for resubmitted task
+     */
+    static List<Action> withFailedNode(final List<? extends Action> actions, final String failedNode) {
+        final Set<String> failedNodes = new TreeSet<>();
+        failedNodes.add(failedNode);
+        final List<Action> result = new ArrayList<>(actions.size() + 1);
+        for (final Action action : actions) {
+            if (action instanceof EC2FleetResubmitAction) {
+                failedNodes.addAll(((EC2FleetResubmitAction) action).failedNodes);
+            } else {
+                result.add(action);
+            }
+        }
+        result.add(new EC2FleetResubmitAction(failedNodes));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        EC2FleetResubmitAction that = (EC2FleetResubmitAction) o;
+        return failedNodes.equals(that.failedNodes);
+    }
+
+    @Override
+    public int hashCode() {
+        return failedNodes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "EC2FleetResubmitAction" + failedNodes;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueSorter;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Puts resubmitted tasks ahead of new work, so interrupted builds resume first. Order of other
+ * tasks is kept.
+ * <p>
+ * Jenkins uses single queue sorter, low ordinal lets sorter of other plugin, like Priority Sorter,
+ * take precedence.
+ *
+ * @see EC2FleetResubmitAction
+ */
+@Extension(ordinal = -100)
+@SuppressWarnings("unused")
+public class EC2FleetResubmitQueueSorter extends QueueSorter {
+
+    private static final Comparator<Queue.BuildableItem> RESUBMITTED_FIRST = new Comparator<Queue.BuildableItem>() {
+        @Override
+        public int compare(final Queue.BuildableItem o1, final Queue.BuildableItem o2) {
+            return Boolean.compare(!isResubmitted(o1), !isResubmitted(o2));
+        }
+    };
+
+    @Override
+    public void sortBuildableItems(final List<Queue.BuildableItem> buildables) {
+        // stable sort
+        Collections.sort(buildables, RESUBMITTED_FIRST);
+    }
+
+    private static boolean isResubmitted(final Queue.BuildableItem item) {
+        return item.getAction(EC2FleetResubmitAction.class) != null;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resubmitted task doesn't go to node where it was interrupted, node could be still online for a while or
+ * reconnect, while other node could take the task. If failed node is the only option task goes there anyway.
+ *
+ * @see EC2FleetResubmitAction
+ */
+@Extension
+@SuppressWarnings("unused")
+public class EC2FleetResubmitQueueTaskDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canTake(final Node node, final Queue.BuildableItem item) {
+        final EC2FleetResubmitAction action = item.getAction(EC2FleetResubmitAction.class);
+        if (action == null || !action.getFailedNodes().contains(node.getNodeName())) return null;
+
+        final Node other = findOtherNode(action.getFailedNodes(), item);
+        return other == null ? null : new FailedNode(node.getNodeName());
+    }
+
+    @Nullable
+    private Node findOtherNode(final Set<String> failedNodes, final Queue.BuildableItem item) {
+        for (final Node other : getNodes()) {
+            if (failedNodes.contains(other.getNodeName())) continue;
+
+            final Computer otherComputer = other.toComputer();
+            if (otherComputer == null || otherComputer.isOffline() || !otherComputer.isAcceptingTasks()) continue;
+            if (otherComputer.countIdle() < 1) continue;
+            // checks label, mode and node properties
+            if (other.canTake(item) == null) return other;
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    List<Node> getNodes() {
+        return Jenkins.getInstance().getNodes();
+    }
+
+    static class FailedNode extends CauseOfBlockage {
+
+        private final String nodeName;
+
+        FailedNode(final String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Avoiding node " + nodeName + " where task was interrupted";
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@ package com.amazon.jenkins.ec2fleet;
 
 import hudson.widgets.Widget;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.util.Objects;
 
@@ -22,13 +23,34 @@ public class EC2FleetStatusInfo extends Widget {
     private final String label;
     private final int numActive;
     private final int numDesired;
+    private final int predictedDemand;
+    @Nullable
+    private final DemandHistory.Accuracy forecastAccuracy;
+    @Nullable
+    private final Integer scheduledMinSize;
+    @Nullable
+    private final Integer scheduledMaxSize;
+    @Nullable
+    private final Double cacheHitRatio;
 
     public EC2FleetStatusInfo(String id, String state, String label, int numActive, int numDesired) {
+        this(id, state, label, numActive, numDesired, 0, null, null, null, null);
+    }
+
+    public EC2FleetStatusInfo(String id, String state, String label, int numActive, int numDesired,
+                              int predictedDemand, @Nullable DemandHistory.Accuracy forecastAccuracy,
+                              @Nullable Integer scheduledMinSize, @Nullable Integer scheduledMaxSize,
+                              @Nullable Double cacheHitRatio) {
         this.id = id;
         this.state = state;
         this.label = label;
         this.numActive = numActive;
         this.numDesired = numDesired;
+        this.predictedDemand = predictedDemand;
+        this.forecastAccuracy = forecastAccuracy;
+        this.scheduledMinSize = scheduledMinSize;
+        this.scheduledMaxSize = scheduledMaxSize;
+        this.cacheHitRatio = cacheHitRatio;
     }
 
     public String getId() {
@@ -42,6 +64,11 @@ public class EC2FleetStatusInfo extends Widget {
         EC2FleetStatusInfo that = (EC2FleetStatusInfo) o;
         return numActive == that.numActive &&
                 numDesired == that.numDesired &&
+                predictedDemand == that.predictedDemand &&
+                Objects.equals(forecastAccuracy, that.forecastAccuracy) &&
+                Objects.equals(scheduledMinSize, that.scheduledMinSize) &&
+                Objects.equals(scheduledMaxSize, that.scheduledMaxSize) &&
+                Objects.equals(cacheHitRatio, that.cacheHitRatio) &&
                 Objects.equals(id, that.id) &&
                 Objects.equals(state, that.state) &&
                 Objects.equals(label, that.label);
@@ -49,7 +76,8 @@ public class EC2FleetStatusInfo extends Widget {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, state, label, numActive, numDesired);
+        return Objects.hash(id, state, label, numActive, numDesired, predictedDemand, forecastAccuracy,
+                scheduledMinSize, scheduledMaxSize, cacheHitRatio);
     }
 
     public String getLabel() {
@@ -68,4 +96,28 @@ public class EC2FleetStatusInfo extends Widget {
         return numDesired;
     }
 
+    public int getPredictedDemand() {
+        return predictedDemand;
+    }
+
+    @Nullable
+    public DemandHistory.Accuracy getForecastAccuracy() {
+        return forecastAccuracy;
+    }
+
+    @Nullable
+    public Integer getScheduledMinSize() {
+        return scheduledMinSize;
+    }
+
+    @Nullable
+    public Integer getScheduledMaxSize() {
+        return scheduledMaxSize;
+    }
+
+    @Nullable
+    public Double getCacheHitRatio() {
+        return cacheHitRatio;
+    }
+
 }
@@ -41,7 +41,10 @@ public class EC2FleetStatusWidgetUpdater extends PeriodicWork {
 
             info.add(new EC2FleetStatusInfo(
                     fleetCloud.getFleet(), stats.getState().getDetailed(), fleetCloud.getLabelString(),
-                    stats.getNumActive(), stats.getNumDesired()));
+                    stats.getNumActive(), stats.getNumDesired(),
+                    fleetCloud.getPredictedDemand(), fleetCloud.getForecastAccuracy(),
+                    fleetCloud.getScheduledMinSize(), fleetCloud.getScheduledMaxSize(),
+                    fleetCloud.getCacheHitRatio()));
         }
 
         for (final Widget w : getWidgets()) {
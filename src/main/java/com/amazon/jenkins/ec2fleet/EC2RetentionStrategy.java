@@ -1,14 +1,22 @@
 package com.amazon.jenkins.ec2fleet;
 
+import com.google.common.annotations.VisibleForTesting;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.Computer;
 import hudson.model.Executor;
 import hudson.model.ExecutorListener;
 import hudson.model.Node;
 import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
 import hudson.slaves.RetentionStrategy;
 import hudson.slaves.SlaveComputer;
+import hudson.util.DaemonThreadFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,6 +28,14 @@ public class EC2RetentionStrategy extends RetentionStrategy<SlaveComputer> imple
 
     private static final int RE_CHECK_IN_MINUTE = 1;
 
+    /**
+     * Idle timeout fires a bit after idle expiry, as idle start of computer is set after task completion
+     */
+    private static final long IDLE_TIMEOUT_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final ScheduledExecutorService IDLE_TIMEOUT_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
     private static final Logger LOGGER = Logger.getLogger(EC2RetentionStrategy.class.getName());
 
     /**
@@ -45,15 +61,25 @@ public class EC2RetentionStrategy extends RetentionStrategy<SlaveComputer> imple
             return RE_CHECK_IN_MINUTE;
         }
 
+        if (cloud instanceof EC2FleetCloud) {
+            // idle and draining nodes are released by retention pass of cloud, see EC2FleetCloud#checkRetention
+            reconnectIfOffline(cloud, fc);
+            return RE_CHECK_IN_MINUTE;
+        }
+
         // Ensure that the EC2FleetCloud cannot be mutated from under us while
         // we're doing this check
         // Ensure nobody provisions onto this node until we've done
         // checking
+        if (fc.isDraining()) return checkDraining(fc, cloud);
+
         boolean shouldAcceptTasks = fc.isAcceptingTasks();
         boolean justTerminated = false;
         fc.setAcceptingTasks(false);
         try {
-            if(fc.isIdle() && (cloud.hasExcessCapacity() || isIdleForTooLong(cloud, fc))) {
+            // idle node which doesn't accept tasks under queue lock is drained already
+            if(fc.isIdle() && (cloud.hasExcessCapacity()
+                    || isIdleForTooLong(cloud, fc))) {
                 // Find instance ID
                 Node compNode = fc.getNode();
                 if (compNode == null) {
@@ -68,10 +94,7 @@ public class EC2RetentionStrategy extends RetentionStrategy<SlaveComputer> imple
                 }
             }
 
-            if (cloud.isAlwaysReconnect() && !justTerminated && fc.isOffline() && !fc.isConnecting() && fc.isLaunchSupported()) {
-                LOGGER.log(Level.INFO, "Reconnecting to instance: " + fc.getDisplayName());
-                fc.tryReconnect();
-            }
+            if (!justTerminated) reconnectIfOffline(cloud, fc);
         } finally {
             fc.setAcceptingTasks(shouldAcceptTasks);
         }
@@ -79,6 +102,36 @@ public class EC2RetentionStrategy extends RetentionStrategy<SlaveComputer> imple
         return RE_CHECK_IN_MINUTE;
     }
 
+    /**
+     * Draining node is terminated when running tasks complete or deadline passed. If cloud refuses
+     * termination, for example because of min size, drain is cancelled and node accepts tasks again
+     * if it accepted them before drain.
+     */
+    private long checkDraining(final EC2FleetNodeComputer fc, final AbstractEC2FleetCloud cloud) {
+        final Long deadline = fc.getDrainDeadline();
+        final boolean expired = deadline != null && System.currentTimeMillis() >= deadline;
+        if (fc.countBusy() > 0 && !expired) return RE_CHECK_IN_MINUTE;
+
+        final Node node = fc.getNode();
+        if (node == null) return 0;
+
+        if (expired && fc.countBusy() > 0) {
+            LOGGER.log(Level.INFO, "Drain deadline of " + fc.getDisplayName() + " passed, terminate it with running tasks");
+        }
+        if (!cloud.scheduleToTerminate(node.getNodeName())) {
+            LOGGER.log(Level.INFO, "Cancel drain of " + fc.getDisplayName() + " as it cannot be terminated");
+            fc.cancelDrain();
+        }
+        return RE_CHECK_IN_MINUTE;
+    }
+
+    private static void reconnectIfOffline(final AbstractEC2FleetCloud cloud, final EC2FleetNodeComputer fc) {
+        if (cloud.isAlwaysReconnect() && fc.isOffline() && !fc.isConnecting() && fc.isLaunchSupported()) {
+            LOGGER.log(Level.INFO, "Reconnecting to instance: " + fc.getDisplayName());
+            fc.tryReconnect();
+        }
+    }
+
     @Override
     public void start(SlaveComputer c) {
         LOGGER.log(Level.INFO, "Connecting to instance: " + c.getDisplayName());
@@ -98,6 +151,9 @@ public class EC2RetentionStrategy extends RetentionStrategy<SlaveComputer> imple
     public void taskAccepted(Executor executor, Queue.Task task) {
         final EC2FleetNodeComputer computer = (EC2FleetNodeComputer) executor.getOwner();
         if (computer != null) {
+            computer.setIdleTimeout(null);
+            invalidatePackingOrder(computer);
+            recordWarmCache(computer, task);
             final EC2FleetNode ec2FleetNode = computer.getNode();
             if (ec2FleetNode != null) {
                 final int maxTotalUses = ec2FleetNode.getMaxTotalUses();
@@ -114,14 +170,91 @@ public class EC2RetentionStrategy extends RetentionStrategy<SlaveComputer> imple
         }
     }
 
+    private static void recordWarmCache(final EC2FleetNodeComputer computer, final Queue.Task task) {
+        final List<String> keys = WarmCache.getKeys(task);
+        if (keys.isEmpty()) return;
+        final List<String> evicted = new ArrayList<>();
+        final boolean hit = computer.getWarmCache().record(keys, evicted);
+        final AbstractEC2FleetCloud cloud = computer.getCloud();
+        if (cloud instanceof EC2FleetCloud) {
+            ((EC2FleetCloud) cloud).recordCacheAccess(computer.getName(), keys, evicted, hit);
+        }
+    }
+
+    private static void invalidatePackingOrder(final EC2FleetNodeComputer computer) {
+        final AbstractEC2FleetCloud cloud = computer.getCloud();
+        if (cloud instanceof EC2FleetCloud) ((EC2FleetCloud) cloud).invalidatePackingOrder();
+    }
+
     @Override
     public void taskCompleted(Executor executor, Queue.Task task, long l) {
+        recordHealth(executor, task, l, isFailed(executor));
         postJobAction(executor);
+        scheduleIdleTimeout(executor);
     }
 
     @Override
     public void taskCompletedWithProblems(Executor executor, Queue.Task task, long l, Throwable throwable) {
+        recordHealth(executor, task, l, true);
         postJobAction(executor);
+        scheduleIdleTimeout(executor);
+    }
+
+    private static void recordHealth(final Executor executor, final Queue.Task task, final long duration,
+                                     final boolean failed) {
+        final EC2FleetNodeComputer computer = (EC2FleetNodeComputer) executor.getOwner();
+        if (computer == null) return;
+        invalidatePackingOrder(computer);
+        final AbstractEC2FleetCloud cloud = computer.getCloud();
+        if (cloud instanceof EC2FleetCloud) ((EC2FleetCloud) cloud).recordBuild(computer, task, duration, failed);
+    }
+
+    /**
+     * Result of executable which is not {@link Run}, like Pipeline <code>node</code> block, is unknown till
+     * whole run completes, so it fails only by {@link EC2RetentionStrategy#taskCompletedWithProblems}.
+     */
+    private static boolean isFailed(final Executor executor) {
+        final Queue.Executable executable = executor.getCurrentExecutable();
+        return executable instanceof Run && ((Run) executable).getResult() == Result.FAILURE;
+    }
+
+    /**
+     * When last running task completes, node is checked exactly when it is idle for too long instead of
+     * next periodic {@link EC2RetentionStrategy#check(SlaveComputer)}, which could be up to a minute later.
+     * Timeout is cancelled when node accepts next task. Periodic check stays for nodes which never ran task.
+     * Node of {@link EC2FleetCloud} is checked by retention pass of next cloud update.
+     */
+    private void scheduleIdleTimeout(final Executor executor) {
+        final EC2FleetNodeComputer computer = (EC2FleetNodeComputer) executor.getOwner();
+        if (computer == null) return;
+        final AbstractEC2FleetCloud cloud = computer.getCloud();
+        // completed executor is still busy
+        if (cloud == null || cloud.getIdleMinutes() < 1 || computer.countBusy() > 1) return;
+
+        final long delay = TimeUnit.MINUTES.toMillis(cloud.getIdleMinutes()) + IDLE_TIMEOUT_MARGIN_MILLIS;
+        computer.setIdleTimeout(IDLE_TIMEOUT_EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkIdleTimeout(computer);
+            }
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    @VisibleForTesting
+    void checkIdleTimeout(final EC2FleetNodeComputer computer) {
+        final AbstractEC2FleetCloud cloud = computer.getCloud();
+        if (cloud == null) return;
+        LOGGER.log(Level.INFO, "Idle timeout of " + computer.getDisplayName());
+        if (cloud instanceof EC2FleetCloud) {
+            ((EC2FleetCloud) cloud).requestRetentionCheck();
+        } else {
+            Queue.withLock(new Runnable() {
+                @Override
+                public void run() {
+                    check(computer);
+                }
+            });
+        }
     }
 
     private void postJobAction(Executor executor) {
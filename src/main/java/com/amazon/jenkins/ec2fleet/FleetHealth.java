@@ -0,0 +1,124 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Queue;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Baseline of {@link EC2FleetCloud} which health of each node is compared to, see {@link NodeHealth}:
+ * recent durations of successful builds per job, recent connect latencies and failure rate of all nodes.
+ * Comparison with baseline of the same cloud keeps slow job or broken build from being blamed on node.
+ */
+@ThreadSafe
+class FleetHealth {
+
+    static final int MAX_JOBS = 256;
+
+    /**
+     * Samples kept per job and for connect latency
+     */
+    static final int SAMPLES = 15;
+
+    static final int FAILURE_SAMPLES = 100;
+
+    /**
+     * Median of less samples is not trusted
+     */
+    static final int MIN_SAMPLES = 3;
+
+    private static final Pattern BUILD_NUMBER = Pattern.compile("\\s*#\\d+");
+
+    private final Map<String, Deque<Long>> durations = new LinkedHashMap<String, Deque<Long>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Deque<Long>> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    private final Deque<Long> connects = new ArrayDeque<>();
+
+    private final Deque<Boolean> failures = new ArrayDeque<>();
+
+    private int failed;
+
+    /**
+     * Pipeline runs each <code>node</code> block as sub task of the same job and blocks take very different
+     * time, so median is kept per sub task. Build number is removed from name of sub task to match
+     * the same block of next builds.
+     *
+     * @return key of job or its sub task, <code>null</code> if task has no key
+     */
+    @Nullable
+    static String getKey(final Queue.Task task) {
+        final List<String> keys = WarmCache.getKeys(task);
+        if (keys.isEmpty()) return null;
+        if (task.getOwnerTask() == task) return keys.get(0);
+        return keys.get(0) + " " + BUILD_NUMBER.matcher(task.getDisplayName()).replaceAll("");
+    }
+
+    /**
+     * @param job      key of job or sub task, see {@link FleetHealth#getKey(Queue.Task)}
+     * @param duration duration of build in millis
+     * @param failed   <code>true</code> if build failed, duration of failed build is not part of median
+     * @return median duration of job before this build, <code>null</code> if not enough samples
+     */
+    @Nullable
+    synchronized Long recordBuild(final String job, final long duration, final boolean failed) {
+        failures.addLast(failed);
+        if (failed) this.failed++;
+        if (failures.size() > FAILURE_SAMPLES && failures.removeFirst()) this.failed--;
+
+        Deque<Long> samples = durations.get(job);
+        final Long result = samples == null ? null : median(samples);
+        if (failed) return result;
+
+        if (samples == null) {
+            samples = new ArrayDeque<>();
+            durations.put(job, samples);
+        }
+        add(samples, duration);
+        return result;
+    }
+
+    /**
+     * @param latency millis from launch till node is online
+     * @return median latency of cloud before this one, <code>null</code> if not enough samples
+     */
+    @Nullable
+    synchronized Long recordConnect(final long latency) {
+        final Long result = median(connects);
+        add(connects, latency);
+        return result;
+    }
+
+    /**
+     * @return share of failed builds of all nodes, <code>0</code> if no builds yet
+     */
+    synchronized double getFailureRate() {
+        return failures.isEmpty() ? 0 : failed / (double) failures.size();
+    }
+
+    private static void add(final Deque<Long> samples, final long value) {
+        samples.addLast(value);
+        if (samples.size() > SAMPLES) samples.removeFirst();
+    }
+
+    @Nullable
+    private static Long median(final Collection<Long> samples) {
+        if (samples.size() < MIN_SAMPLES) return null;
+        final List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+}
@@ -6,6 +6,7 @@ import hudson.model.Label;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -115,17 +116,28 @@ public final class FleetStateStats {
     private final Set<String> instances;
     @Nonnull
     private final Map<String, Double> instanceTypeWeights;
+    @Nonnull
+    private final Set<String> standbyInstances;
 
     public FleetStateStats(final @Nonnull String fleetId,
                            final int numDesired, final @Nonnull State state,
                            final @Nonnull Set<String> instances,
                            final @Nonnull Map<String, Double> instanceTypeWeights) {
+        this(fleetId, numDesired, state, instances, instanceTypeWeights, Collections.<String>emptySet());
+    }
+
+    public FleetStateStats(final @Nonnull String fleetId,
+                           final int numDesired, final @Nonnull State state,
+                           final @Nonnull Set<String> instances,
+                           final @Nonnull Map<String, Double> instanceTypeWeights,
+                           final @Nonnull Set<String> standbyInstances) {
         this.fleetId = fleetId;
         this.numActive = instances.size();
         this.numDesired = numDesired;
         this.state = state;
         this.instances = instances;
         this.instanceTypeWeights = instanceTypeWeights;
+        this.standbyInstances = standbyInstances;
     }
 
     public FleetStateStats(final @Nonnull FleetStateStats stats,
@@ -136,6 +148,7 @@ public final class FleetStateStats {
         this.state = stats.state;
         this.instances = stats.instances;
         this.instanceTypeWeights = stats.instanceTypeWeights;
+        this.standbyInstances = stats.standbyInstances;
     }
 
     @Nonnull
@@ -171,4 +184,15 @@ public final class FleetStateStats {
         return instanceTypeWeights;
     }
 
+    /**
+     * Instances which are in fleet but not part of its capacity, only
+     * {@link com.amazon.jenkins.ec2fleet.fleet.AutoScalingGroupFleet} has them
+     *
+     * @return ids of standby instances
+     */
+    @Nonnull
+    public Set<String> getStandbyInstances() {
+        return standbyInstances;
+    }
+
 }
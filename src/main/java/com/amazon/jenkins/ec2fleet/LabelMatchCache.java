@@ -0,0 +1,49 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Label;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of {@link Label} match results for cloud labels, so
+ * {@link hudson.slaves.Cloud#canProvision(Label)} which is called by Jenkins for each label
+ * on each provisioning round doesn't evaluate label atoms again and again.
+ * <p>
+ * Owner should call {@link LabelMatchCache#clear()} when own labels are changed.
+ */
+@ThreadSafe
+class LabelMatchCache {
+
+    /**
+     * Number of labels is limited by jobs and nodes configuration, limit is just protection
+     */
+    static final int MAX_SIZE = 1000;
+
+    private final Map<Label, Boolean> results = new LinkedHashMap<Label, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Label, Boolean> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * @param label label
+     * @return cached result or <code>null</code> if not cached
+     */
+    @Nullable
+    synchronized Boolean get(final Label label) {
+        return results.get(label);
+    }
+
+    synchronized void put(final Label label, final boolean result) {
+        results.put(label, result);
+    }
+
+    synchronized void clear() {
+        results.clear();
+    }
+
+}
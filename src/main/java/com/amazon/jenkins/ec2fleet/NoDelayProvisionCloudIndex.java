@@ -0,0 +1,92 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.Cloud;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of {@link EC2FleetCloud} with enabled {@link EC2FleetCloud#isNoDelayProvision()} by label atoms,
+ * used by {@link NoDelayProvisionStrategy} to avoid checking each configured cloud for each label.
+ * <p>
+ * Cloud is candidate for label if cloud atoms contain all atoms of label, same as
+ * {@link EC2FleetCloud#canProvision(Label)}. Final decision is still made by cloud.
+ * <p>
+ * Any change of cloud configuration replaces cloud instance in {@link jenkins.model.Jenkins#clouds}
+ * so index is rebuilt when list of cloud instances is not the same as indexed one.
+ */
+@ThreadSafe
+class NoDelayProvisionCloudIndex {
+
+    private List<Cloud> indexedClouds = Collections.emptyList();
+    private List<EC2FleetCloud> allCandidates = Collections.emptyList();
+    private Map<LabelAtom, List<EC2FleetCloud>> candidatesByAtom = Collections.emptyMap();
+
+    /**
+     * @param clouds current clouds
+     * @param label  label to provision, could be <code>null</code>
+     * @return candidate clouds in the same order as in <code>clouds</code>
+     */
+    synchronized List<EC2FleetCloud> getCandidates(final List<Cloud> clouds, @Nullable final Label label) {
+        if (!sameInstances(indexedClouds, clouds)) rebuild(clouds);
+
+        final Set<LabelAtom> atoms = label == null ? Collections.<LabelAtom>emptySet() : label.listAtoms();
+        if (atoms.isEmpty()) return allCandidates;
+
+        // find shortest list of clouds and then filter clouds which have all atoms
+        List<EC2FleetCloud> shortest = null;
+        for (final LabelAtom atom : atoms) {
+            final List<EC2FleetCloud> forAtom = candidatesByAtom.get(atom);
+            if (forAtom == null) return Collections.emptyList();
+            if (shortest == null || forAtom.size() < shortest.size()) shortest = forAtom;
+        }
+
+        final List<EC2FleetCloud> result = new ArrayList<>(shortest.size());
+        for (final EC2FleetCloud cloud : shortest) {
+            if (cloud.getLabelAtoms().containsAll(atoms)) result.add(cloud);
+        }
+        return result;
+    }
+
+    private void rebuild(final List<Cloud> clouds) {
+        final List<EC2FleetCloud> newAllCandidates = new ArrayList<>();
+        final Map<LabelAtom, List<EC2FleetCloud>> newCandidatesByAtom = new HashMap<>();
+        for (final Cloud cloud : clouds) {
+            if (!(cloud instanceof EC2FleetCloud)) continue;
+
+            final EC2FleetCloud ec2FleetCloud = (EC2FleetCloud) cloud;
+            if (!ec2FleetCloud.isNoDelayProvision()) continue;
+
+            newAllCandidates.add(ec2FleetCloud);
+            for (final LabelAtom atom : ec2FleetCloud.getLabelAtoms()) {
+                List<EC2FleetCloud> forAtom = newCandidatesByAtom.get(atom);
+                if (forAtom == null) {
+                    forAtom = new ArrayList<>();
+                    newCandidatesByAtom.put(atom, forAtom);
+                }
+                forAtom.add(ec2FleetCloud);
+            }
+        }
+
+        indexedClouds = new ArrayList<>(clouds);
+        allCandidates = newAllCandidates;
+        candidatesByAtom = newCandidatesByAtom;
+    }
+
+    private static boolean sameInstances(final List<Cloud> indexed, final List<Cloud> current) {
+        if (indexed.size() != current.size()) return false;
+        for (int i = 0; i < indexed.size(); i++) {
+            if (indexed.get(i) != current.get(i)) return false;
+        }
+        return true;
+    }
+
+}
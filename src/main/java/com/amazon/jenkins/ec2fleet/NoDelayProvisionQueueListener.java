@@ -0,0 +1,117 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+import hudson.util.DaemonThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Without this listener {@link NoDelayProvisionStrategy} is called only on next periodic review of
+ * {@link NodeProvisioner}, which could be seconds after item entered queue, as Jenkins throttles
+ * {@link NodeProvisioner#suggestReviewNow()}. If item label is served by {@link EC2FleetCloud}
+ * with {@link EC2FleetCloud#isNoDelayProvision()} listener provisions demand of queue right away by
+ * {@link NoDelayProvisionStrategy#provisionNow(Label)}, cloud will modify fleet right after provision.
+ * Planned nodes are recorded by labels when {@link NodeProvisioner} reviews them, so review is still suggested.
+ * <p>
+ * Items which become buildable within {@link NoDelayProvisionQueueListener#COALESCE_MILLIS} are
+ * reviewed together, as usually a lot of items enter queue at the same time.
+ */
+@Extension
+@SuppressWarnings("unused")
+public class NoDelayProvisionQueueListener extends QueueListener {
+
+    private static final Logger LOGGER = Logger.getLogger(NoDelayProvisionQueueListener.class.getName());
+
+    private static final long COALESCE_MILLIS = 20;
+
+    private static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+    private final NoDelayProvisionCloudIndex cloudIndex = new NoDelayProvisionCloudIndex();
+
+    private final Set<Label> labelsToReview = new LinkedHashSet<>();
+    private boolean reviewScheduled;
+
+    @Override
+    public void onEnterBuildable(final Queue.BuildableItem item) {
+        final Label label = item.getAssignedLabel();
+        if (!isServedByNoDelayCloud(label)) return;
+
+        synchronized (this) {
+            labelsToReview.add(label);
+            if (reviewScheduled) return;
+            reviewScheduled = true;
+        }
+
+        EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                review();
+            }
+        }, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @VisibleForTesting
+    void review() {
+        final List<Label> labels;
+        synchronized (this) {
+            labels = new ArrayList<>(labelsToReview);
+            labelsToReview.clear();
+            reviewScheduled = false;
+        }
+
+        final NoDelayProvisionStrategy strategy = getStrategy();
+        if (strategy != null && !labels.isEmpty()) {
+            LOGGER.log(Level.FINE, "Provision now for labels {0}", labels);
+            // one plan covers demand of all labels in queue
+            strategy.provisionNow(labels.get(0));
+        }
+
+        LOGGER.log(Level.FINE, "Suggest review now for labels {0}", labels);
+        for (final Label label : labels) {
+            getNodeProvisioner(label).suggestReviewNow();
+        }
+    }
+
+    private boolean isServedByNoDelayCloud(final Label label) {
+        for (final EC2FleetCloud cloud : cloudIndex.getCandidates(getClouds(), label)) {
+            if (cloud.canProvision(label)) return true;
+        }
+        return false;
+    }
+
+    @VisibleForTesting
+    protected List<Cloud> getClouds() {
+        return Jenkins.getInstance().clouds;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    protected NoDelayProvisionStrategy getStrategy() {
+        return Jenkins.getInstance().getExtensionList(NodeProvisioner.Strategy.class)
+                .get(NoDelayProvisionStrategy.class);
+    }
+
+    @VisibleForTesting
+    protected NodeProvisioner getNodeProvisioner(final Label label) {
+        return label == null ? Jenkins.getInstance().unlabeledNodeProvisioner : label.nodeProvisioner;
+    }
+
+}
@@ -2,15 +2,28 @@ package com.amazon.jenkins.ec2fleet;
 
 import com.google.common.annotations.VisibleForTesting;
 import hudson.Extension;
+import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.LoadStatistics;
+import hudson.model.Node;
+import hudson.model.Queue;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import jenkins.model.Jenkins;
 
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +32,20 @@ import java.util.logging.Logger;
  * a task enter the queue.
  * Now that EC2 is billed by the minute, we don't really need to wait before provisioning a new node.
  * <p>
+ * Jenkins calls strategy for each label separately, so labels served by the same cloud (like <code>a</code>
+ * and <code>a &amp;&amp; b</code>) would be provisioned independently and cloud will get more capacity
+ * than required. To avoid that first call in provisioning round builds {@link Plan} for all labels
+ * with demand in queue, calls {@link Cloud#provision(Label, int)} once per cloud with sum of
+ * demand of labels which cloud can serve, and distributes planned nodes between labels.
+ * Next calls for other labels in the same round just record their share.
+ * <p>
+ * Jenkins reviews each label once per round, so round ends when label which already claimed its share,
+ * or label which is not in plan, is reviewed again, then next plan is built.
+ * <p>
+ * {@link EC2FleetCloud#provision(Label, int)} doesn't depend on label, all nodes of cloud get all labels
+ * of cloud, so one call with first label of plan provisions for all labels, planned nodes are recorded
+ * for label they are planned for.
+ * <p>
  * As based we are used
  * <a href="https://github.com/jenkinsci/ec2-plugin/blob/master/src/main/java/hudson/plugins/ec2/NoDelayProvisionerStrategy.java">EC2 Jenkins Plugin</a>
  */
@@ -27,6 +54,24 @@ public class NoDelayProvisionStrategy extends NodeProvisioner.Strategy {
 
     private static final Logger LOGGER = Logger.getLogger(NoDelayProvisionStrategy.class.getName());
 
+    private final NoDelayProvisionCloudIndex cloudIndex = new NoDelayProvisionCloudIndex();
+
+    /**
+     * Planned nodes provisioned by this strategy which are not done yet, by label.
+     * Used to know planned capacity for labels other than current one.
+     */
+    private final Map<Label, List<NodeProvisioner.PlannedNode>> pending = new HashMap<>();
+
+    /**
+     * Plan of current round, guarded by <code>this</code>
+     */
+    private Plan plan;
+
+    /**
+     * <code>true</code> while plan is provisioned outside of lock, guarded by <code>this</code>
+     */
+    private boolean planning;
+
     @Override
     public NodeProvisioner.StrategyDecision apply(final NodeProvisioner.StrategyState strategyState) {
         final Label label = strategyState.getLabel();
@@ -39,59 +84,310 @@ public class NoDelayProvisionStrategy extends NodeProvisioner.Strategy {
                         + strategyState.getAdditionalPlannedCapacity();  // capacity added by previous strategies _this round_
 
         int currentDemand = snapshot.getQueueLength() - availableCapacity;
-        LOGGER.log(Level.INFO,
+        LOGGER.log(Level.FINE,
                 "label [{0}]: currentDemand {1} availableCapacity {2} (availableExecutors {3} connectingExecutors {4} plannedCapacitySnapshot {5} additionalPlannedCapacity {6})",
                 new Object[]{label, currentDemand, availableCapacity, snapshot.getAvailableExecutors(),
                         snapshot.getConnectingExecutors(), strategyState.getPlannedCapacitySnapshot(),
                         strategyState.getAdditionalPlannedCapacity()});
 
-        for (final Cloud cloud : getClouds()) {
-            if (currentDemand < 1) {
-                LOGGER.log(Level.INFO, "label [{0}]: currentDemand is less than 1, not provisioning", label);
-                break;
-            }
+        if (currentDemand < 1) {
+            LOGGER.log(Level.FINE, "label [{0}]: currentDemand is less than 1, not provisioning", label);
+            return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+        }
 
-            if (!(cloud instanceof EC2FleetCloud)) {
-                LOGGER.log(Level.INFO, "label [{0}]: cloud {1} is not an EC2FleetCloud, continuing...",
-                        new Object[]{label, cloud.getDisplayName()});
-                continue;
-            }
-            if (!cloud.canProvision(label)) {
-                LOGGER.log(Level.INFO, "label [{0}]: cloud {1} can not provision for label {1}, continuing...",
-                        new Object[]{label, cloud.getDisplayName()});
-                continue;
+        final List<NodeProvisioner.PlannedNode> share = claimShare(label, currentDemand);
+        if (share != null) {
+            for (NodeProvisioner.PlannedNode plannedNode : share) {
+                currentDemand -= plannedNode.numExecutors;
             }
+            LOGGER.log(Level.FINE, "label [{0}]: planned {1} new nodes", new Object[]{label, share.size()});
+            strategyState.recordPendingLaunches(share);
+        } else {
+            // label was not in plan of this round, provision only for it
+            currentDemand = provision(strategyState, label, currentDemand);
+        }
+        LOGGER.log(Level.FINE, "After provisioning currentDemand={0}", new Object[]{currentDemand});
+
+        if (currentDemand < 1) {
+            LOGGER.log(Level.FINE, "Provisioning completed");
+            return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+        } else {
+            LOGGER.log(Level.FINE, "Provisioning not complete, consulting remaining strategies");
+            return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        }
+    }
 
-            final EC2FleetCloud ec2 = (EC2FleetCloud) cloud;
-            if (!ec2.isNoDelayProvision()) {
-                LOGGER.log(Level.INFO, "label [{0}]: cloud {1} does not use No Delay Provision Strategy, continuing...",
+    private int provision(final NodeProvisioner.StrategyState strategyState, final Label label, int currentDemand) {
+        for (final EC2FleetCloud cloud : cloudIndex.getCandidates(getClouds(), label)) {
+            if (currentDemand < 1) break;
+
+            if (!cloud.canProvision(label)) {
+                LOGGER.log(Level.FINE, "label [{0}]: cloud {1} can not provision for label {0}, continuing...",
                         new Object[]{label, cloud.getDisplayName()});
                 continue;
             }
 
-            LOGGER.log(Level.INFO, "label [{0}]: cloud {1} can provision for this label",
+            LOGGER.log(Level.FINE, "label [{0}]: cloud {1} can provision for this label",
                     new Object[]{label, cloud.getDisplayName()});
             final Collection<NodeProvisioner.PlannedNode> plannedNodes = cloud.provision(label, currentDemand);
             for (NodeProvisioner.PlannedNode plannedNode : plannedNodes) {
                 currentDemand -= plannedNode.numExecutors;
+                addPending(label, plannedNode);
             }
             LOGGER.log(Level.FINE, "Planned {0} new nodes", plannedNodes.size());
             strategyState.recordPendingLaunches(plannedNodes);
-            LOGGER.log(Level.FINE, "After provisioning currentDemand={0}", new Object[]{currentDemand});
         }
+        return currentDemand;
+    }
 
-        if (currentDemand < 1) {
-            LOGGER.log(Level.FINE, "Provisioning completed");
-            return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
-        } else {
-            LOGGER.log(Level.FINE, "Provisioning not complete, consulting remaining strategies");
-            return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+    /**
+     * @param label         current label
+     * @param currentDemand current label demand
+     * @return planned nodes for label or <code>null</code> if plan was not built
+     */
+    private List<NodeProvisioner.PlannedNode> claimShare(final Label label, final int currentDemand) {
+        return buildPlan(label, currentDemand, true);
+    }
+
+    /**
+     * Provisions demand of queue without waiting for review of {@link NodeProvisioner}. Planned nodes
+     * stay in plan and are recorded by labels when {@link NodeProvisioner} reviews them.
+     *
+     * @param label label which takes idle executors first
+     * @see NoDelayProvisionQueueListener
+     */
+    void provisionNow(@Nullable final Label label) {
+        buildPlan(label, null, false);
+    }
+
+    /**
+     * @param label         current label
+     * @param currentDemand current label demand from {@link NodeProvisioner},
+     *                      <code>null</code> to use demand of queue for it
+     * @param claim         claim share of current label from plan
+     * @return planned nodes for label or <code>null</code> if plan was not built or not claimed
+     */
+    private List<NodeProvisioner.PlannedNode> buildPlan(
+            final Label label, @Nullable final Integer currentDemand, final boolean claim) {
+        final Map<Label, List<NodeProvisioner.PlannedNode>> shares;
+        final Map<Label, Integer> pendingExecutors = new HashMap<>();
+        synchronized (this) {
+            try {
+                while (planning) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (claim && plan != null && plan.canClaim(label)) return plan.claim(label);
+
+            planning = true;
+            removeDonePending();
+            shares = getNotDoneShares();
+            for (final Map.Entry<Label, List<NodeProvisioner.PlannedNode>> entry : pending.entrySet()) {
+                pendingExecutors.put(entry.getKey(), getExecutors(entry.getValue()));
+            }
+        }
+
+        // clouds are called without lock, other labels wait for plan
+        final Map<Label, Integer> remaining = new LinkedHashMap<>();
+        List<NodeProvisioner.PlannedNode> result = null;
+        try {
+            // current label first, so it will be used for provision if cloud serves it
+            if (currentDemand != null) remaining.put(label, currentDemand - getExecutors(shares.get(label)));
+            for (final Map.Entry<Label, Integer> demand : getQueueDemand(label).entrySet()) {
+                if (remaining.containsKey(demand.getKey())) continue;
+                final Integer pendingForLabel = pendingExecutors.get(demand.getKey());
+                remaining.put(demand.getKey(), demand.getValue() - (pendingForLabel == null ? 0 : pendingForLabel));
+            }
+            provisionPlan(remaining, shares);
+        } finally {
+            synchronized (this) {
+                plan = new Plan(remaining.keySet(), shares);
+                if (claim) result = plan.claim(label);
+                planning = false;
+                notifyAll();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Shares of previous plan which were not claimed by labels are still planned capacity
+     */
+    private Map<Label, List<NodeProvisioner.PlannedNode>> getNotDoneShares() {
+        final Map<Label, List<NodeProvisioner.PlannedNode>> shares = new HashMap<>();
+        if (plan == null) return shares;
+        for (final Map.Entry<Label, List<NodeProvisioner.PlannedNode>> share : plan.shares.entrySet()) {
+            final List<NodeProvisioner.PlannedNode> notDone = new ArrayList<>();
+            for (final NodeProvisioner.PlannedNode plannedNode : share.getValue()) {
+                if (!plannedNode.future.isDone()) notDone.add(plannedNode);
+            }
+            if (!notDone.isEmpty()) shares.put(share.getKey(), notDone);
+        }
+        return shares;
+    }
+
+    /**
+     * @param remaining demand of labels, reduced by planned nodes
+     * @param shares    planned nodes by label, updated with new planned nodes
+     */
+    private void provisionPlan(final Map<Label, Integer> remaining,
+                               final Map<Label, List<NodeProvisioner.PlannedNode>> shares) {
+        final List<Cloud> clouds = getClouds();
+        final Map<EC2FleetCloud, List<Label>> servedLabels = new IdentityHashMap<>();
+        for (final Map.Entry<Label, Integer> demand : remaining.entrySet()) {
+            if (demand.getValue() < 1) continue;
+            for (final EC2FleetCloud cloud : cloudIndex.getCandidates(clouds, demand.getKey())) {
+                if (!cloud.canProvision(demand.getKey())) continue;
+                List<Label> labels = servedLabels.get(cloud);
+                if (labels == null) {
+                    labels = new ArrayList<>();
+                    servedLabels.put(cloud, labels);
+                }
+                labels.add(demand.getKey());
+            }
+        }
+
+        // clouds in configuration order, same as for single label
+        for (final EC2FleetCloud cloud : cloudIndex.getCandidates(clouds, null)) {
+            final List<Label> labels = servedLabels.get(cloud);
+            if (labels == null) continue;
+
+            int cloudDemand = 0;
+            Label firstLabel = null;
+            for (final Label servedLabel : labels) {
+                final int labelDemand = remaining.get(servedLabel);
+                if (labelDemand < 1) continue;
+                if (firstLabel == null) firstLabel = servedLabel;
+                cloudDemand += labelDemand;
+            }
+            if (cloudDemand < 1) continue;
+
+            // cloud provision doesn't depend on label, see class doc
+            final Collection<NodeProvisioner.PlannedNode> plannedNodes = cloud.provision(firstLabel, cloudDemand);
+            LOGGER.log(Level.FINE, "cloud {0}: planned {1} new nodes for demand {2} of labels {3}",
+                    new Object[]{cloud.getDisplayName(), plannedNodes.size(), cloudDemand, labels});
+
+            // give nodes to labels in order, if cloud gave more capacity than asked rest goes to last one
+            final Iterator<Label> labelIterator = labels.iterator();
+            Label shareLabel = firstLabel;
+            for (final NodeProvisioner.PlannedNode plannedNode : plannedNodes) {
+                while (remaining.get(shareLabel) < 1 && labelIterator.hasNext()) {
+                    shareLabel = labelIterator.next();
+                }
+                remaining.put(shareLabel, remaining.get(shareLabel) - plannedNode.numExecutors);
+
+                List<NodeProvisioner.PlannedNode> share = shares.get(shareLabel);
+                if (share == null) {
+                    share = new ArrayList<>();
+                    shares.put(shareLabel, share);
+                }
+                share.add(plannedNode);
+                addPending(shareLabel, plannedNode);
+            }
         }
     }
 
+    private synchronized void addPending(final Label label, final NodeProvisioner.PlannedNode plannedNode) {
+        List<NodeProvisioner.PlannedNode> plannedNodes = pending.get(label);
+        if (plannedNodes == null) {
+            plannedNodes = new ArrayList<>();
+            pending.put(label, plannedNodes);
+        }
+        plannedNodes.add(plannedNode);
+    }
+
+    private synchronized void removeDonePending() {
+        final Iterator<List<NodeProvisioner.PlannedNode>> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            final List<NodeProvisioner.PlannedNode> plannedNodes = iterator.next();
+            final Iterator<NodeProvisioner.PlannedNode> plannedNodeIterator = plannedNodes.iterator();
+            while (plannedNodeIterator.hasNext()) {
+                if (plannedNodeIterator.next().future.isDone()) plannedNodeIterator.remove();
+            }
+            if (plannedNodes.isEmpty()) iterator.remove();
+        }
+    }
+
+    private static int getExecutors(final List<NodeProvisioner.PlannedNode> plannedNodes) {
+        if (plannedNodes == null) return 0;
+        int result = 0;
+        for (final NodeProvisioner.PlannedNode plannedNode : plannedNodes) result += plannedNode.numExecutors;
+        return result;
+    }
+
     @VisibleForTesting
     protected List<Cloud> getClouds() {
         return Jenkins.getInstance().clouds;
     }
 
-}
\ No newline at end of file
+    /**
+     * Demand of each assigned label (<code>null</code> for unlabeled items) which has buildable items in queue,
+     * without capacity planned by strategies. Unlike separate {@link LoadStatistics} of each label, idle or
+     * connecting executor which can serve several labels is subtracted from demand of one label only.
+     *
+     * @param first label which takes executors first, as Jenkins already subtracted them from its demand
+     * @return label to queue length minus idle and connecting executors given to label
+     */
+    @VisibleForTesting
+    protected Map<Label, Integer> getQueueDemand(@Nullable final Label first) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        final Map<Label, Integer> result = new LinkedHashMap<>();
+        result.put(first, 0);
+        for (final Queue.BuildableItem item : jenkins.getQueue().getBuildableItems()) {
+            final Integer length = result.get(item.getAssignedLabel());
+            result.put(item.getAssignedLabel(), length == null ? 1 : length + 1);
+        }
+
+        for (final Computer computer : jenkins.getComputers()) {
+            final Node node = computer.getNode();
+            if (node == null || !computer.isAcceptingTasks()) continue;
+
+            int executors = computer.isOnline() ? computer.countIdle()
+                    : computer.isConnecting() ? computer.getNumExecutors() : 0;
+            for (final Map.Entry<Label, Integer> demand : result.entrySet()) {
+                if (executors < 1) break;
+                if (demand.getValue() < 1 || !matches(node, demand.getKey())) continue;
+                final int taken = Math.min(executors, demand.getValue());
+                demand.setValue(demand.getValue() - taken);
+                executors -= taken;
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(final Node node, @Nullable final Label label) {
+        return label == null ? node.getMode() == Node.Mode.NORMAL : label.contains(node);
+    }
+
+    /**
+     * Assignment of planned nodes to labels for one provisioning round
+     */
+    private static class Plan {
+
+        private final Set<Label> labels;
+        private final Set<Label> claimed = new HashSet<>();
+        private final Map<Label, List<NodeProvisioner.PlannedNode>> shares;
+
+        Plan(final Set<Label> labels, final Map<Label, List<NodeProvisioner.PlannedNode>> shares) {
+            this.labels = labels;
+            this.shares = shares;
+        }
+
+        /**
+         * @return <code>false</code> if label is not in plan or claimed share already, so it is next round
+         */
+        boolean canClaim(final Label label) {
+            return labels.contains(label) && !claimed.contains(label);
+        }
+
+        List<NodeProvisioner.PlannedNode> claim(final Label label) {
+            if (!canClaim(label)) return null;
+            claimed.add(label);
+            final List<NodeProvisioner.PlannedNode> share = shares.remove(label);
+            return share == null ? Collections.<NodeProvisioner.PlannedNode>emptyList() : share;
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.amazon.jenkins.ec2fleet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Health of {@link EC2FleetNodeComputer} compared to {@link FleetHealth} of its cloud, each signal is scored
+ * in percent where <code>100</code> is as good as cloud:
+ * <ul>
+ * <li>speed - job median duration to build duration, averaged over recent builds</li>
+ * <li>success - success rate of recent builds to success rate of cloud</li>
+ * <li>connect - cloud median connect latency to latency of node</li>
+ * </ul>
+ * Instance which came up degraded, for example with slow disk or noisy neighbour, scores low and is
+ * quarantined by {@link EC2FleetCloud#getQuarantineScore()}.
+ */
+@ThreadSafe
+public class NodeHealth {
+
+    /**
+     * Recent builds which are scored
+     */
+    static final int WINDOW = 10;
+
+    /**
+     * Node with less builds is not scored by speed
+     */
+    static final int MIN_BUILDS = 3;
+
+    /**
+     * Node with less builds is not scored by success, couple of failures of broken job in small sample
+     * would quarantine healthy node
+     */
+    static final int MIN_FAILURE_BUILDS = WINDOW;
+
+    private final Deque<Double> speeds = new ArrayDeque<>();
+
+    private final Deque<Boolean> failures = new ArrayDeque<>();
+
+    private Double connectSpeed;
+
+    private Integer score;
+
+    private String quarantineReason;
+
+    /**
+     * @param speed  job median duration to build duration, <code>null</code> if job median unknown
+     *               or build failed
+     * @param failed <code>true</code> if build failed
+     */
+    synchronized void recordBuild(@Nullable final Double speed, final boolean failed) {
+        if (speed != null) {
+            speeds.addLast(Math.min(1, speed));
+            if (speeds.size() > WINDOW) speeds.removeFirst();
+        }
+        failures.addLast(failed);
+        if (failures.size() > WINDOW) failures.removeFirst();
+    }
+
+    /**
+     * @param speed cloud median connect latency to latency of node
+     */
+    synchronized void recordConnect(final double speed) {
+        connectSpeed = Math.min(1, speed);
+    }
+
+    /**
+     * Score node and remember lowest score
+     *
+     * @param threshold        score in percent below which signal is unhealthy
+     * @param cloudFailureRate failure rate of all nodes of cloud
+     * @return reasons why node is unhealthy, empty if node is healthy
+     */
+    synchronized List<String> check(final int threshold, final double cloudFailureRate) {
+        final List<String> result = new ArrayList<>();
+        int lowest = 100;
+
+        final Integer speedScore = getSpeedScore();
+        if (speedScore != null) {
+            lowest = Math.min(lowest, speedScore);
+            if (speedScore < threshold) {
+                result.add(String.format("builds %.1fx slower than job median", 100.0 / Math.max(1, speedScore)));
+            }
+        }
+
+        final Double failureRate = getFailureRate();
+        if (failureRate != null && cloudFailureRate < 1) {
+            final int successScore = (int) Math.min(100, Math.round(100 * (1 - failureRate) / (1 - cloudFailureRate)));
+            lowest = Math.min(lowest, successScore);
+            if (successScore < threshold) {
+                result.add(String.format("failure rate %d%% while cloud %d%%",
+                        Math.round(failureRate * 100), Math.round(cloudFailureRate * 100)));
+            }
+        }
+
+        final Integer connectScore = getConnectScore();
+        if (connectScore != null) {
+            lowest = Math.min(lowest, connectScore);
+            if (connectScore < threshold) {
+                result.add(String.format("connect %.1fx slower than cloud median", 100.0 / Math.max(1, connectScore)));
+            }
+        }
+
+        score = lowest;
+        return result;
+    }
+
+    /**
+     * @return <code>true</code> if node was quarantined by this call, <code>false</code> if already quarantined
+     */
+    synchronized boolean quarantine(final String reason) {
+        if (quarantineReason != null) return false;
+        quarantineReason = reason;
+        return true;
+    }
+
+    public synchronized boolean isQuarantined() {
+        return quarantineReason != null;
+    }
+
+    /**
+     * @return why node doesn't accept tasks and is replaced, <code>null</code> if node is not quarantined
+     */
+    @Nullable
+    public synchronized String getQuarantineReason() {
+        return quarantineReason;
+    }
+
+    /**
+     * @return lowest score of last check, <code>null</code> if node was not checked yet
+     */
+    @Nullable
+    public synchronized Integer getScore() {
+        return score;
+    }
+
+    /**
+     * @return speed score, <code>null</code> if not enough builds of jobs with known median
+     */
+    @Nullable
+    public synchronized Integer getSpeedScore() {
+        if (speeds.size() < MIN_BUILDS) return null;
+        double sum = 0;
+        for (final double speed : speeds) sum += speed;
+        return (int) Math.round(100 * sum / speeds.size());
+    }
+
+    /**
+     * @return share of failed recent builds, <code>null</code> if not enough builds
+     */
+    @Nullable
+    public synchronized Double getFailureRate() {
+        if (failures.size() < MIN_FAILURE_BUILDS) return null;
+        int failed = 0;
+        for (final boolean failure : failures) if (failure) failed++;
+        return failed / (double) failures.size();
+    }
+
+    /**
+     * @return connect score, <code>null</code> if cloud median connect latency unknown
+     */
+    @Nullable
+    public synchronized Integer getConnectScore() {
+        return connectSpeed == null ? null : (int) Math.round(100 * connectSpeed);
+    }
+
+}
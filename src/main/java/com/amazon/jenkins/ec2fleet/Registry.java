@@ -12,6 +12,7 @@ public class Registry {
 
     private static EC2Api ec2Api = new EC2Api();
     private static CloudFormationApi cloudFormationApi = new CloudFormationApi();
+    private static SqsApi sqsApi = new SqsApi();
 
     public static void setEc2Api(EC2Api ec2Api) {
         Registry.ec2Api = ec2Api;
@@ -29,4 +30,12 @@ public class Registry {
         Registry.cloudFormationApi = cloudFormationApi;
     }
 
+    public static SqsApi getSqsApi() {
+        return sqsApi;
+    }
+
+    public static void setSqsApi(SqsApi sqsApi) {
+        Registry.sqsApi = sqsApi;
+    }
+
 }
@@ -0,0 +1,116 @@
+package com.amazon.jenkins.ec2fleet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides fleet wide which and how many idle nodes of {@link EC2FleetCloud} could be released,
+ * instead of terminating every node idle for too long independently.
+ * <ul>
+ * <li>cooldown - no idle scale in during cooldown after scale out</li>
+ * <li>max instances - limit of idle nodes released per cooldown interval, at least one minute</li>
+ * <li>hysteresis - cloud keeps executors for peak demand observed during demand window</li>
+ * </ul>
+ * Nodes idle for longest time are released first, candidates are ranked once per retention pass
+ * and offered to {@link Pass} in that order.
+ * <p>
+ * Scale in caused by excess capacity above max size is not controlled.
+ *
+ * @see EC2RetentionStrategy
+ */
+class ScaleInController {
+
+    private static final long MIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Demand samples as pairs of time and executors, oldest first
+     */
+    private final Deque<long[]> demand = new ArrayDeque<>();
+
+    /**
+     * Nodes released in current interval with release time
+     */
+    private final Map<String, Long> released = new HashMap<>();
+
+    private long lastScaleOutMillis;
+
+    synchronized void recordScaleOut(final long now) {
+        lastScaleOutMillis = now;
+    }
+
+    synchronized void recordDemand(final int executors, final long now, final long windowMillis) {
+        demand.addLast(new long[]{now, executors});
+        while (!demand.isEmpty() && now - demand.peekFirst()[0] > windowMillis) demand.removeFirst();
+    }
+
+    synchronized int getPeakDemand(final long now, final long windowMillis) {
+        int result = 0;
+        for (final long[] sample : demand) {
+            if (now - sample[0] <= windowMillis) result = Math.max(result, (int) sample[1]);
+        }
+        return result;
+    }
+
+    /**
+     * @param executors      executors of all cloud nodes which are not scheduled to termination
+     * @param cooldownMillis cooldown after scale out, <code>0</code> if disabled
+     * @param maxInstances   max nodes to release per interval, <code>0</code> if unlimited
+     * @param windowMillis   demand window, <code>0</code> if hysteresis disabled
+     * @return scale in decision for one retention pass
+     */
+    synchronized Pass startPass(final int executors, final long cooldownMillis, final int maxInstances,
+                                final long windowMillis, final long now) {
+        final long interval = Math.max(cooldownMillis, MIN_INTERVAL_MILLIS);
+        final Iterator<Long> iterator = released.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() >= interval) iterator.remove();
+        }
+
+        return new Pass(now - lastScaleOutMillis < cooldownMillis, now,
+                maxInstances > 0 ? maxInstances - released.size() : Integer.MAX_VALUE,
+                windowMillis > 0 ? executors - getPeakDemand(now, windowMillis) : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Candidates are offered longest idle first, so released slots go to nodes which are idle longer
+     */
+    class Pass {
+
+        private final boolean cooldown;
+        private final long now;
+        private int allowed;
+        private int surplus;
+
+        private Pass(final boolean cooldown, final long now, final int allowed, final int surplus) {
+            this.cooldown = cooldown;
+            this.now = now;
+            this.allowed = allowed;
+            this.surplus = surplus;
+        }
+
+        /**
+         * @param instanceId    node to release
+         * @param nodeExecutors executors of node
+         * @return <code>true</code> if node should be kept for now
+         */
+        boolean isDeferred(final String instanceId, final int nodeExecutors) {
+            synchronized (ScaleInController.this) {
+                if (cooldown) return true;
+                // approved before, but termination was refused or not done yet
+                if (released.containsKey(instanceId)) return false;
+                if (allowed < 1 || nodeExecutors > surplus) return true;
+
+                released.put(instanceId, now);
+                allowed--;
+                surplus -= nodeExecutors;
+                return false;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.amazon.jenkins.ec2fleet;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.scheduler.CronTab;
+import hudson.util.FormValidation;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Time window in which {@link EC2FleetCloud} uses own min and max size instead of configured one.
+ * Window starts at time matched by cron <code>schedule</code> and lasts <code>durationMinutes</code>.
+ * <p>
+ * Evaluated by {@link EC2FleetCloud#update()}.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class ScheduledCapacity extends AbstractDescribableImpl<ScheduledCapacity> {
+
+    private static final Logger LOGGER = Logger.getLogger(ScheduledCapacity.class.getName());
+
+    private final String schedule;
+    private final int durationMinutes;
+    private final Integer minSize;
+    private final Integer maxSize;
+
+    /**
+     * Parsed {@link ScheduledCapacity#schedule}
+     */
+    private transient volatile List<CronTab> tabs;
+
+    @DataBoundConstructor
+    public ScheduledCapacity(final String schedule, final int durationMinutes,
+                             final Integer minSize, final Integer maxSize) {
+        this.schedule = schedule;
+        this.durationMinutes = durationMinutes;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    public String getSchedule() {
+        return schedule;
+    }
+
+    public int getDurationMinutes() {
+        return durationMinutes;
+    }
+
+    /**
+     * @return min size in window, <code>null</code> if window doesn't override it
+     */
+    @Nullable
+    public Integer getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @return max size in window, <code>null</code> if window doesn't override it
+     */
+    @Nullable
+    public Integer getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param now current time
+     * @return <code>true</code> if window started by any schedule line is not finished yet
+     */
+    public boolean isActive(final Calendar now) {
+        final long duration = TimeUnit.MINUTES.toMillis(durationMinutes);
+        if (duration <= 0) return false;
+
+        for (final CronTab tab : getTabs()) {
+            final Calendar start;
+            try {
+                start = tab.floor((Calendar) now.clone());
+            } catch (RuntimeException e) {
+                // schedule which never matches
+                continue;
+            }
+            if (start != null && now.getTimeInMillis() - start.getTimeInMillis() < duration) return true;
+        }
+        return false;
+    }
+
+    private List<CronTab> getTabs() {
+        List<CronTab> result = tabs;
+        if (result == null) {
+            try {
+                result = parse(schedule);
+            } catch (ANTLRException e) {
+                LOGGER.log(Level.WARNING, "Invalid scheduled capacity schedule " + schedule + ", ignore it", e);
+                result = Collections.emptyList();
+            }
+            tabs = result;
+        }
+        return result;
+    }
+
+    private static List<CronTab> parse(final String schedule) throws ANTLRException {
+        final List<CronTab> result = new ArrayList<>();
+        for (final String line : StringUtils.defaultString(schedule).split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            result.add(new CronTab(trimmed));
+        }
+        return result;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ScheduledCapacity> {
+
+        @Override
+        public String getDisplayName() {
+            return "Scheduled Capacity";
+        }
+
+        public FormValidation doCheckSchedule(@QueryParameter final String value) {
+            try {
+                if (parse(value).isEmpty()) return FormValidation.error("Schedule is required");
+                return FormValidation.ok();
+            } catch (ANTLRException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckDurationMinutes(@QueryParameter final int value) {
+            if (value < 1) return FormValidation.error("Duration should be positive");
+            return FormValidation.ok();
+        }
+
+    }
+
+}
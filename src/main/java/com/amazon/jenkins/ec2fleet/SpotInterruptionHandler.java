@@ -0,0 +1,175 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.model.Computer;
+import hudson.model.Node;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Consumes EC2 spot interruption warnings and rebalance recommendations which EventBridge delivers to SQS queue
+ * {@link EC2FleetCloud#getInterruptionQueueUrl()}, without it plugin finds out about interruption only when
+ * node disconnects and running tasks are already lost.
+ * <ul>
+ * <li>interruption warning - node is drained and running tasks are resubmitted right away, so they start
+ * on other node before instance is reclaimed two minutes after warning</li>
+ * <li>rebalance recommendation - node is drained, running tasks complete as usual, see
+ * {@link EC2FleetCloud#getDrainTimeoutMinutes()}</li>
+ * </ul>
+ * In both cases replacement capacity is requested at once, so tasks don't wait for reclaimed node to disappear.
+ * Queue should be dedicated to cloud, notices for instances which are not nodes of cloud are dropped.
+ * <p>
+ * Not thread safe, should be used under {@link EC2FleetCloud#update()} lock.
+ */
+class SpotInterruptionHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(SpotInterruptionHandler.class.getName());
+
+    static final String INTERRUPTION_WARNING = "EC2 Spot Instance Interruption Warning";
+    static final String REBALANCE_RECOMMENDATION = "EC2 Instance Rebalance Recommendation";
+
+    static final long INTERRUPTION_NOTICE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * Max notices per update, rest is picked up by next update
+     */
+    private static final int MAX_MESSAGES = 100;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Nodes for which replacement was requested
+     */
+    private final Set<String> replaced = new HashSet<>();
+
+    /**
+     * Nodes for which running tasks were resubmitted
+     */
+    private final Set<String> interrupted = new HashSet<>();
+
+    /**
+     * @param nodes nodes of cloud
+     * @return number of nodes which should be replaced
+     */
+    int handle(final EC2FleetCloud cloud, final List<Node> nodes, final long now) {
+        final Map<String, Node> nodesByName = new HashMap<>();
+        for (final Node node : nodes) nodesByName.put(node.getNodeName(), node);
+        // forget nodes which are gone
+        replaced.retainAll(nodesByName.keySet());
+        interrupted.retainAll(nodesByName.keySet());
+
+        final String queueUrl = cloud.getInterruptionQueueUrl();
+        final AmazonSQS sqs;
+        final List<Message> messages;
+        try {
+            sqs = Registry.getSqsApi().connect(cloud.getAwsCredentialsId(), queueUrl);
+            messages = Registry.getSqsApi().receiveMessages(sqs, queueUrl, MAX_MESSAGES);
+        } catch (AmazonClientException e) {
+            LOGGER.log(Level.WARNING, "Cannot receive interruption notices from " + queueUrl, e);
+            return 0;
+        }
+        if (messages.isEmpty()) return 0;
+
+        int toReplace = 0;
+        for (final Message message : messages) {
+            final Notice notice = Notice.parse(message.getBody());
+            if (notice == null) continue;
+
+            final Node node = nodesByName.get(notice.instanceId);
+            final Computer computer = node == null ? null : node.toComputer();
+            if (!(computer instanceof EC2FleetNodeComputer)) {
+                LOGGER.fine("Skip " + notice.type + " for " + notice.instanceId + ", not a node of " + cloud.getFleet());
+                continue;
+            }
+
+            final EC2FleetNodeComputer fleetComputer = (EC2FleetNodeComputer) computer;
+            if (notice.isInterruption()) {
+                fleetComputer.drain("spot interruption", notice.time + INTERRUPTION_NOTICE_MILLIS);
+                if (!cloud.isDisableTaskResubmit() && interrupted.add(notice.instanceId)) {
+                    EC2FleetAutoResubmitComputerLauncher.resubmit(fleetComputer, cloud);
+                }
+            } else {
+                final int timeout = cloud.getDrainTimeoutMinutes();
+                fleetComputer.drain("rebalance recommendation",
+                        timeout > 0 ? now + TimeUnit.MINUTES.toMillis(timeout) : null);
+            }
+            if (replaced.add(notice.instanceId)) toReplace++;
+            LOGGER.info(notice.type + " for " + notice.instanceId + " of " + cloud.getFleet());
+        }
+
+        try {
+            Registry.getSqsApi().deleteMessages(sqs, queueUrl, messages);
+        } catch (AmazonClientException e) {
+            // notices are handled once per node, so redelivery is safe
+            LOGGER.log(Level.WARNING, "Cannot delete interruption notices from " + queueUrl, e);
+        }
+        return toReplace;
+    }
+
+    static class Notice {
+
+        final String type;
+        final String instanceId;
+
+        /**
+         * Time of event, spot instance is reclaimed two minutes after interruption warning
+         */
+        final long time;
+
+        Notice(final String type, final String instanceId, final long time) {
+            this.type = type;
+            this.instanceId = instanceId;
+            this.time = time;
+        }
+
+        boolean isInterruption() {
+            return INTERRUPTION_WARNING.equals(type);
+        }
+
+        /**
+         * @param body EventBridge event in JSON
+         * @return notice or <code>null</code> if body is not spot interruption or rebalance event
+         */
+        @Nullable
+        static Notice parse(final String body) {
+            final JsonNode event;
+            try {
+                event = OBJECT_MAPPER.readTree(body);
+            } catch (IOException e) {
+                LOGGER.warning("Skip not JSON interruption notice " + body);
+                return null;
+            }
+            if (event == null) return null;
+
+            final String type = event.path("detail-type").asText();
+            if (!INTERRUPTION_WARNING.equals(type) && !REBALANCE_RECOMMENDATION.equals(type)) return null;
+            final String instanceId = event.path("detail").path("instance-id").asText();
+            if (instanceId.isEmpty()) return null;
+
+            long time;
+            try {
+                time = Instant.parse(event.path("time").asText()).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                time = System.currentTimeMillis();
+            }
+            return new Notice(type, instanceId, time);
+        }
+
+    }
+
+}
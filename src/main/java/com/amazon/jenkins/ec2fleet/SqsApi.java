@@ -0,0 +1,88 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.amazon.jenkins.ec2fleet.utils.AWSClientCache;
+import com.amazon.jenkins.ec2fleet.utils.AWSUtils;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads EventBridge notifications, like spot interruption warnings, from SQS queue.
+ *
+ * @see SpotInterruptionHandler
+ */
+public class SqsApi {
+
+    /**
+     * Max messages per SQS receive and delete batch call
+     */
+    private static final int MAX_BATCH_SIZE = 10;
+
+    /**
+     * Endpoint is taken from queue URL, so queue of any region or local SQS compatible
+     * stand-in, for example ElasticMQ, could be used.
+     *
+     * @return cached client, see {@link AWSClientCache}
+     */
+    public AmazonSQS connect(final String awsCredentialsId, final String queueUrl) {
+        final URI uri = URI.create(queueUrl);
+        final String endpoint = uri.getScheme() + "://" + uri.getAuthority();
+        return AWSClientCache.get(AmazonSQSClient.class, awsCredentialsId, null, endpoint,
+                new AWSClientCache.Factory<AmazonSQSClient>() {
+                    @Override
+                    public AmazonSQSClient create(final AWSCredentialsProvider credentialsProvider) {
+                        return newClient(credentialsProvider, endpoint);
+                    }
+                });
+    }
+
+    private static AmazonSQSClient newClient(final AWSCredentialsProvider credentialsProvider, final String endpoint) {
+        final ClientConfiguration clientConfiguration = AWSUtils.getClientConfiguration(endpoint);
+        final AmazonSQSClient client =
+                credentialsProvider != null ?
+                        new AmazonSQSClient(credentialsProvider, clientConfiguration) :
+                        new AmazonSQSClient(clientConfiguration);
+        client.setEndpoint(endpoint);
+        return client;
+    }
+
+    /**
+     * Receive available messages without waiting, received messages are hidden from
+     * other consumers for queue visibility timeout.
+     *
+     * @param maxMessages max messages to receive
+     * @return messages, never <code>null</code>
+     */
+    public List<Message> receiveMessages(final AmazonSQS sqs, final String queueUrl, final int maxMessages) {
+        final List<Message> result = new ArrayList<>();
+        while (result.size() < maxMessages) {
+            final List<Message> messages = sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                    .withMaxNumberOfMessages(Math.min(MAX_BATCH_SIZE, maxMessages - result.size()))
+                    .withWaitTimeSeconds(0)).getMessages();
+            if (messages.isEmpty()) break;
+            result.addAll(messages);
+        }
+        return result;
+    }
+
+    public void deleteMessages(final AmazonSQS sqs, final String queueUrl, final List<Message> messages) {
+        for (int i = 0; i < messages.size(); i += MAX_BATCH_SIZE) {
+            final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (final Message message : messages.subList(i, Math.min(i + MAX_BATCH_SIZE, messages.size()))) {
+                entries.add(new DeleteMessageBatchRequestEntry(
+                        Integer.toString(entries.size()), message.getReceiptHandle()));
+            }
+            sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+        }
+    }
+
+}
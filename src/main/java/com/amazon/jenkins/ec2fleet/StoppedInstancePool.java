@@ -0,0 +1,213 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.amazon.jenkins.ec2fleet.fleet.AutoScalingGroupFleet;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Tag;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of stopped instances of auto scaling group, so {@link EC2FleetCloud} could scale out by starting
+ * instance instead of launching new one, which skips image boot and instance initialization.
+ * <p>
+ * On scale in instance is moved to group standby, which decreases desired capacity and disables health
+ * checks, and stopped. On scale out pool instances are started first, when they are running they are moved
+ * back from standby and group increases desired capacity for them.
+ * <p>
+ * Pool instances are marked by {@link StoppedInstancePool#STOPPED_AT_TAG} with stop time, so pool survives
+ * Jenkins restart, other standby instances of group are ignored. Pool instances older than max age are
+ * terminated, so pool picks up changes of group launch configuration.
+ * <p>
+ * Not thread safe, should be used under {@link EC2FleetCloud#update()} lock.
+ */
+class StoppedInstancePool {
+
+    private static final Logger LOGGER = Logger.getLogger(StoppedInstancePool.class.getName());
+
+    static final String STOPPED_AT_TAG = EC2FleetCloud.EC2_INSTANCE_TAG_NAMESPACE + ":stopped-at";
+
+    /**
+     * Pool instances which were started but not moved back from standby yet
+     */
+    private final Set<String> starting = new HashSet<>();
+
+    /**
+     * Pool instances which could be started, newest first
+     */
+    private final List<String> stopped = new ArrayList<>();
+
+    /**
+     * All pool instances including stopping and starting
+     */
+    private int size;
+
+    int getStartingCount() {
+        return starting.size();
+    }
+
+    int getStoppedCount() {
+        return stopped.size();
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Refresh pool state, move running started instances back from standby, terminate instances
+     * which are too old or don't fit to pool size.
+     *
+     * @param standby ids of group instances in standby, from {@link FleetStateStats#getStandbyInstances()}
+     */
+    void sync(final AmazonEC2 ec2, final AutoScalingGroupFleet autoScalingGroupFleet, final EC2FleetCloud cloud,
+              final Set<String> standby, final int maxSize, final long maxAgeMillis, final long now) {
+        final Map<String, Instance> described = Registry.getEc2Api().describeNotTerminatedInstances(ec2, standby);
+        starting.retainAll(described.keySet());
+
+        final Set<String> running = new HashSet<>();
+        final Set<String> toTerminate = new HashSet<>();
+        final Map<String, Long> pool = new HashMap<>();
+        for (final Instance instance : described.values()) {
+            final Long stoppedAt = getStoppedAt(instance);
+            // not a pool instance
+            if (stoppedAt == null) continue;
+
+            final String instanceId = instance.getInstanceId();
+            final String state = instance.getState().getName();
+            if (InstanceStateName.Running.toString().equals(state)) {
+                // could be started before Jenkins restart
+                starting.add(instanceId);
+                running.add(instanceId);
+            } else if (InstanceStateName.Pending.toString().equals(state)) {
+                starting.add(instanceId);
+            } else if (!starting.contains(instanceId)) {
+                if (now - stoppedAt > maxAgeMillis) {
+                    toTerminate.add(instanceId);
+                } else {
+                    pool.put(instanceId, stoppedAt);
+                }
+            }
+        }
+
+        if (!running.isEmpty()) {
+            final Set<String> failed = autoScalingGroupFleet.exitStandby(
+                    cloud.getAwsCredentialsId(), cloud.getRegion(), cloud.getEndpoint(), cloud.getFleet(), running);
+            running.removeAll(failed);
+            starting.removeAll(running);
+            LOGGER.log(Level.INFO, "Moved started pool instances " + running + " back to " + cloud.getFleet());
+        }
+
+        final List<String> newestFirst = new ArrayList<>(pool.keySet());
+        Collections.sort(newestFirst, new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return Long.compare(pool.get(o2), pool.get(o1));
+            }
+        });
+        // pool size could be decreased by configuration
+        while (newestFirst.size() + starting.size() > maxSize && !newestFirst.isEmpty()) {
+            toTerminate.add(newestFirst.remove(newestFirst.size() - 1));
+        }
+
+        if (!toTerminate.isEmpty()) {
+            // standby instances are not part of group capacity, so terminate them directly
+            Registry.getEc2Api().terminateInstances(ec2, toTerminate);
+            LOGGER.log(Level.INFO, "Terminated expired pool instances " + toTerminate + " of " + cloud.getFleet());
+        }
+
+        stopped.clear();
+        size = starting.size() + newestFirst.size();
+        for (final String instanceId : newestFirst) {
+            if (InstanceStateName.Stopped.toString().equals(described.get(instanceId).getState().getName())) {
+                stopped.add(instanceId);
+            }
+        }
+    }
+
+    /**
+     * Move instances to pool if pool has space.
+     *
+     * @param instanceIds instances to release, Jenkins nodes for them should be removed already
+     * @return instances which were released by pool, so they should not be terminated, desired capacity
+     * of group is already decreased for them
+     */
+    Set<String> stop(final AmazonEC2 ec2, final AutoScalingGroupFleet autoScalingGroupFleet, final EC2FleetCloud cloud,
+                     final Collection<String> instanceIds, final int maxSize, final long now) {
+        final int free = maxSize - size;
+        if (free < 1 || instanceIds.isEmpty()) return Collections.emptySet();
+
+        final List<String> sorted = new ArrayList<>(instanceIds);
+        // just to simplify debug by having consist order
+        Collections.sort(sorted);
+        final List<String> candidates = sorted.subList(0, Math.min(free, sorted.size()));
+
+        final Set<String> released = new HashSet<>(candidates);
+        released.removeAll(autoScalingGroupFleet.enterStandby(
+                cloud.getAwsCredentialsId(), cloud.getRegion(), cloud.getEndpoint(), cloud.getFleet(), candidates));
+        if (released.isEmpty()) return released;
+
+        final Set<String> failed = new HashSet<>();
+        try {
+            Registry.getEc2Api().tagInstances(ec2, released, STOPPED_AT_TAG, Long.toString(now));
+            failed.addAll(Registry.getEc2Api().stopInstances(ec2, released));
+        } catch (AmazonClientException e) {
+            LOGGER.log(Level.WARNING, "Cannot move instances " + released + " to pool, terminate them", e);
+            failed.addAll(released);
+        }
+
+        // instances are in standby already, so capacity is released, just terminate them
+        if (!failed.isEmpty()) Registry.getEc2Api().terminateInstances(ec2, failed);
+
+        final Set<String> pooled = new HashSet<>(released);
+        pooled.removeAll(failed);
+        size += pooled.size();
+        LOGGER.log(Level.INFO, "Stopped instances " + pooled + " to pool of " + cloud.getFleet());
+        return released;
+    }
+
+    /**
+     * Start pool instances, newest first.
+     *
+     * @param count max number of instances to start
+     * @return number of started instances
+     */
+    int start(final AmazonEC2 ec2, final int count) {
+        if (count < 1 || stopped.isEmpty()) return 0;
+
+        final List<String> toStart = new ArrayList<>(stopped.subList(0, Math.min(count, stopped.size())));
+        toStart.removeAll(Registry.getEc2Api().startInstances(ec2, toStart));
+        stopped.removeAll(toStart);
+        starting.addAll(toStart);
+        LOGGER.log(Level.INFO, "Started pool instances " + toStart);
+        return toStart.size();
+    }
+
+    @Nullable
+    private static Long getStoppedAt(final Instance instance) {
+        if (instance.getTags() == null) return null;
+        for (final Tag tag : instance.getTags()) {
+            if (!STOPPED_AT_TAG.equals(tag.getKey())) continue;
+            try {
+                return Long.parseLong(tag.getValue());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Queue;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU of jobs recently executed by {@link EC2FleetNodeComputer}, node which ran the same job
+ * or job of the same folder (for example other branch of multibranch project) probably has workspace,
+ * checkout and downloaded dependencies on disk.
+ *
+ * @see EC2FleetCacheAffinityDispatcher
+ */
+@ThreadSafe
+public class WarmCache {
+
+    static final int MAX_KEYS = 32;
+
+    /**
+     * Affinity of node which ran the same job
+     */
+    static final int JOB_AFFINITY = 2;
+
+    /**
+     * Affinity of node which ran job of the same folder
+     */
+    static final int FOLDER_AFFINITY = 1;
+
+    private final Map<String, Boolean> keys = new LinkedHashMap<String, Boolean>(MAX_KEYS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            if (size() <= MAX_KEYS) return false;
+            if (evicted != null) evicted.add(eldest.getKey());
+            return true;
+        }
+    };
+
+    /**
+     * Keys evicted by current {@link WarmCache#record(List, Collection)}, guarded by <code>this</code>
+     */
+    private Collection<String> evicted;
+
+    private int hits;
+
+    /**
+     * @param taskKeys keys of task, see {@link WarmCache#getKeys(Queue.Task)}
+     * @return {@link WarmCache#JOB_AFFINITY}, {@link WarmCache#FOLDER_AFFINITY} or <code>0</code> if node is cold
+     */
+    public synchronized int getAffinity(final List<String> taskKeys) {
+        if (taskKeys.isEmpty()) return 0;
+        // containsKey doesn't change access order
+        if (keys.containsKey(taskKeys.get(0))) return JOB_AFFINITY;
+        if (taskKeys.size() > 1 && keys.containsKey(taskKeys.get(1))) return FOLDER_AFFINITY;
+        return 0;
+    }
+
+    /**
+     * @param taskKeys keys of task accepted by node
+     * @return <code>true</code> if node ran the same job before
+     */
+    public boolean record(final List<String> taskKeys) {
+        return record(taskKeys, new ArrayList<String>());
+    }
+
+    /**
+     * @param taskKeys keys of task accepted by node
+     * @param evicted  keys evicted to make room for task keys are added to it
+     * @return <code>true</code> if node ran the same job before
+     */
+    public synchronized boolean record(final List<String> taskKeys, final Collection<String> evicted) {
+        if (taskKeys.isEmpty()) return false;
+        final boolean hit = keys.containsKey(taskKeys.get(0));
+        if (hit) hits++;
+        this.evicted = evicted;
+        try {
+            for (final String key : taskKeys) keys.put(key, Boolean.TRUE);
+        } finally {
+            this.evicted = null;
+        }
+        return hit;
+    }
+
+    /**
+     * @return <code>true</code> if node didn't run any job yet
+     */
+    public synchronized boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * @return number of tasks which found the same job in cache
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return full name of job and its folder if any, empty if task unknown
+     */
+    public static List<String> getKeys(@Nullable final Queue.Task task) {
+        if (task == null) return Collections.emptyList();
+
+        final Queue.Task owner = task.getOwnerTask();
+        final List<String> result = new ArrayList<>(2);
+        if (owner instanceof Item) {
+            result.add(((Item) owner).getFullName());
+            final ItemGroup parent = ((Item) owner).getParent();
+            if (parent instanceof Item) result.add(((Item) parent).getFullName());
+        } else {
+            result.add(owner.getFullDisplayName());
+        }
+        return result;
+    }
+
+}
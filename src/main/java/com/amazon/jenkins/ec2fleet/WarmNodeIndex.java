@@ -0,0 +1,64 @@
+package com.amazon.jenkins.ec2fleet;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Nodes of {@link EC2FleetCloud} by keys of their {@link WarmCache}, so {@link EC2FleetCacheAffinityDispatcher}
+ * finds warm nodes for task without scanning all nodes. Index could be a bit stale, final affinity
+ * is checked by cache of node.
+ */
+@ThreadSafe
+class WarmNodeIndex {
+
+    private final Map<String, Set<String>> nodesByKey = new HashMap<>();
+
+    /**
+     * @param nodeName node which accepted task
+     * @param keys     keys of task
+     * @param evicted  keys evicted from cache of node by this task
+     */
+    synchronized void record(final String nodeName, final List<String> keys, final Collection<String> evicted) {
+        for (final String key : evicted) {
+            final Set<String> nodes = nodesByKey.get(key);
+            if (nodes != null && nodes.remove(nodeName) && nodes.isEmpty()) nodesByKey.remove(key);
+        }
+        for (final String key : keys) {
+            Set<String> nodes = nodesByKey.get(key);
+            if (nodes == null) {
+                nodes = new LinkedHashSet<>();
+                nodesByKey.put(key, nodes);
+            }
+            nodes.add(nodeName);
+        }
+    }
+
+    /**
+     * @return names of nodes which have key in cache
+     */
+    synchronized List<String> getNodes(final String key) {
+        final Set<String> nodes = nodesByKey.get(key);
+        return nodes == null ? Collections.<String>emptyList() : new ArrayList<>(nodes);
+    }
+
+    /**
+     * Forget nodes which are not part of cloud anymore
+     */
+    synchronized void retainNodes(final Set<String> nodeNames) {
+        final Iterator<Set<String>> iterator = nodesByKey.values().iterator();
+        while (iterator.hasNext()) {
+            final Set<String> nodes = iterator.next();
+            nodes.retainAll(nodeNames);
+            if (nodes.isEmpty()) iterator.remove();
+        }
+    }
+
+}
@@ -1,34 +1,67 @@
 package com.amazon.jenkins.ec2fleet.fleet;
 
+import com.amazon.jenkins.ec2fleet.utils.AWSClientCache;
 import com.amazon.jenkins.ec2fleet.utils.AWSUtils;
+import com.amazon.jenkins.ec2fleet.utils.EndpointResolver;
 import com.amazon.jenkins.ec2fleet.FleetStateStats;
 import com.amazonaws.ClientConfiguration;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
+import com.amazonaws.services.autoscaling.model.AmazonAutoScalingException;
 import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.autoscaling.model.EnterStandbyRequest;
+import com.amazonaws.services.autoscaling.model.ExitStandbyRequest;
 import com.amazonaws.services.autoscaling.model.Instance;
+import com.amazonaws.services.autoscaling.model.LifecycleState;
+import com.amazonaws.services.autoscaling.model.TerminateInstanceInAutoScalingGroupRequest;
 import com.amazonaws.services.autoscaling.model.UpdateAutoScalingGroupRequest;
-import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
-import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.ListBoxModel;
-import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.util.ObjectUtils;
 
-import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @ThreadSafe
 public class AutoScalingGroupFleet implements EC2Fleet {
 
+    private static final Logger LOGGER = Logger.getLogger(AutoScalingGroupFleet.class.getName());
+
+    private static final String VALIDATION_ERROR_CODE = "ValidationError";
+    private static final String NOT_FOUND_MESSAGE = "not found";
+
+    private static final int TERMINATE_THREADS = 8;
+
+    /**
+     * Max number of instances per enter or exit standby request
+     */
+    private static final int STANDBY_BATCH_SIZE = 20;
+
+    private static final ImmutableSet<String> STANDBY_STATES = ImmutableSet.of(
+            LifecycleState.Standby.toString(),
+            LifecycleState.EnteringStandby.toString()
+    );
+
+    private static final ExecutorService TERMINATE_EXECUTOR =
+            Executors.newFixedThreadPool(TERMINATE_THREADS, new DaemonThreadFactory());
+
     @Override
     public void describe(
             final String awsCredentialsId, final String regionName, final String endpoint,
@@ -66,24 +99,138 @@ public class AutoScalingGroupFleet implements EC2Fleet {
                         .withNewInstancesProtectedFromScaleIn(true));
     }
 
-    @Override
-    public FleetStateStats getState(
-            final String awsCredentialsId, final String regionName, final String endpoint, final String id) {
+    /**
+     * Terminate instances and decrease desired capacity of auto scaling group in one call per instance,
+     * so group has no chance to launch replacement or pick other instance for scale in.
+     * API accepts only one instance per request, so requests are executed in parallel.
+     * <p>
+     * Instance which is not a part of group anymore is assumed as terminated.
+     *
+     * @param decrementDesiredCapacity <code>false</code> if capacity was already decreased
+     * @return instance ids which were not terminated, never <code>null</code>
+     */
+    public Set<String> terminateInstances(
+            final String awsCredentialsId, final String regionName, final String endpoint,
+            final Collection<String> instanceIds, final boolean decrementDesiredCapacity) {
+        final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+        // don't do actual call if no data
+        if (instanceIds.isEmpty()) return failed;
+
         final AmazonAutoScalingClient client = createClient(awsCredentialsId, regionName, endpoint);
-        final DescribeAutoScalingGroupsResult result = client.describeAutoScalingGroups(
-                new DescribeAutoScalingGroupsRequest()
-                        .withAutoScalingGroupNames(id));
+        final List<String> sorted = new ArrayList<>(instanceIds);
+        // just to simplify debug by having consist order
+        Collections.sort(sorted);
 
-        if (result.getAutoScalingGroups().isEmpty()) {
-            throw new IllegalArgumentException(String.format(
-                    "Cannot find auto scaling group with name %s in region %s", id, regionName));
+        final List<Future<?>> futures = new ArrayList<>();
+        for (final String instanceId : sorted) {
+            futures.add(TERMINATE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    terminateInstance(client, instanceId, decrementDesiredCapacity, failed);
+                }
+            }));
         }
 
-        final AutoScalingGroup group = result.getAutoScalingGroups().get(0);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // we don't know result of rest requests, assume all of them failed
+                failed.addAll(sorted.subList(i, sorted.size()));
+                break;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Unexpected failure during instance termination", e.getCause());
+                failed.add(sorted.get(i));
+            }
+        }
+        return failed;
+    }
+
+    private static void terminateInstance(
+            final AmazonAutoScalingClient client, final String instanceId,
+            final boolean decrementDesiredCapacity, final Set<String> failed) {
+        try {
+            client.terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest()
+                    .withInstanceId(instanceId)
+                    .withShouldDecrementDesiredCapacity(decrementDesiredCapacity));
+        } catch (final AmazonAutoScalingException exception) {
+            // if group doesn't know instance, that's fine assume it as terminated
+            if (VALIDATION_ERROR_CODE.equals(exception.getErrorCode()) && exception.getErrorMessage() != null
+                    && exception.getErrorMessage().toLowerCase().contains(NOT_FOUND_MESSAGE)) {
+                return;
+            }
+            LOGGER.warning(String.format("Failed terminating instanceId: %s with following exception: %s",
+                    instanceId, exception.getMessage()));
+            failed.add(instanceId);
+        }
+    }
+
+    /**
+     * Move instances to standby and decrease desired capacity, so group doesn't launch
+     * replacement and doesn't check health of instances, which could be stopped after that.
+     *
+     * @return instance ids which were not moved to standby, never <code>null</code>
+     */
+    public Set<String> enterStandby(
+            final String awsCredentialsId, final String regionName, final String endpoint,
+            final String id, final Collection<String> instanceIds) {
+        final Set<String> failed = new HashSet<>();
+        if (instanceIds.isEmpty()) return failed;
+
+        final AmazonAutoScalingClient client = createClient(awsCredentialsId, regionName, endpoint);
+        for (final List<String> batch : Lists.partition(new ArrayList<>(instanceIds), STANDBY_BATCH_SIZE)) {
+            try {
+                client.enterStandby(new EnterStandbyRequest()
+                        .withAutoScalingGroupName(id)
+                        .withInstanceIds(batch)
+                        .withShouldDecrementDesiredCapacity(true));
+            } catch (final AmazonAutoScalingException exception) {
+                LOGGER.warning(String.format("Failed to move instanceIds: %s to standby with following exception: %s",
+                        batch, exception.getMessage()));
+                failed.addAll(batch);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Move running instances back from standby, group increases desired capacity for each of them.
+     *
+     * @return instance ids which are still in standby, never <code>null</code>
+     */
+    public Set<String> exitStandby(
+            final String awsCredentialsId, final String regionName, final String endpoint,
+            final String id, final Collection<String> instanceIds) {
+        final Set<String> failed = new HashSet<>();
+        if (instanceIds.isEmpty()) return failed;
+
+        final AmazonAutoScalingClient client = createClient(awsCredentialsId, regionName, endpoint);
+        for (final List<String> batch : Lists.partition(new ArrayList<>(instanceIds), STANDBY_BATCH_SIZE)) {
+            try {
+                client.exitStandby(new ExitStandbyRequest()
+                        .withAutoScalingGroupName(id)
+                        .withInstanceIds(batch));
+            } catch (final AmazonAutoScalingException exception) {
+                LOGGER.warning(String.format("Failed to move instanceIds: %s from standby with following exception: %s",
+                        batch, exception.getMessage()));
+                failed.addAll(batch);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public FleetStateStats getState(
+            final String awsCredentialsId, final String regionName, final String endpoint, final String id) {
+        final AutoScalingGroup group = describeGroup(awsCredentialsId, regionName, endpoint, id);
 
         final Set<String> instanceIds = new HashSet<>(group.getInstances().size());
+        final Set<String> standbyInstanceIds = new HashSet<>();
         for (final Instance instance : group.getInstances()) {
-            instanceIds.add(instance.getInstanceId());
+            // standby instances are not part of group capacity
+            if (isStandby(instance)) standbyInstanceIds.add(instance.getInstanceId());
+            else instanceIds.add(instance.getInstanceId());
         }
 
         return new FleetStateStats(
@@ -91,7 +238,26 @@ public class AutoScalingGroupFleet implements EC2Fleet {
                 // status could be null which is active
                 FleetStateStats.State.active(StringUtils.defaultIfEmpty(group.getStatus(), "active")),
                 // auto scaling groups don't support weight, may be in future
-                instanceIds, Collections.<String, Double>emptyMap());
+                instanceIds, Collections.<String, Double>emptyMap(), standbyInstanceIds);
+    }
+
+    private AutoScalingGroup describeGroup(
+            final String awsCredentialsId, final String regionName, final String endpoint, final String id) {
+        final AmazonAutoScalingClient client = createClient(awsCredentialsId, regionName, endpoint);
+        final DescribeAutoScalingGroupsResult result = client.describeAutoScalingGroups(
+                new DescribeAutoScalingGroupsRequest()
+                        .withAutoScalingGroupNames(id));
+
+        if (result.getAutoScalingGroups().isEmpty()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot find auto scaling group with name %s in region %s", id, regionName));
+        }
+
+        return result.getAutoScalingGroups().get(0);
+    }
+
+    private static boolean isStandby(final Instance instance) {
+        return STANDBY_STATES.contains(instance.getLifecycleState());
     }
 
     @Override
@@ -99,35 +265,30 @@ public class AutoScalingGroupFleet implements EC2Fleet {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @return cached client, see {@link AWSClientCache}
+     */
     public AmazonAutoScalingClient createClient(
             final String awsCredentialsId, final String regionName, final String endpoint) {
-        final AmazonWebServicesCredentials credentials = AWSCredentialsHelper.getCredentials(awsCredentialsId, Jenkins.getInstance());
+        return AWSClientCache.get(AmazonAutoScalingClient.class, awsCredentialsId, regionName, endpoint,
+                new AWSClientCache.Factory<AmazonAutoScalingClient>() {
+                    @Override
+                    public AmazonAutoScalingClient create(final AWSCredentialsProvider credentialsProvider) {
+                        return newClient(credentialsProvider, regionName, endpoint);
+                    }
+                });
+    }
+
+    private static AmazonAutoScalingClient newClient(
+            final AWSCredentialsProvider credentialsProvider, final String regionName, final String endpoint) {
         final ClientConfiguration clientConfiguration = AWSUtils.getClientConfiguration(endpoint);
         final AmazonAutoScalingClient client =
-                credentials != null ?
-                        new AmazonAutoScalingClient(credentials, clientConfiguration) :
+                credentialsProvider != null ?
+                        new AmazonAutoScalingClient(credentialsProvider, clientConfiguration) :
                         new AmazonAutoScalingClient(clientConfiguration);
-        final String effectiveEndpoint = getEndpoint(regionName, endpoint);
+        final String effectiveEndpoint = EndpointResolver.getEndpoint(EndpointResolver.AUTOSCALING, regionName, endpoint);
         if (effectiveEndpoint != null) client.setEndpoint(effectiveEndpoint);
         return client;
     }
 
-    // todo do we want to merge with EC2Api#getEndpoint
-    @Nullable
-    private String getEndpoint(@Nullable final String regionName, @Nullable final String endpoint) {
-        if (StringUtils.isNotEmpty(endpoint)) {
-            return endpoint;
-        } else if (StringUtils.isNotEmpty(regionName)) {
-            final Region region = RegionUtils.getRegion(regionName);
-            if (region != null && region.isServiceSupported(endpoint)) {
-                return region.getServiceEndpoint(endpoint);
-            } else {
-                final String domain = regionName.startsWith("cn-") ? "amazonaws.com.cn" : "amazonaws.com";
-                return "https://autoscaling." + regionName + "." + domain;
-            }
-        } else {
-            return null;
-        }
-    }
-
 }
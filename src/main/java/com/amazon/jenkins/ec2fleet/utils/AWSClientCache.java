@@ -0,0 +1,98 @@
+package com.amazon.jenkins.ec2fleet.utils;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of AWS clients per type, credentials, region and endpoint, so connection pool, keep-alive and
+ * connection TTL of transport profile work across updates instead of new pool for each call.
+ * <p>
+ * Client is replaced and shut down when {@link AWSCredentialsProviderCache} returns other provider
+ * for credentials. All clients are shut down when transport profile or Jenkins proxy is changed.
+ *
+ * @see AWSUtils#getClientConfiguration(String)
+ */
+@ThreadSafe
+public final class AWSClientCache {
+
+    /**
+     * Number of combinations is limited by configured clouds, however UI could
+     * connect with any user input, so drop cache if it's too big
+     */
+    private static final int MAX_CACHE_SIZE = 100;
+
+    private static final Map<List<String>, Entry> CLIENTS = new HashMap<>();
+
+    public interface Factory<T extends AmazonWebServiceClient> {
+
+        /**
+         * @param credentialsProvider <code>null</code> if default credentials chain should be used
+         * @return new client
+         */
+        T create(@Nullable AWSCredentialsProvider credentialsProvider);
+
+    }
+
+    /**
+     * @param type             type of client
+     * @param awsCredentialsId credentials id, could be <code>null</code>
+     * @param regionName       region, could be <code>null</code>
+     * @param endpoint         custom endpoint, could be <code>null</code>
+     * @param factory          creates client if no cached one
+     * @return cached client
+     */
+    public static <T extends AmazonWebServiceClient> T get(
+            final Class<T> type, @Nullable final String awsCredentialsId, @Nullable final String regionName,
+            @Nullable final String endpoint, final Factory<T> factory) {
+        final AWSCredentialsProvider credentialsProvider = AWSCredentialsProviderCache.get(awsCredentialsId);
+        final List<String> key = Arrays.asList(type.getName(), StringUtils.defaultString(awsCredentialsId),
+                StringUtils.defaultString(regionName), StringUtils.defaultString(endpoint));
+        synchronized (CLIENTS) {
+            final Entry entry = CLIENTS.get(key);
+            if (entry != null && entry.credentialsProvider == credentialsProvider) return type.cast(entry.client);
+
+            // credentials changed
+            if (entry != null) entry.client.shutdown();
+            if (CLIENTS.size() >= MAX_CACHE_SIZE) invalidate();
+            final T client = factory.create(credentialsProvider);
+            CLIENTS.put(key, new Entry(credentialsProvider, client));
+            return client;
+        }
+    }
+
+    /**
+     * Shut down all clients, next {@link AWSClientCache#get} creates new one
+     */
+    public static void invalidate() {
+        synchronized (CLIENTS) {
+            for (final Entry entry : CLIENTS.values()) entry.client.shutdown();
+            CLIENTS.clear();
+        }
+    }
+
+    private static class Entry {
+
+        @Nullable
+        private final AWSCredentialsProvider credentialsProvider;
+        private final AmazonWebServiceClient client;
+
+        private Entry(@Nullable final AWSCredentialsProvider credentialsProvider, final AmazonWebServiceClient client) {
+            this.credentialsProvider = credentialsProvider;
+            this.client = client;
+        }
+
+    }
+
+    private AWSClientCache() {
+        throw new UnsupportedOperationException("util class");
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.amazon.jenkins.ec2fleet.utils;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.DaemonThreadFactory;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of credentials providers per <code>awsCredentialsId</code>, so plugin doesn't lookup
+ * credentials store for each new AWS client.
+ * <p>
+ * For role based credentials {@link AmazonWebServicesCredentials#getCredentials()} assumes role
+ * on each call, which is one STS call per AWS request, so provided credentials are cached as well.
+ * Session credentials are refreshed in background before expiration, if refresh failed old
+ * credentials are used till they expire.
+ * <p>
+ * Cache is dropped when any credentials store is saved. Stores which changes can't be observed are picked
+ * up after {@link AWSCredentialsProviderCache#TTL_MILLIS}, lookup is repeated then and provider with
+ * cached session is kept only if store returns the same credentials.
+ */
+@ThreadSafe
+public final class AWSCredentialsProviderCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSCredentialsProviderCache.class.getName());
+
+    /**
+     * AWS Credentials plugin assumes role for one hour
+     */
+    private static final long SESSION_DURATION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final long EXPIRE_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long REFRESH_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Time to trust lookup result, including not found credentials
+     */
+    static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+
+    /**
+     * {@link ConcurrentHashMap} doesn't support <code>null</code> keys
+     */
+    private static final ConcurrentMap<String, Entry> PROVIDERS = new ConcurrentHashMap<>();
+
+    /**
+     * @param awsCredentialsId credentials id, could be <code>null</code>
+     * @return <code>null</code> if no credentials with such id, so default credentials chain should be used
+     */
+    @Nullable
+    public static AWSCredentialsProvider get(@Nullable final String awsCredentialsId) {
+        return get(awsCredentialsId, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static AWSCredentialsProvider get(@Nullable final String awsCredentialsId, final long now) {
+        final String key = StringUtils.defaultString(awsCredentialsId);
+        final Entry entry = PROVIDERS.get(key);
+        if (entry != null && now < entry.expireAt) return entry.provider;
+
+        final AmazonWebServicesCredentials credentials =
+                AWSCredentialsHelper.getCredentials(awsCredentialsId, Jenkins.getInstance());
+        final AWSCredentialsProvider provider;
+        if (credentials == null) {
+            provider = null;
+        } else if (entry != null && entry.credentials == credentials) {
+            // store returns the same object till credentials are changed, keep cached session
+            provider = entry.provider;
+        } else {
+            provider = new RefreshAheadCredentialsProvider(credentials);
+        }
+        PROVIDERS.put(key, new Entry(credentials, provider, now + TTL_MILLIS));
+        return provider;
+    }
+
+    public static void invalidate() {
+        PROVIDERS.clear();
+    }
+
+    private static class Entry {
+
+        @Nullable
+        private final AmazonWebServicesCredentials credentials;
+        @Nullable
+        private final AWSCredentialsProvider provider;
+        private final long expireAt;
+
+        private Entry(@Nullable final AmazonWebServicesCredentials credentials,
+                      @Nullable final AWSCredentialsProvider provider, final long expireAt) {
+            this.credentials = credentials;
+            this.provider = provider;
+            this.expireAt = expireAt;
+        }
+
+    }
+
+    @VisibleForTesting
+    static class RefreshAheadCredentialsProvider implements AWSCredentialsProvider {
+
+        private final AWSCredentialsProvider credentials;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private volatile AWSCredentials cached;
+        private volatile long refreshAt;
+        private volatile long expireAt;
+
+        RefreshAheadCredentialsProvider(final AWSCredentialsProvider credentials) {
+            this.credentials = credentials;
+        }
+
+        @Override
+        public AWSCredentials getCredentials() {
+            final AWSCredentials current = cached;
+            final long now = System.currentTimeMillis();
+            if (current == null || now >= expireAt) return load();
+
+            if (now >= refreshAt && refreshing.compareAndSet(false, true)) {
+                REFRESH_EXECUTOR.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            load();
+                        } catch (final Throwable t) {
+                            LOGGER.log(Level.WARNING, "Cannot refresh AWS credentials, use current till expiration", t);
+                            refreshAt = System.currentTimeMillis() + REFRESH_RETRY_MILLIS;
+                        } finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            }
+            return current;
+        }
+
+        @Override
+        public void refresh() {
+            cached = null;
+            credentials.refresh();
+        }
+
+        private synchronized AWSCredentials load() {
+            // other thread could already load credentials while we waited
+            if (cached != null && System.currentTimeMillis() < refreshAt) return cached;
+
+            final AWSCredentials loaded = credentials.getCredentials();
+            final long now = System.currentTimeMillis();
+            if (loaded instanceof AWSSessionCredentials) {
+                refreshAt = now + SESSION_DURATION_MILLIS - REFRESH_AHEAD_MILLIS;
+                expireAt = now + SESSION_DURATION_MILLIS - EXPIRE_AHEAD_MILLIS;
+            } else {
+                // static credentials never expire
+                refreshAt = Long.MAX_VALUE;
+                expireAt = Long.MAX_VALUE;
+            }
+            cached = loaded;
+            return loaded;
+        }
+
+    }
+
+    @Extension
+    public static class CredentialsListener extends SaveableListener {
+
+        /**
+         * Credentials are saved by store itself or by owner of store, like system provider, folder or user
+         */
+        @Override
+        public void onChange(final Saveable o, final XmlFile file) {
+            if (o instanceof CredentialsStore || o instanceof SystemCredentialsProvider
+                    || o instanceof ItemGroup || o instanceof User) {
+                invalidate();
+            }
+        }
+
+    }
+
+    private AWSCredentialsProviderCache() {
+        throw new UnsupportedOperationException("util class");
+    }
+
+}
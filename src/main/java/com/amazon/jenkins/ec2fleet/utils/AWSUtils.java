@@ -1,24 +1,34 @@
 package com.amazon.jenkins.ec2fleet.utils;
 
+import com.amazon.jenkins.ec2fleet.EC2FleetCloud;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.retry.PredefinedRetryPolicies;
+import hudson.Extension;
 import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import jenkins.model.Jenkins;
 
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 public final class AWSUtils {
 
     private static final String USER_AGENT_PREFIX = "ec2-fleet-plugin";
-    private static final int MAX_ERROR_RETRY = 5;
+
+    private static final Map<String, Proxy> PROXIES = new HashMap<>();
+
+    private static ProxyConfiguration cachedProxyConfiguration;
 
     /**
      * Create {@link ClientConfiguration} for AWS-SDK with proper inited
-     * {@link ClientConfiguration#getUserAgentPrefix()} and proxy if
-     * Jenkins configured to use proxy
+     * {@link ClientConfiguration#getUserAgentPrefix()}, transport profile from
+     * {@link EC2FleetCloud.DescriptorImpl} and proxy if Jenkins configured to use proxy
      *
      * @param endpoint real endpoint which need to be called,
      *                 required to find if proxy configured to bypass some of hosts
@@ -26,20 +36,30 @@ public final class AWSUtils {
      * @return client configuration
      */
     public static ClientConfiguration getClientConfiguration(final String endpoint) {
-        final ClientConfiguration clientConfiguration = new ClientConfiguration()
-                .withRetryPolicy(PredefinedRetryPolicies.getDefaultRetryPolicyWithCustomMaxRetries(MAX_ERROR_RETRY));
+        final Jenkins jenkins = Jenkins.getActiveInstance();
+        final ClientConfiguration clientConfiguration = new ClientConfiguration();
+        final EC2FleetCloud.DescriptorImpl profile = jenkins.getDescriptorByType(EC2FleetCloud.DescriptorImpl.class);
+        if (profile != null) {
+            clientConfiguration
+                    .withRetryPolicy(PredefinedRetryPolicies.getDefaultRetryPolicyWithCustomMaxRetries(profile.getAwsMaxErrorRetry()))
+                    .withThrottledRetries(profile.getAwsThrottledRetries())
+                    .withMaxConnections(profile.getAwsMaxConnections())
+                    .withConnectionTimeout(profile.getAwsConnectionTimeoutMillis())
+                    .withSocketTimeout(profile.getAwsSocketTimeoutMillis())
+                    .withRequestTimeout(profile.getAwsRequestTimeoutMillis())
+                    .withConnectionTTL(profile.getAwsConnectionTtlMillis())
+                    .withTcpKeepAlive(profile.getAwsTcpKeepAlive())
+                    .withGzip(profile.getAwsGzip());
+        } else {
+            // descriptor is not registered in some unit tests
+            clientConfiguration.withRetryPolicy(PredefinedRetryPolicies.getDefaultRetryPolicyWithCustomMaxRetries(
+                    EC2FleetCloud.DescriptorImpl.DEFAULT_AWS_MAX_ERROR_RETRY));
+        }
         clientConfiguration.setUserAgentPrefix(USER_AGENT_PREFIX);
 
-        final ProxyConfiguration proxyConfig = Jenkins.getActiveInstance().proxy;
+        final ProxyConfiguration proxyConfig = jenkins.proxy;
         if (proxyConfig != null) {
-            Proxy proxy;
-            try {
-                proxy = proxyConfig.createProxy(new URL(endpoint).getHost());
-            } catch (MalformedURLException e) {
-                // no to fix it here, so just skip
-                proxy = proxyConfig.createProxy(endpoint);
-            }
-
+            final Proxy proxy = getProxy(proxyConfig, endpoint);
             if (!proxy.equals(Proxy.NO_PROXY) && proxy.address() instanceof InetSocketAddress) {
                 InetSocketAddress address = (InetSocketAddress) proxy.address();
                 clientConfiguration.setProxyHost(address.getHostName());
@@ -54,6 +74,48 @@ public final class AWSUtils {
         return clientConfiguration;
     }
 
+    /**
+     * Proxy decision depends only on proxy configuration and endpoint, so it's cached
+     * to avoid URL parsing and no proxy host matching for each new client.
+     * Cache is dropped when Jenkins proxy configuration replaced or saved.
+     */
+    private static synchronized Proxy getProxy(final ProxyConfiguration proxyConfig, final String endpoint) {
+        if (cachedProxyConfiguration != proxyConfig) {
+            PROXIES.clear();
+            cachedProxyConfiguration = proxyConfig;
+        }
+
+        Proxy proxy = PROXIES.get(endpoint);
+        if (proxy == null) {
+            try {
+                proxy = proxyConfig.createProxy(new URL(endpoint).getHost());
+            } catch (MalformedURLException e) {
+                // no to fix it here, so just skip
+                proxy = proxyConfig.createProxy(endpoint);
+            }
+            PROXIES.put(endpoint, proxy);
+        }
+        return proxy;
+    }
+
+    private static synchronized void invalidateProxies() {
+        PROXIES.clear();
+        cachedProxyConfiguration = null;
+    }
+
+    @Extension
+    public static class ProxyConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(final Saveable o, final XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                invalidateProxies();
+                AWSClientCache.invalidate();
+            }
+        }
+
+    }
+
     private AWSUtils() {
         throw new UnsupportedOperationException("util class");
     }
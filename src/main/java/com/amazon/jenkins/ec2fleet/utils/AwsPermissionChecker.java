@@ -39,7 +39,8 @@ public class AwsPermissionChecker {
         DescribeSpotFleetRequests,
         DescribeAutoScalingGroups,
         TerminateInstances, // TODO: Dry-run throws invalid instanceID first then AuthZ error. We need to find a better way to test
-        UpdateAutoScalingGroup; // TODO: There is no dry-run for AutoScalingClient
+        UpdateAutoScalingGroup, // TODO: There is no dry-run for AutoScalingClient
+        TerminateInstanceInAutoScalingGroup; // TODO: There is no dry-run for AutoScalingClient
     };
 
     public List<String> getMissingPermissions(final String fleet) {
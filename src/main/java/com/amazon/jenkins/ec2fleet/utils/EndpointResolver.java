@@ -0,0 +1,97 @@
+package com.amazon.jenkins.ec2fleet.utils;
+
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single place to derive AWS API endpoint for service, region and custom endpoint.
+ * Result depends only on static information, so it's calculated once and cached.
+ *
+ * @see AWSUtils#getClientConfiguration(String)
+ */
+public final class EndpointResolver {
+
+    public static final String EC2 = "ec2";
+    public static final String AUTOSCALING = "autoscaling";
+    public static final String CLOUDFORMATION = "cloudformation";
+
+    /**
+     * Number of combinations is limited by configured clouds, however UI could
+     * call with any user input, so drop cache if it's too big
+     */
+    private static final int MAX_CACHE_SIZE = 1000;
+
+    /**
+     * {@link ConcurrentHashMap} doesn't support <code>null</code> values
+     */
+    private static final String NO_ENDPOINT = "";
+
+    private static final ConcurrentMap<List<String>, String> ENDPOINTS = new ConcurrentHashMap<>();
+
+    /**
+     * Derive API endpoint. If <code>endpoint</code> parameter not empty will use
+     * it as first priority, otherwise will try to find region in {@link RegionUtils} by <code>regionName</code>
+     * and use endpoint from it, if not available will generate endpoint as string and check if
+     * region name looks like China <code>cn-</code> prefix.
+     * <p>
+     * Implementation details
+     * <p>
+     * {@link RegionUtils} is static information, and to get new region required to be updated,
+     * as it's not possible too fast as you need to check new version of lib, moreover new version of lib
+     * could be pointed to new version of Jenkins which is not a case for our plugin as some of installation
+     * still on <code>1.6.x</code>
+     * <p>
+     * For example latest AWS SDK lib depends on Jackson2 plugin which starting from version <code>2.8.7.0</code>
+     * require Jenkins at least <code>2.60</code> https://plugins.jenkins.io/jackson2-api
+     * <p>
+     * List of all AWS endpoints
+     * https://docs.aws.amazon.com/general/latest/gr/rande.html
+     *
+     * @param service    service endpoint prefix like <code>ec2</code>
+     * @param regionName like us-east-1 not a airport code, could be <code>null</code>
+     * @param endpoint   custom endpoint could be <code>null</code>
+     * @return <code>null</code> or actual endpoint
+     */
+    @Nullable
+    public static String getEndpoint(
+            final String service, @Nullable final String regionName, @Nullable final String endpoint) {
+        final List<String> key = Arrays.asList(service, regionName, endpoint);
+        String result = ENDPOINTS.get(key);
+        if (result == null) {
+            if (ENDPOINTS.size() >= MAX_CACHE_SIZE) ENDPOINTS.clear();
+            result = StringUtils.defaultString(resolve(service, regionName, endpoint), NO_ENDPOINT);
+            ENDPOINTS.put(key, result);
+        }
+        return NO_ENDPOINT.equals(result) ? null : result;
+    }
+
+    @Nullable
+    private static String resolve(
+            final String service, @Nullable final String regionName, @Nullable final String endpoint) {
+        if (StringUtils.isNotEmpty(endpoint)) {
+            return endpoint;
+        } else if (StringUtils.isNotEmpty(regionName)) {
+            final Region region = RegionUtils.getRegion(regionName);
+            if (region != null && region.isServiceSupported(service)) {
+                return region.getServiceEndpoint(service);
+            } else {
+                final String domain = regionName.startsWith("cn-") ? "amazonaws.com.cn" : "amazonaws.com";
+                return "https://" + service + "." + regionName + "." + domain;
+            }
+        } else {
+            return null;
+        }
+    }
+
+    private EndpointResolver() {
+        throw new UnsupportedOperationException("util class");
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Label;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Microbenchmark of {@link EC2FleetCloud#canProvision(Label)} which is called by
+ * {@link NoDelayProvisionStrategy} and Jenkins for each label on each provisioning round.
+ * Compares allocations of old approach which parsed cloud label on each call
+ * with precompiled atoms and cached results.
+ */
+@Ignore
+public class CanProvisionPerformanceTest extends IntegrationTest {
+
+    private static final int WARM_UP = 10000;
+    private static final int ITERATIONS = 1000000;
+
+    @Test
+    public void canProvision() {
+        final String labelString = "linux x86 docker large build";
+        final EC2FleetCloud cloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                null, "fId", labelString, null, null, false, false,
+                0, 0, 10, 1, false, false,
+                "-1", false, 0, 0, false,
+                10, true);
+        final Label label = Label.get("linux && docker");
+
+        for (int i = 0; i < WARM_UP; i++) {
+            Label.parse(labelString).containsAll(label.listAtoms());
+            cloud.canProvision(label);
+        }
+
+        long bytes = allocatedBytes();
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) Label.parse(labelString).containsAll(label.listAtoms());
+        print("parse each call", bytes, time);
+
+        bytes = allocatedBytes();
+        time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) cloud.canProvision(label);
+        print("canProvision", bytes, time);
+    }
+
+    private static void print(final String name, final long bytes, final long time) {
+        System.out.println(String.format("%s: %d bytes/call %d ns/call", name,
+                (allocatedBytes() - bytes) / ITERATIONS, (System.nanoTime() - time) / ITERATIONS));
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.slaves.Cloud;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Queue.Item.class, Queue.BuildableItem.class})
+public class DemandHistoryRecorderTest {
+
+    @Mock
+    private EC2FleetCloud linuxCloud;
+
+    @Mock
+    private EC2FleetCloud windowsCloud;
+
+    @Mock
+    private DemandHistory history;
+
+    private final List<Cloud> clouds = new ArrayList<>();
+
+    private final List<Queue.BuildableItem> items = new ArrayList<>();
+
+    private final DemandHistoryRecorder recorder = new DemandHistoryRecorder() {
+        @Override
+        DemandHistory getHistory() {
+            return history;
+        }
+
+        @Override
+        List<Cloud> getClouds() {
+            return clouds;
+        }
+
+        @Override
+        List<Queue.BuildableItem> getBuildableItems() {
+            return items;
+        }
+    };
+
+    @Before
+    public void before() {
+        Whitebox.setInternalState(linuxCloud, "name", "linux");
+        Whitebox.setInternalState(windowsCloud, "name", "windows");
+        when(linuxCloud.getPredictionLeadMinutes()).thenReturn(30);
+        when(windowsCloud.getPredictionLeadMinutes()).thenReturn(30);
+        clouds.add(linuxCloud);
+        clouds.add(windowsCloud);
+    }
+
+    @Test
+    public void doRun_givenPredictionDisabledShouldNotRecord() {
+        when(linuxCloud.getPredictionLeadMinutes()).thenReturn(0);
+        when(windowsCloud.getPredictionLeadMinutes()).thenReturn(0);
+
+        recorder.doRun();
+
+        verify(history, never()).record(anyString(), anyInt(), anyLong());
+    }
+
+    @Test
+    public void doRun_shouldAttributeItemsWithCompoundOrNoLabelToCloudsWhichCanProvisionThem() {
+        final Label linuxAndDocker = mock(Label.class);
+        when(linuxCloud.canProvision(linuxAndDocker)).thenReturn(true);
+        when(linuxCloud.canProvision(null)).thenReturn(true);
+        when(windowsCloud.canProvision(null)).thenReturn(true);
+        when(linuxCloud.countBusyExecutors()).thenReturn(2);
+        items.add(item(linuxAndDocker));
+        items.add(item(linuxAndDocker));
+        items.add(item(null));
+
+        recorder.doRun();
+
+        verify(history).record(eq("linux"), eq(5), anyLong());
+        verify(history).record(eq("windows"), eq(1), anyLong());
+    }
+
+    private static Queue.BuildableItem item(final Label label) {
+        final Queue.BuildableItem item = PowerMockito.mock(Queue.BuildableItem.class);
+        when(item.getAssignedLabel()).thenReturn(label);
+        return item;
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.amazon.jenkins.ec2fleet;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DemandHistoryTest {
+
+    private static final long BUCKET = TimeUnit.MINUTES.toMillis(DemandHistory.BUCKET_MINUTES);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+
+    private final DemandHistory history = new DemandHistory(null, TimeZone.getTimeZone("UTC"));
+
+    @Test
+    public void forecast_givenNoHistoryShouldReturnZero() {
+        assertEquals(0, history.forecast("a", 60, 0));
+    }
+
+    @Test
+    public void forecast_shouldNotUseCurrentBucketTillItEnds() {
+        history.record("a", 5, 0);
+
+        assertEquals(0, history.forecast("a", 60, DAY));
+    }
+
+    @Test
+    public void forecast_shouldUseSameTimeOfDayIfNoWeekHistory() {
+        history.record("a", 5, 0);
+        history.record("a", 0, BUCKET);
+
+        assertEquals(5, history.forecast("a", 0, DAY));
+        assertEquals(0, history.forecast("a", 0, DAY + BUCKET));
+    }
+
+    @Test
+    public void forecast_shouldUsePeakOfBucket() {
+        history.record("a", 1, 0);
+        history.record("a", 7, TimeUnit.MINUTES.toMillis(1));
+        history.record("a", 2, TimeUnit.MINUTES.toMillis(2));
+        history.record("a", 0, BUCKET);
+
+        assertEquals(7, history.forecast("a", 0, DAY));
+    }
+
+    @Test
+    public void forecast_shouldReturnMaxWithinLeadTime() {
+        history.record("a", 1, 0);
+        history.record("a", 9, BUCKET);
+        history.record("a", 3, 2 * BUCKET);
+        history.record("a", 0, 3 * BUCKET);
+
+        assertEquals(1, history.forecast("a", 0, DAY));
+        assertEquals(9, history.forecast("a", DemandHistory.BUCKET_MINUTES, DAY));
+        assertEquals(9, history.forecast("a", 3 * DemandHistory.BUCKET_MINUTES, DAY));
+    }
+
+    @Test
+    public void forecast_shouldPreferWeekProfileOverDayProfile() {
+        // spike on first day
+        history.record("a", 10, 0);
+        history.record("a", 0, BUCKET);
+        // no demand at the same time on second day
+        history.record("a", 0, DAY);
+        history.record("a", 0, DAY + BUCKET);
+
+        // same day next week expects spike even if day profile is smoothed down
+        assertEquals(10, history.forecast("a", 0, WEEK));
+    }
+
+    @Test
+    public void forecast_shouldBeIndependentPerLabel() {
+        history.record("a", 4, 0);
+        history.record("b", 8, 0);
+        history.record("a", 0, BUCKET);
+        history.record("b", 0, BUCKET);
+
+        assertEquals(4, history.forecast("a", 0, DAY));
+        assertEquals(8, history.forecast("b", 0, DAY));
+    }
+
+    @Test
+    public void forecast_shouldSmoothRepeatedObservations() {
+        history.record("a", 10, 0);
+        history.record("a", 0, BUCKET);
+        history.record("a", 20, WEEK);
+        history.record("a", 0, WEEK + BUCKET);
+
+        // 10 * 0.7 + 20 * 0.3
+        assertEquals(13, history.forecast("a", 0, 2 * WEEK));
+    }
+
+    @Test
+    public void getAccuracy_givenNoCheckedForecastShouldReturnNull() {
+        history.record("a", 10, 0);
+        history.record("a", 0, BUCKET);
+
+        assertNull(history.getAccuracy(Collections.singletonList("a")));
+        assertNull(history.getAccuracy(Collections.singletonList("unknown")));
+    }
+
+    @Test
+    public void getAccuracy_shouldCompareForecastWithActual() {
+        history.record("a", 10, 0);
+        history.record("a", 0, BUCKET);
+        // forecast 10, actual 8
+        history.record("a", 8, DAY);
+        history.record("a", 0, DAY + BUCKET);
+
+        final DemandHistory.Accuracy accuracy = history.getAccuracy(Collections.singletonList("a"));
+        assertEquals(2.0, accuracy.getMae(), 0.001);
+        assertEquals(0.25, accuracy.getMape(), 0.001);
+        assertEquals(1, accuracy.getChecks());
+    }
+
+    @Test
+    public void getAccuracy_shouldWeightLabelsByChecks() {
+        history.record("a", 10, 0);
+        history.record("a", 10, DAY);
+        history.record("a", 6, 2 * DAY);
+        history.record("a", 0, 3 * DAY);
+        history.record("b", 10, 0);
+        history.record("b", 10, DAY);
+        history.record("b", 0, 2 * DAY);
+
+        final DemandHistory.Accuracy accuracy = history.getAccuracy(Arrays.asList("a", "b"));
+        // a: errors 0 then 4 -> 0 * 0.7 + 4 * 0.3 = 1.2 over 2 checks, b: 0 over 1 check
+        assertEquals(0.8, accuracy.getMae(), 0.001);
+        assertEquals(3, accuracy.getChecks());
+    }
+
+}
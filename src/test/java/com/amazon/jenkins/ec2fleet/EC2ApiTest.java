@@ -1,5 +1,6 @@
 package com.amazon.jenkins.ec2fleet;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.CreateTagsRequest;
@@ -9,6 +10,8 @@ import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceState;
 import com.amazonaws.services.ec2.model.InstanceStateName;
 import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
 import com.google.common.collect.ImmutableMap;
@@ -380,18 +383,115 @@ public class EC2ApiTest {
                 Mockito.any(TerminateInstancesRequest.class));
     }
 
-    @Test (expected = AmazonEC2Exception.class)
-    public void testTerminateInstanceRethrowException() {
+    @Test
+    public void testTerminateInstanceReturnFailedIfException() {
         final AmazonEC2Exception exception = new AmazonEC2Exception("You are not authorized to perform this operation");
         exception.setErrorCode("403");
         when(amazonEC2.terminateInstances(new TerminateInstancesRequest().withInstanceIds(Arrays.asList("i-123"))))
                 .thenThrow(exception);
         final EC2Api client = new EC2Api();
 
-        client.terminateInstances(amazonEC2, Arrays.asList("i-123"));
+        final Set<String> failed = client.terminateInstances(amazonEC2, Arrays.asList("i-123"));
 
+        Assert.assertEquals(ImmutableSet.of("i-123"), failed);
         verify(amazonEC2, times(1)).terminateInstances(
                 Mockito.any(TerminateInstancesRequest.class));
     }
 
+    @Test
+    public void terminateInstances_shouldNotCallApiIfEmptyListOfInstances() {
+        final Set<String> failed = new EC2Api().terminateInstances(amazonEC2, Collections.<String>emptyList());
+
+        Assert.assertEquals(Collections.<String>emptySet(), failed);
+        verifyZeroInteractions(amazonEC2);
+    }
+
+    @Test
+    public void terminateInstances_shouldTerminateInChunks() {
+        final Set<String> failed = new EC2Api().terminateInstances(
+                amazonEC2, Arrays.asList("i-1", "i-2", "i-3", "i-4", "i-5"), 2);
+
+        Assert.assertEquals(Collections.<String>emptySet(), failed);
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-1", "i-2")));
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-3", "i-4")));
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-5")));
+        verifyNoMoreInteractions(amazonEC2);
+    }
+
+    @Test
+    public void stopInstances_shouldReturnFailedBatch() {
+        when(amazonEC2.stopInstances(new StopInstancesRequest(Arrays.asList("i-1"))))
+                .thenThrow(new AmazonEC2Exception("test"));
+
+        final Set<String> failed = new EC2Api().stopInstances(amazonEC2, Arrays.asList("i-1"));
+
+        Assert.assertEquals(ImmutableSet.of("i-1"), failed);
+    }
+
+    @Test
+    public void startInstances_shouldStartInstances() {
+        final Set<String> failed = new EC2Api().startInstances(amazonEC2, Arrays.asList("i-1", "i-2"));
+
+        Assert.assertEquals(Collections.<String>emptySet(), failed);
+        verify(amazonEC2).startInstances(new StartInstancesRequest(Arrays.asList("i-1", "i-2")));
+    }
+
+    @Test
+    public void terminateInstances_shouldAssumeNotFoundAsTerminatedAndRetryRest() {
+        final AmazonEC2Exception exception = new AmazonEC2Exception(
+                "unlucky The instance ID 'i-2' does not exist");
+        exception.setErrorCode("InvalidInstanceID.NotFound");
+        when(amazonEC2.terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-1", "i-2", "i-3"))))
+                .thenThrow(exception);
+
+        final Set<String> failed = new EC2Api().terminateInstances(amazonEC2, Arrays.asList("i-1", "i-2", "i-3"));
+
+        Assert.assertEquals(Collections.<String>emptySet(), failed);
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-1", "i-2", "i-3")));
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-1", "i-3")));
+        verifyNoMoreInteractions(amazonEC2);
+    }
+
+    @Test
+    public void terminateInstances_shouldReturnOnlyFailedInstancesAndTerminateRest() {
+        final AmazonEC2Exception exception = new AmazonEC2Exception("bad instance");
+        exception.setErrorCode("IncorrectInstanceState");
+        when(amazonEC2.terminateInstances(any(TerminateInstancesRequest.class))).then(invocation -> {
+            final TerminateInstancesRequest request = invocation.getArgument(0);
+            if (request.getInstanceIds().contains("i-3")) throw exception;
+            return null;
+        });
+
+        final Set<String> failed = new EC2Api().terminateInstances(
+                amazonEC2, Arrays.asList("i-1", "i-2", "i-3", "i-4", "i-5", "i-6"), 3);
+
+        Assert.assertEquals(ImmutableSet.of("i-3"), failed);
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-1")));
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-2")));
+        verify(amazonEC2).terminateInstances(new TerminateInstancesRequest(Arrays.asList("i-4", "i-5", "i-6")));
+    }
+
+    @Test
+    public void terminateInstances_shouldNotSplitChunkIfThrottled() {
+        final AmazonEC2Exception exception = new AmazonEC2Exception("slow down");
+        exception.setErrorCode("RequestLimitExceeded");
+        when(amazonEC2.terminateInstances(any(TerminateInstancesRequest.class))).thenThrow(exception);
+
+        final Set<String> failed = new EC2Api().terminateInstances(amazonEC2, Arrays.asList("i-1", "i-2"));
+
+        Assert.assertEquals(ImmutableSet.of("i-1", "i-2"), failed);
+        verify(amazonEC2, times(1)).terminateInstances(any(TerminateInstancesRequest.class));
+    }
+
+    @Test
+    public void terminateInstances_shouldReturnBatchAsFailedIfClientFailed() {
+        when(amazonEC2.terminateInstances(any(TerminateInstancesRequest.class)))
+                .thenThrow(new AmazonClientException("Unable to execute HTTP request: Read timed out"));
+
+        final Set<String> failed = new EC2Api().terminateInstances(amazonEC2, Arrays.asList("i-1", "i-2"));
+
+        Assert.assertEquals(ImmutableSet.of("i-1", "i-2"), failed);
+        verify(amazonEC2, times(1)).terminateInstances(any(TerminateInstancesRequest.class));
+    }
+
 }
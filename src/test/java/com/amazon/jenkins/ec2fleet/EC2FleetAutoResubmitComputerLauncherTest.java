@@ -19,10 +19,12 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
-import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -90,6 +92,7 @@ public class EC2FleetAutoResubmitComputerLauncherTest {
         executable1 = mock(Actionable.class, withSettings().extraInterfaces(Queue.Executable.class));
 
         when(computer.getDisplayName()).thenReturn("i-12");
+        when(computer.getName()).thenReturn("i-12");
 
         PowerMockito.mockStatic(Jenkins.class);
         when(Jenkins.getInstance()).thenReturn(jenkins);
@@ -136,7 +139,7 @@ public class EC2FleetAutoResubmitComputerLauncherTest {
         when(computer.getExecutors()).thenReturn(Arrays.asList(executor1));
         new EC2FleetAutoResubmitComputerLauncher(baseComputerLauncher)
                 .afterDisconnect(computer, taskListener);
-        verify(queue).schedule2(eq(task1), anyInt(), eq(Collections.<Action>emptyList()));
+        verify(queue).schedule2(eq(task1), eq(0), eq(resubmitActions()));
         verifyZeroInteractions(queue);
     }
 
@@ -153,8 +156,8 @@ public class EC2FleetAutoResubmitComputerLauncherTest {
     public void taskCompleted_should_resubmit_task_for_all_executors() {
         new EC2FleetAutoResubmitComputerLauncher(baseComputerLauncher)
                 .afterDisconnect(computer, taskListener);
-        verify(queue).schedule2(eq(task1), anyInt(), eq(Collections.<Action>emptyList()));
-        verify(queue).schedule2(eq(task2), anyInt(), eq(Collections.<Action>emptyList()));
+        verify(queue).schedule2(eq(task1), eq(0), eq(resubmitActions()));
+        verify(queue).schedule2(eq(task2), eq(0), eq(resubmitActions()));
         verifyZeroInteractions(queue);
     }
 
@@ -172,8 +175,35 @@ public class EC2FleetAutoResubmitComputerLauncherTest {
         when(executable1.getActions()).thenReturn(Arrays.asList(action1));
         new EC2FleetAutoResubmitComputerLauncher(baseComputerLauncher)
                 .afterDisconnect(computer, taskListener);
-        verify(queue).schedule2(eq(task1), anyInt(), eq(Arrays.asList(action1)));
+        verify(queue).schedule2(eq(task1), eq(0), eq(resubmitActions(action1)));
         verifyZeroInteractions(queue);
     }
 
+    @Test
+    public void taskCompleted_should_resubmit_task_with_configured_delay() {
+        when(cloud.getResubmitDelaySec()).thenReturn(15);
+        when(computer.getExecutors()).thenReturn(Arrays.asList(executor1));
+        new EC2FleetAutoResubmitComputerLauncher(baseComputerLauncher)
+                .afterDisconnect(computer, taskListener);
+        verify(queue).schedule2(eq(task1), eq(15), eq(resubmitActions()));
+        verifyZeroInteractions(queue);
+    }
+
+    @Test
+    public void taskCompleted_should_keep_nodes_where_task_was_interrupted_before() {
+        when(computer.getExecutors()).thenReturn(Arrays.asList(executor1));
+        when(executable1.getActions()).thenReturn(Arrays.<Action>asList(
+                action1, new EC2FleetResubmitAction(Collections.singleton("i-11"))));
+        new EC2FleetAutoResubmitComputerLauncher(baseComputerLauncher)
+                .afterDisconnect(computer, taskListener);
+        verify(queue).schedule2(eq(task1), eq(0), eq(Arrays.asList(
+                action1, new EC2FleetResubmitAction(new HashSet<>(Arrays.asList("i-11", "i-12"))))));
+    }
+
+    private static List<Action> resubmitActions(final Action... actions) {
+        final List<Action> result = new ArrayList<>(Arrays.asList(actions));
+        result.add(new EC2FleetResubmitAction(Collections.singleton("i-12")));
+        return result;
+    }
+
 }
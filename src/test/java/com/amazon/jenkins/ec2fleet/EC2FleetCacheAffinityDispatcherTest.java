@@ -0,0 +1,155 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Queue.Item.class, Queue.BuildableItem.class})
+public class EC2FleetCacheAffinityDispatcherTest {
+
+    private static final long NOW = 100000;
+
+    @Mock
+    private EC2FleetCloud cloud;
+
+    @Mock
+    private Queue.BuildableItem item;
+
+    @Mock
+    private Queue.Task task;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private final WarmNodeIndex index = new WarmNodeIndex();
+
+    private final EC2FleetCacheAffinityDispatcher dispatcher = new EC2FleetCacheAffinityDispatcher() {
+        @Override
+        long getNow() {
+            return NOW;
+        }
+
+        @Override
+        Node getNode(final String name) {
+            return nodes.get(name);
+        }
+    };
+
+    @Before
+    public void before() {
+        when(cloud.getCacheAffinityWaitSec()).thenReturn(30);
+        when(task.getOwnerTask()).thenReturn(task);
+        when(task.getFullDisplayName()).thenReturn("job");
+        Whitebox.setInternalState(item, "task", task);
+        when(item.getInQueueSince()).thenReturn(NOW - 1000);
+        when(cloud.getWarmNodes(anyString())).thenAnswer(new Answer<List<String>>() {
+            @Override
+            public List<String> answer(final InvocationOnMock invocation) {
+                return index.getNodes((String) invocation.getArgument(0));
+            }
+        });
+    }
+
+    @Test
+    public void canTake_shouldIgnoreNotFleetNodes() {
+        assertNull(dispatcher.canTake(mock(Node.class), item));
+    }
+
+    @Test
+    public void canTake_givenAffinityDisabledShouldTakeAnyNode() {
+        when(cloud.getCacheAffinityWaitSec()).thenReturn(0);
+        final Node cold = node("i-1");
+        warm(node("i-2"), "job");
+
+        assertNull(dispatcher.canTake(cold, item));
+    }
+
+    @Test
+    public void canTake_shouldBlockColdNodeIfWarmNodeCanTakeTask() {
+        final Node cold = node("i-1");
+        final Node warm = warm(node("i-2"), "job");
+
+        final CauseOfBlockage cause = dispatcher.canTake(cold, item);
+
+        assertEquals("Waiting for node with warm workspace i-2", cause.getShortDescription());
+        assertNull(dispatcher.canTake(warm, item));
+    }
+
+    @Test
+    public void canTake_shouldTakeAnyNodeAfterWait() {
+        when(item.getInQueueSince()).thenReturn(NOW - 30000);
+        final Node cold = node("i-1");
+        warm(node("i-2"), "job");
+
+        assertNull(dispatcher.canTake(cold, item));
+    }
+
+    @Test
+    public void canTake_shouldIgnoreWarmNodeWhichCannotTakeTask() {
+        final Node cold = node("i-1");
+        final Node warm = warm(node("i-2"), "job");
+        when(warm.canTake(item)).thenReturn(mock(CauseOfBlockage.class));
+
+        assertNull(dispatcher.canTake(cold, item));
+    }
+
+    @Test
+    public void canTake_shouldIgnoreWarmNodeWhichIsOffline() {
+        final Node cold = node("i-1");
+        final Node warm = warm(node("i-2"), "job");
+        when(warm.toComputer().isOffline()).thenReturn(true);
+
+        assertNull(dispatcher.canTake(cold, item));
+    }
+
+    @Test
+    public void canTake_shouldIgnoreIndexedNodeWhichIsRemoved() {
+        final Node cold = node("i-1");
+        warm(node("i-2"), "job");
+        nodes.remove("i-2");
+
+        assertNull(dispatcher.canTake(cold, item));
+    }
+
+    private Node node(final String name) {
+        final EC2FleetNodeComputer computer = mock(EC2FleetNodeComputer.class);
+        when(computer.isAcceptingTasks()).thenReturn(true);
+        when(computer.getWarmCache()).thenReturn(new WarmCache());
+
+        final EC2FleetNode node = mock(EC2FleetNode.class);
+        when(node.getNodeName()).thenReturn(name);
+        when(node.getCloud()).thenReturn(cloud);
+        when(node.toComputer()).thenReturn(computer);
+        nodes.put(name, node);
+        return node;
+    }
+
+    private Node warm(final Node node, final String... keys) {
+        final List<String> evicted = new ArrayList<>();
+        ((EC2FleetNodeComputer) node.toComputer()).getWarmCache().record(Arrays.asList(keys), evicted);
+        index.record(node.getNodeName(), Arrays.asList(keys), evicted);
+        return node;
+    }
+
+}
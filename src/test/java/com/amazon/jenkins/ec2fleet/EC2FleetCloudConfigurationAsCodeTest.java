@@ -41,6 +41,9 @@ public class EC2FleetCloudConfigurationAsCodeTest {
         assertEquals(cloud.getCloudStatusIntervalSec(), 10);
         assertEquals(cloud.isDisableTaskResubmit(), false);
         assertEquals(cloud.isNoDelayProvision(), false);
+        assertEquals(cloud.getMinSpareSize(), 0);
+        assertEquals(cloud.getPredictionLeadMinutes(), 0);
+        assertEquals(cloud.getScheduledCapacities().size(), 0);
     }
 
     @Test
@@ -70,6 +73,14 @@ public class EC2FleetCloudConfigurationAsCodeTest {
         assertEquals(cloud.isDisableTaskResubmit(), true);
         assertEquals(cloud.isNoDelayProvision(), true);
         assertEquals(cloud.getAwsCredentialsId(), "xx");
+        assertEquals(cloud.getMinSpareSize(), 2);
+        assertEquals(cloud.getPredictionLeadMinutes(), 30);
+        assertEquals(cloud.getScheduledCapacities().size(), 1);
+        ScheduledCapacity scheduledCapacity = cloud.getScheduledCapacities().get(0);
+        assertEquals(scheduledCapacity.getSchedule(), "0 8 * * 1");
+        assertEquals(scheduledCapacity.getDurationMinutes(), 120);
+        assertEquals(scheduledCapacity.getMinSize(), Integer.valueOf(20));
+        assertEquals(scheduledCapacity.getMaxSize(), Integer.valueOf(100));
 
         SSHConnector sshConnector = (SSHConnector) cloud.getComputerConnector();
         assertEquals(sshConnector.getSshHostKeyVerificationStrategy().getClass(), NonVerifyingKeyVerificationStrategy.class);
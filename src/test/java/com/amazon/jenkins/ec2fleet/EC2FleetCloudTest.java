@@ -19,11 +19,14 @@ import com.amazonaws.services.ec2.model.SpotFleetRequestConfigData;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import hudson.ExtensionList;
+import hudson.model.Computer;
 import hudson.model.LabelFinder;
 import hudson.model.Node;
+import hudson.model.Queue;
 import hudson.model.labels.LabelAtom;
 import hudson.slaves.ComputerConnector;
 import hudson.slaves.NodeProvisioner;
+import hudson.slaves.SlaveComputer;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
@@ -46,11 +49,14 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -58,6 +64,8 @@ import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyBoolean;
@@ -70,6 +78,8 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.nullable;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -77,7 +87,7 @@ import static org.mockito.Mockito.when;
 @SuppressWarnings("unchecked")
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({Jenkins.class, EC2FleetCloud.class, EC2FleetCloud.DescriptorImpl.class,
-        LabelFinder.class, FleetStateStats.class, EC2Fleets.class})
+        LabelFinder.class, FleetStateStats.class, EC2Fleets.class, Computer.class, SlaveComputer.class})
 public class EC2FleetCloudTest {
 
     private SpotFleetRequestConfig spotFleetRequestConfig1;
@@ -561,6 +571,519 @@ public class EC2FleetCloudTest {
         verify(ec2Fleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(2), eq(0), eq(10));
     }
 
+    @Test
+    public void update_givenMinSpareSizeShouldIncreaseTargetCapacityToKeepIdleExecutors() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 0, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setMinSpareSize(3);
+
+        // when
+        FleetStateStats stats = fleetCloud.update();
+
+        // then
+        verify(ec2Fleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(3), eq(0), eq(10));
+        assertEquals(3, stats.getNumDesired());
+    }
+
+    @Test
+    public void update_givenMinSpareSizeShouldCountRequestedInstancesAsIdle() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 0, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setMinSpareSize(2);
+
+        fleetCloud.setStats(new FleetStateStats("", 0, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        fleetCloud.provision(null, 2);
+
+        // when
+        fleetCloud.update();
+
+        // then
+        verify(ec2Fleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(2), eq(0), eq(10));
+    }
+
+    @Test
+    public void update_givenMinSpareSizeShouldNotIncreaseMoreThenMax() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 0, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 2, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setMinSpareSize(5);
+
+        // when
+        fleetCloud.update();
+
+        // then
+        verify(ec2Fleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(2), eq(0), eq(2));
+    }
+
+    @Test
+    public void update_givenActiveScheduledCapacityShouldIncreaseTargetCapacityToScheduledMinSize() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 1, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        // always active
+        fleetCloud.setScheduledCapacities(Collections.singletonList(
+                new ScheduledCapacity("* * * * *", 1, 4, 20)));
+
+        // when
+        FleetStateStats stats = fleetCloud.update();
+
+        // then
+        verify(ec2Fleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(4), eq(4), eq(20));
+        assertEquals(4, stats.getNumDesired());
+        assertEquals(4, fleetCloud.getEffectiveMinSize());
+        assertEquals(20, fleetCloud.getEffectiveMaxSize());
+    }
+
+    @Test
+    public void updateScheduledCapacity_shouldUseConfiguredSizesOutsideOfWindows() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 1, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setScheduledCapacities(Collections.singletonList(
+                new ScheduledCapacity("0 8 * * *", 60, 4, 20)));
+
+        fleetCloud.updateScheduledCapacity(new GregorianCalendar(2020, 2, 2, 12, 0));
+
+        assertNull(fleetCloud.getScheduledMinSize());
+        assertNull(fleetCloud.getScheduledMaxSize());
+        assertEquals(1, fleetCloud.getEffectiveMinSize());
+        assertEquals(10, fleetCloud.getEffectiveMaxSize());
+    }
+
+    @Test
+    public void updateScheduledCapacity_givenOverlappingWindowsShouldUseMaxOfMinAndMinOfMax() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 1, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setScheduledCapacities(Arrays.asList(
+                new ScheduledCapacity("0 8 * * *", 60, 4, 20),
+                new ScheduledCapacity("30 8 * * *", 60, 6, null),
+                new ScheduledCapacity("30 8 * * *", 60, null, 15)));
+
+        fleetCloud.updateScheduledCapacity(new GregorianCalendar(2020, 2, 2, 8, 40));
+
+        assertEquals(Integer.valueOf(6), fleetCloud.getScheduledMinSize());
+        assertEquals(Integer.valueOf(15), fleetCloud.getScheduledMaxSize());
+    }
+
+    @Test
+    public void hasExcessCapacity_givenScheduledMaxSizeLessThanCurrentShouldBeTrue() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 5, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+        assertFalse(fleetCloud.hasExcessCapacity());
+
+        fleetCloud.setScheduledCapacities(Collections.singletonList(
+                new ScheduledCapacity("* * * * *", 1, null, 2)));
+        fleetCloud.updateScheduledCapacity(Calendar.getInstance());
+
+        assertTrue(fleetCloud.hasExcessCapacity());
+    }
+
+    @Test
+    public void reserve_shouldRequestCapacityForMissingExecutorsImmediately() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 0, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        fleetCloud.setStats(new FleetStateStats("", 0, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        // when
+        int reserved = fleetCloud.reserve(3, TimeUnit.MINUTES.toMillis(5));
+
+        // then
+        assertEquals(3, reserved);
+        assertEquals(3, fleetCloud.getReservedExecutors());
+        verify(ec2Fleet, timeout(5000)).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(3), eq(0), eq(10));
+    }
+
+    @Test
+    public void reserve_shouldNotReserveMoreThenMax() {
+        // given
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 2, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        fleetCloud.setStats(new FleetStateStats("", 2, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        // when
+        int reserved = fleetCloud.reserve(5, TimeUnit.MINUTES.toMillis(5));
+
+        // then requested but not registered instances are counted as available
+        assertEquals(2, reserved);
+        assertEquals(0, fleetCloud.getPlannedNodesCache().size());
+    }
+
+    @Test
+    public void reserve_givenNoUpdateYetShouldSkip() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        assertEquals(0, fleetCloud.reserve(5, TimeUnit.MINUTES.toMillis(5)));
+        assertEquals(0, fleetCloud.getReservedExecutors());
+    }
+
+    @Test
+    public void getReservedExecutors_shouldDropExpiredReservations() throws InterruptedException {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 10, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        fleetCloud.reserve(2, 1);
+        fleetCloud.reserve(3, TimeUnit.MINUTES.toMillis(5));
+        Thread.sleep(10);
+
+        assertEquals(3, fleetCloud.getReservedExecutors());
+    }
+
+    @Test
+    public void checkRetention_shouldReleaseLongestIdleNodeFirstUpToScaleInMaxInstances() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 1, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setScaleInMaxInstances(1);
+        fleetCloud.setStats(new FleetStateStats("", 2, FleetStateStats.State.active(),
+                ImmutableSet.of("i-0", "i-1"), Collections.<String, Double>emptyMap()));
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer idle = mockFleetComputer(nodes, fleetCloud, "i-0", 10);
+        final EC2FleetNodeComputer longestIdle = mockFleetComputer(nodes, fleetCloud, "i-1", 11);
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        fleetCloud.checkRetention(System.currentTimeMillis());
+
+        assertEquals(ImmutableSet.of("i-1"), fleetCloud.getInstanceIdsToTerminate());
+        verify(longestIdle).setAcceptingTasks(false);
+        verify(idle, never()).setAcceptingTasks(anyBoolean());
+    }
+
+    @Test
+    public void consolidate_shouldDrainLeastUtilizedNodeIfOtherNodesCanTakeItsLoad() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 4, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setConsolidationThreshold(50);
+
+        final List<Node> nodes = new ArrayList<>();
+        final List<EC2FleetNodeComputer> computers = new ArrayList<>();
+        // busy executors of nodes with 4 executors each
+        for (final int busy : new int[]{1, 3, 2}) {
+            computers.add(mockPartiallyBusyComputer(nodes, fleetCloud, "i-" + busy, busy, 4));
+        }
+        when(jenkins.getNodes()).thenReturn(nodes);
+        when(jenkins.getNode("i-1")).thenReturn(nodes.get(0));
+
+        fleetCloud.consolidate(Collections.<String>emptySet());
+
+        verify(computers.get(0)).drain("consolidation", null);
+        verify(computers.get(1), never()).drain(anyString(), nullable(Long.class));
+        verify(computers.get(2), never()).drain(anyString(), nullable(Long.class));
+    }
+
+    @Test
+    public void consolidate_shouldNotDrainNodeIfOtherNodesDoNotHaveIdleExecutorsForItsLoad() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 4, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setConsolidationThreshold(50);
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer computer = mockPartiallyBusyComputer(nodes, fleetCloud, "i-1", 1, 4);
+        mockPartiallyBusyComputer(nodes, fleetCloud, "i-4", 4, 4);
+        when(jenkins.getNodes()).thenReturn(nodes);
+        when(jenkins.getNode("i-1")).thenReturn(nodes.get(0));
+
+        fleetCloud.consolidate(Collections.<String>emptySet());
+
+        verify(computer, never()).drain(anyString(), nullable(Long.class));
+    }
+
+    @Test
+    public void getPackingOrder_shouldReturnNodesWithIdleExecutorsBusiestFirstTillInvalidated() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 4, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        final List<Node> nodes = new ArrayList<>();
+        for (final int busy : new int[]{1, 4, 3, 2}) {
+            mockPartiallyBusyComputer(nodes, fleetCloud, "i-" + busy, busy, 4);
+        }
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        final List<Node> packingOrder = fleetCloud.getPackingOrder();
+        assertEquals(Arrays.asList(nodes.get(2), nodes.get(3), nodes.get(0)), packingOrder);
+
+        when(jenkins.getNodes()).thenReturn(Collections.<Node>emptyList());
+        assertSame(packingOrder, fleetCloud.getPackingOrder());
+
+        fleetCloud.invalidatePackingOrder();
+        assertEquals(Collections.<Node>emptyList(), fleetCloud.getPackingOrder());
+    }
+
+    @Test
+    public void checkRetention_shouldTerminateIdleNodesInBatchKeepingSpareCapacity() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 1, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setMinSpareSize(1);
+        fleetCloud.setStats(new FleetStateStats("", 3, FleetStateStats.State.active(),
+                ImmutableSet.of("i-0", "i-1", "i-2"), Collections.<String, Double>emptyMap()));
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer idle = mockFleetComputer(nodes, fleetCloud, "i-0", 10);
+        final EC2FleetNodeComputer longestIdle = mockFleetComputer(nodes, fleetCloud, "i-1", 11);
+        final EC2FleetNodeComputer busy = mockFleetComputer(nodes, fleetCloud, "i-2", -1);
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        fleetCloud.checkRetention(System.currentTimeMillis());
+
+        // i-0 is kept as spare capacity
+        assertEquals(ImmutableSet.of("i-1"), fleetCloud.getInstanceIdsToTerminate());
+        verify(longestIdle).setAcceptingTasks(false);
+        verify(idle, never()).setAcceptingTasks(anyBoolean());
+        verify(busy, never()).setAcceptingTasks(anyBoolean());
+    }
+
+    @Test
+    public void checkRetention_shouldReleaseExcessCapacityFromIdleNodesFirstAndDrainBusyNodes() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 1, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 3, FleetStateStats.State.active(),
+                ImmutableSet.of("i-0", "i-1", "i-2"), Collections.<String, Double>emptyMap()));
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer busy = mockFleetComputer(nodes, fleetCloud, "i-0", -1);
+        final EC2FleetNodeComputer idle = mockFleetComputer(nodes, fleetCloud, "i-1", 0);
+        final EC2FleetNodeComputer otherBusy = mockFleetComputer(nodes, fleetCloud, "i-2", -1);
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        fleetCloud.checkRetention(System.currentTimeMillis());
+
+        assertEquals(ImmutableSet.of("i-1"), fleetCloud.getInstanceIdsToTerminate());
+        verify(idle).setAcceptingTasks(false);
+        verify(busy).drain("excess capacity", null);
+        verify(otherBusy, never()).drain(anyString(), nullable(Long.class));
+    }
+
+    @Test
+    public void checkRetention_shouldTerminateDrainedNode() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 1, FleetStateStats.State.active(),
+                ImmutableSet.of("i-0"), Collections.<String, Double>emptyMap()));
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer drained = mockFleetComputer(nodes, fleetCloud, "i-0", 0);
+        when(drained.isDraining()).thenReturn(true);
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        fleetCloud.checkRetention(System.currentTimeMillis());
+
+        assertEquals(ImmutableSet.of("i-0"), fleetCloud.getInstanceIdsToTerminate());
+        verify(drained, never()).cancelDrain();
+    }
+
+    @Test
+    public void checkRetention_shouldCancelDrainIfNodeCannotBeTerminated() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 1, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 1, FleetStateStats.State.active(),
+                ImmutableSet.of("i-0"), Collections.<String, Double>emptyMap()));
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer drained = mockFleetComputer(nodes, fleetCloud, "i-0", 0);
+        when(drained.isDraining()).thenReturn(true);
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        fleetCloud.checkRetention(System.currentTimeMillis());
+
+        assertEquals(Collections.<String>emptySet(), fleetCloud.getInstanceIdsToTerminate());
+        verify(drained).cancelDrain();
+    }
+
+    @Test
+    public void checkRetention_shouldKeepQuarantinedNodeDrainedIfItCannotBeTerminated() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 1, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 1, FleetStateStats.State.active(),
+                ImmutableSet.of("i-0"), Collections.<String, Double>emptyMap()));
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer quarantined = mockFleetComputer(nodes, fleetCloud, "i-0", 0);
+        when(quarantined.isDraining()).thenReturn(true);
+        quarantined.getHealth().quarantine("slow");
+        when(jenkins.getNodes()).thenReturn(nodes);
+
+        fleetCloud.checkRetention(System.currentTimeMillis());
+
+        assertEquals(Collections.<String>emptySet(), fleetCloud.getInstanceIdsToTerminate());
+        verify(quarantined, never()).cancelDrain();
+    }
+
+    @Test
+    public void recordBuild_shouldQuarantineAndReplaceSlowNode() {
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 2, FleetStateStats.State.active(),
+                        ImmutableSet.of("i-0", "i-1"), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        fleetCloud.setQuarantineScore(40);
+
+        final List<Node> nodes = new ArrayList<>();
+        final EC2FleetNodeComputer healthy = mockFleetComputer(nodes, fleetCloud, "i-0", -1);
+        final EC2FleetNodeComputer slow = mockFleetComputer(nodes, fleetCloud, "i-1", -1);
+        when(jenkins.getNodes()).thenReturn(nodes);
+        when(jenkins.getNode("i-1")).thenReturn(nodes.get(1));
+        final Queue.Task task = mock(Queue.Task.class);
+        when(task.getOwnerTask()).thenReturn(task);
+        when(task.getFullDisplayName()).thenReturn("job");
+
+        for (int i = 0; i < 3; i++) fleetCloud.recordBuild(healthy, task, 100, false);
+        for (int i = 0; i < 3; i++) fleetCloud.recordBuild(slow, task, 400, false);
+
+        assertFalse(healthy.getHealth().isQuarantined());
+        assertEquals("builds 4.0x slower than job median", slow.getHealth().getQuarantineReason());
+        verify(slow).drain("quarantine, builds 4.0x slower than job median", null);
+        verify(healthy, never()).drain(anyString(), nullable(Long.class));
+        // replacement is requested by immediate update
+        verify(ec2Fleet, timeout(5000)).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(3), eq(0), eq(10));
+    }
+
+    @Test
+    public void recordBuild_givenQuarantineDisabledShouldNotScoreNode() {
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        final EC2FleetNodeComputer computer = mockFleetComputer(new ArrayList<Node>(), fleetCloud, "i-0", -1);
+        fleetCloud.recordBuild(computer, mock(Queue.Task.class), 100, true);
+
+        assertNull(computer.getHealth().getFailureRate());
+        assertNull(computer.getHealth().getScore());
+    }
+
+    @Test
+    public void provision_givenNoDelayProvisionShouldModifyFleetWithoutWaitingForUpdate() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 0, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, true);
+
+        fleetCloud.setStats(new FleetStateStats("", 0, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        // when
+        fleetCloud.provision(null, 2);
+
+        // then
+        verify(ec2Fleet, timeout(5000)).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(2), eq(0), eq(10));
+    }
+
     @Test
     public void update_shouldResetTerminateAndProvision() {
         // given
@@ -681,6 +1204,150 @@ public class EC2FleetCloudTest {
         verify(ec2Api).terminateInstances(amazonEC2, ImmutableSet.of("i-1", "i-2"));
     }
 
+    @Test
+    public void update_givenAutoScalingGroupShouldTerminateInstancesWithoutModifyIfNothingToAdd() {
+        // given
+        final AutoScalingGroupFleet autoScalingGroupFleet = mock(AutoScalingGroupFleet.class);
+        when(EC2Fleets.get(anyString())).thenReturn(autoScalingGroupFleet);
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(autoScalingGroupFleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 4, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        fleetCloud.setStats(new FleetStateStats("", 4, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        fleetCloud.scheduleToTerminate("i-1");
+        fleetCloud.scheduleToTerminate("i-2");
+
+        // when
+        fleetCloud.update();
+
+        // then
+        verify(autoScalingGroupFleet).terminateInstances(
+                anyString(), anyString(), anyString(), eq(ImmutableSet.of("i-1", "i-2")), eq(true));
+        verify(autoScalingGroupFleet, never()).modify(
+                anyString(), anyString(), anyString(), anyString(), anyInt(), anyInt(), anyInt());
+        verify(ec2Api, never()).terminateInstances(any(AmazonEC2.class), any(Collection.class));
+        assertEquals(0, fleetCloud.getInstanceIdsToTerminate().size());
+    }
+
+    @Test
+    public void update_givenAutoScalingGroupShouldModifyAfterTerminationIfNeedToAdd() {
+        // given
+        final AutoScalingGroupFleet autoScalingGroupFleet = mock(AutoScalingGroupFleet.class);
+        when(EC2Fleets.get(anyString())).thenReturn(autoScalingGroupFleet);
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(autoScalingGroupFleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 4, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        fleetCloud.setStats(new FleetStateStats("", 4, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        fleetCloud.scheduleToTerminate("i-1");
+        fleetCloud.provision(null, 3);
+
+        // when
+        fleetCloud.update();
+
+        // then
+        verify(autoScalingGroupFleet).terminateInstances(
+                anyString(), anyString(), anyString(), eq(ImmutableSet.of("i-1")), eq(true));
+        verify(autoScalingGroupFleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(6), eq(0), eq(10));
+    }
+
+    @Test
+    public void update_givenAutoScalingGroupShouldModifyWhenScheduledCapacityEnds() {
+        // given
+        final AutoScalingGroupFleet autoScalingGroupFleet = mock(AutoScalingGroupFleet.class);
+        when(EC2Fleets.get(anyString())).thenReturn(autoScalingGroupFleet);
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(autoScalingGroupFleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 4, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+        // always active
+        fleetCloud.setScheduledCapacities(Collections.singletonList(
+                new ScheduledCapacity("* * * * *", 1, 2, 4)));
+
+        // when
+        fleetCloud.update();
+        fleetCloud.setScheduledCapacities(Collections.<ScheduledCapacity>emptyList());
+        fleetCloud.update();
+        fleetCloud.update();
+
+        // then
+        verify(autoScalingGroupFleet).modify(
+                anyString(), anyString(), anyString(), eq("fleetId"), anyInt(), eq(2), eq(4));
+        verify(autoScalingGroupFleet).modify(
+                anyString(), anyString(), anyString(), eq("fleetId"), anyInt(), eq(0), eq(10));
+        verify(autoScalingGroupFleet, times(2)).modify(
+                anyString(), anyString(), anyString(), anyString(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void update_shouldRetryFailedTerminationOnNextUpdateWithoutDecreasingCapacityTwice() {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 4, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()))
+                .thenReturn(new FleetStateStats("fleetId", 2, FleetStateStats.State.active(),
+                        Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        when(ec2Api.terminateInstances(amazonEC2, ImmutableSet.of("i-1", "i-2")))
+                .thenReturn(ImmutableSet.of("i-2"));
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, true,
+                false, "-1", false, 0,
+                0, false, 10, false);
+
+        fleetCloud.setStats(new FleetStateStats("", 4, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), Collections.<String, Double>emptyMap()));
+
+        fleetCloud.scheduleToTerminate("i-1");
+        fleetCloud.scheduleToTerminate("i-2");
+
+        // when
+        fleetCloud.update();
+
+        // then
+        verify(ec2Fleet).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(2), eq(0), eq(10));
+        assertEquals(ImmutableSet.of("i-2"), fleetCloud.getInstanceIdsToTerminate());
+
+        // when
+        fleetCloud.update();
+
+        // then
+        verify(ec2Fleet, times(2)).modify(anyString(), anyString(), anyString(), eq("fleetId"), eq(2), eq(0), eq(10));
+        verify(ec2Api).terminateInstances(amazonEC2, ImmutableSet.of("i-2"));
+        assertEquals(Collections.<String>emptySet(), fleetCloud.getInstanceIdsToTerminate());
+    }
+
     @Test
     public void update_shouldAddNodeIfAnyNewDescribed() throws IOException {
         // given
@@ -1180,6 +1847,73 @@ public class EC2FleetCloudTest {
         assertEquals(2, actualFleetNode.getNumExecutors());
     }
 
+    @Test
+    public void provision_shouldPlanNodesByAverageWeight_whenWeightPresentAndEnabled() {
+        // given
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, null, false,
+                false, 0, 0, 10, 1, false,
+                true, "-1", false,
+                0, 0, true, 10, false);
+
+        fleetCloud.setStats(new FleetStateStats("", 0, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), ImmutableMap.of("t", 1.0, "big", 3.0)));
+
+        // when
+        Collection<NodeProvisioner.PlannedNode> r = fleetCloud.provision(null, 4);
+
+        // then
+        assertEquals(4, fleetCloud.getToAdd());
+        assertEquals(2, r.size());
+        for (NodeProvisioner.PlannedNode plannedNode : r) assertEquals(2, plannedNode.numExecutors);
+    }
+
+    @Test
+    public void update_shouldRemoveCoveredPlannedNodes_whenInstanceHasMoreExecutorsThanPlanned() throws Exception {
+        // given
+        when(ec2Api.connect(any(String.class), any(String.class), anyString())).thenReturn(amazonEC2);
+
+        final Map<String, Double> weights = ImmutableMap.of("t", 1.0, "s", 1.0, "big", 4.0);
+        final Instance instance = new Instance()
+                .withPublicIpAddress("p-ip")
+                .withInstanceType("big")
+                .withInstanceId("i-0");
+        when(ec2Api.describeInstances(any(AmazonEC2.class), any(Set.class))).thenReturn(
+                new HashMap<>(ImmutableMap.of("i-0", instance)));
+
+        PowerMockito.when(ec2Fleet.getState(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(new FleetStateStats("fleetId", 0, FleetStateStats.State.active(),
+                        ImmutableSet.of("i-0"), weights));
+
+        mockNodeCreatingPart();
+
+        EC2FleetCloud fleetCloud = new EC2FleetCloud(null, null, "credId", null, "region",
+                "", "fleetId", "", null, PowerMockito.mock(ComputerConnector.class), false,
+                false, 0, 0, 10, 1, false,
+                true, "-1", false,
+                0, 0, true, 10, false);
+        fleetCloud.setStats(new FleetStateStats("", 0, FleetStateStats.State.active(),
+                Collections.<String>emptySet(), weights));
+
+        final Collection<NodeProvisioner.PlannedNode> plannedNodes = fleetCloud.provision(null, 4);
+        assertEquals(2, plannedNodes.size());
+
+        ArgumentCaptor<Node> nodeCaptor = ArgumentCaptor.forClass(Node.class);
+        doNothing().when(jenkins).addNode(nodeCaptor.capture());
+
+        // when
+        fleetCloud.update();
+
+        // then
+        assertEquals(4, nodeCaptor.getValue().getNumExecutors());
+        assertEquals(0, fleetCloud.getPlannedNodesCache().size());
+        int removed = 0;
+        for (NodeProvisioner.PlannedNode plannedNode : plannedNodes) {
+            if (plannedNode.future.isDone() && plannedNode.future.get() == null) removed++;
+        }
+        assertEquals(1, removed);
+    }
+
     @Test
     public void update_shouldAddNodeWithNumExecutors_whenWeightPresentAndEnabledButForDiffType() throws IOException {
         // given
@@ -1836,4 +2570,45 @@ public class EC2FleetCloudTest {
         when(jenkins.getLabelAtom(anyString())).thenReturn(new LabelAtom("mock-label"));
     }
 
+    /**
+     * @param idleMinutes minutes computer is idle, negative if computer is busy
+     */
+    private static EC2FleetNodeComputer mockPartiallyBusyComputer(final List<Node> nodes, final EC2FleetCloud cloud,
+                                                                  final String name, final int busy, final int executors) {
+        final EC2FleetNodeComputer computer = mock(EC2FleetNodeComputer.class);
+        when(computer.getName()).thenReturn(name);
+        when(computer.isAcceptingTasks()).thenReturn(true);
+        PowerMockito.when(computer.countBusy()).thenReturn(busy);
+        PowerMockito.when(computer.countIdle()).thenReturn(executors - busy);
+        final EC2FleetNode node = mock(EC2FleetNode.class);
+        when(node.getCloud()).thenReturn(cloud);
+        when(node.getNodeName()).thenReturn(name);
+        when(node.getNumExecutors()).thenReturn(executors);
+        when(node.toComputer()).thenReturn(computer);
+        nodes.add(node);
+        return computer;
+    }
+
+    private static EC2FleetNodeComputer mockFleetComputer(final List<Node> nodes, final EC2FleetCloud cloud,
+                                                          final String name, final int idleMinutes) {
+        final EC2FleetNodeComputer computer = mock(EC2FleetNodeComputer.class);
+        final boolean idle = idleMinutes >= 0;
+        when(computer.getName()).thenReturn(name);
+        when(computer.isIdle()).thenReturn(idle);
+        when(computer.isAcceptingTasks()).thenReturn(true);
+        when(computer.getNumExecutors()).thenReturn(1);
+        when(computer.getHealth()).thenReturn(new NodeHealth());
+        PowerMockito.when(computer.countIdle()).thenReturn(idle ? 1 : 0);
+        PowerMockito.when(computer.countBusy()).thenReturn(idle ? 0 : 1);
+        when(computer.getIdleStartMilliseconds()).thenReturn(
+                System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(Math.max(idleMinutes, 0)));
+        final EC2FleetNode node = mock(EC2FleetNode.class);
+        when(node.getCloud()).thenReturn(cloud);
+        when(node.getNodeName()).thenReturn(name);
+        when(node.getNumExecutors()).thenReturn(1);
+        when(node.toComputer()).thenReturn(computer);
+        nodes.add(node);
+        return computer;
+    }
+
 }
@@ -0,0 +1,139 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Computer.class, Queue.BuildableItem.class})
+public class EC2FleetConsolidationDispatcherTest {
+
+    @Mock
+    private EC2FleetCloud cloud;
+
+    @Mock
+    private Queue.BuildableItem item;
+
+    private final List<Node> packingOrder = new ArrayList<>();
+
+    private final EC2FleetConsolidationDispatcher dispatcher = new EC2FleetConsolidationDispatcher();
+
+    @Before
+    public void before() {
+        when(cloud.getConsolidationThreshold()).thenReturn(50);
+        when(cloud.getPackingOrder()).thenReturn(packingOrder);
+    }
+
+    @Test
+    public void canTake_shouldIgnoreNotFleetNodes() {
+        assertNull(dispatcher.canTake(mock(Node.class), item));
+    }
+
+    @Test
+    public void canTake_givenConsolidationDisabledShouldTakeAnyNode() {
+        when(cloud.getConsolidationThreshold()).thenReturn(0);
+        final Node idle = node("i-1", cloud, 0, 4);
+        node("i-2", cloud, 2, 2);
+
+        assertNull(dispatcher.canTake(idle, item));
+    }
+
+    @Test
+    public void canTake_shouldBlockNodeIfBusierNodeCanTakeTask() {
+        final Node idle = node("i-1", cloud, 0, 4);
+        final Node busy = node("i-2", cloud, 2, 2);
+
+        final CauseOfBlockage cause = dispatcher.canTake(idle, item);
+
+        assertEquals("Packing tasks onto busier node i-2", cause.getShortDescription());
+        assertNull(dispatcher.canTake(busy, item));
+    }
+
+    @Test
+    public void canTake_shouldIgnoreBusierNodeWithoutIdleExecutors() {
+        final Node idle = node("i-1", cloud, 0, 4);
+        node("i-2", cloud, 4, 0);
+
+        assertNull(dispatcher.canTake(idle, item));
+    }
+
+    @Test
+    public void canTake_shouldIgnoreBusierNodeWhichDoesNotAcceptTasks() {
+        final Node idle = node("i-1", cloud, 0, 4);
+        final Node busy = node("i-2", cloud, 2, 2);
+        when(busy.toComputer().isAcceptingTasks()).thenReturn(false);
+
+        assertNull(dispatcher.canTake(idle, item));
+    }
+
+    @Test
+    public void canTake_shouldIgnoreBusierNodeWhichCannotTakeTask() {
+        final Node idle = node("i-1", cloud, 0, 4);
+        final Node busy = node("i-2", cloud, 2, 2);
+        when(busy.canTake(item)).thenReturn(mock(CauseOfBlockage.class));
+
+        assertNull(dispatcher.canTake(idle, item));
+    }
+
+    @Test
+    public void canTake_shouldNotCheckNodesWhichAreNotBusier() {
+        final Node busy = node("i-1", cloud, 2, 2);
+        final Node idle = node("i-2", cloud, 0, 4);
+
+        assertNull(dispatcher.canTake(busy, item));
+
+        verify(idle, never()).canTake(item);
+    }
+
+    @Test
+    public void canTake_shouldIgnoreNodesOfOtherClouds() {
+        final Node idle = node("i-1", cloud, 0, 4);
+        node("i-2", mock(EC2FleetCloud.class), 2, 2);
+
+        assertNull(dispatcher.canTake(idle, item));
+    }
+
+    private Node node(final String name, final EC2FleetCloud cloud, final int busy, final int idle) {
+        final Computer computer = PowerMockito.mock(Computer.class);
+        PowerMockito.when(computer.countBusy()).thenReturn(busy);
+        PowerMockito.when(computer.countIdle()).thenReturn(idle);
+        when(computer.isAcceptingTasks()).thenReturn(true);
+
+        final EC2FleetNode node = mock(EC2FleetNode.class);
+        when(node.getNodeName()).thenReturn(name);
+        when(node.getCloud()).thenReturn(cloud);
+        when(node.toComputer()).thenReturn(computer);
+        if (cloud == this.cloud) {
+            packingOrder.add(node);
+            // busiest first as cloud builds it
+            Collections.sort(packingOrder, new Comparator<Node>() {
+                @Override
+                public int compare(final Node o1, final Node o2) {
+                    return Integer.compare(o2.toComputer().countBusy(), o1.toComputer().countBusy());
+                }
+            });
+        }
+        return node;
+    }
+
+}
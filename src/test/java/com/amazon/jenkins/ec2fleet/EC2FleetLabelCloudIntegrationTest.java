@@ -2,6 +2,7 @@ package com.amazon.jenkins.ec2fleet;
 
 import com.amazonaws.services.cloudformation.AmazonCloudFormation;
 import com.amazonaws.services.cloudformation.model.DeleteStackRequest;
+import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.InstanceStateName;
 import hudson.model.FreeStyleProject;
 import hudson.model.labels.LabelAtom;
@@ -9,6 +10,7 @@ import hudson.model.queue.QueueTaskFuture;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 
 import java.util.Collections;
@@ -16,6 +18,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 
 public class EC2FleetLabelCloudIntegrationTest extends IntegrationTest {
 
@@ -94,4 +97,45 @@ public class EC2FleetLabelCloudIntegrationTest extends IntegrationTest {
         cancelTasks(rs);
     }
 
+    @Test
+    public void should_retry_termination_of_instances_which_failed_to_terminate() throws Exception {
+        mockEc2FleetApiToEc2SpotFleet(InstanceStateName.Running);
+        mockCloudFormationApi();
+        final EC2Api ec2Api = Registry.getEc2Api();
+
+        EC2FleetLabelCloud cloud = new EC2FleetLabelCloud("FleetLabel", null, "credId", "region",
+                null, null, new LocalComputerConnector(j), false, false,
+                0, 0, 0, 1, false,
+                false, 0, 0,
+                2, false, "test1");
+        j.jenkins.clouds.add(cloud);
+
+        final String labelString = "FleetLabel_maxSize=1";
+        final List<QueueTaskFuture> rs = enqueTask(1, labelString);
+
+        tryUntil(new Runnable() {
+            @Override
+            public void run() {
+                triggerSuggestReviewNow(labelString);
+                assertTasksDone(rs);
+            }
+        }, TimeUnit.MINUTES.toMillis(4));
+
+        // first termination fails
+        final String instanceId = j.jenkins.getNodes().get(0).getNodeName();
+        Mockito.doReturn(Collections.singleton(instanceId)).doCallRealMethod()
+                .when(ec2Api).terminateInstances(any(AmazonEC2.class), ArgumentMatchers.<String>anyCollection());
+        Assert.assertTrue(cloud.scheduleToTerminate(instanceId));
+
+        tryUntil(new Runnable() {
+            @Override
+            public void run() {
+                Mockito.verify(ec2Api, Mockito.times(2)).terminateInstances(
+                        any(AmazonEC2.class), eq(Collections.singletonList(instanceId)));
+            }
+        }, TimeUnit.MINUTES.toMillis(2));
+
+        cancelTasks(rs);
+    }
+
 }
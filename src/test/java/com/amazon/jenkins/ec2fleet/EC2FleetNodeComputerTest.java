@@ -12,7 +12,10 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -60,4 +63,43 @@ public class EC2FleetNodeComputerTest {
         Assert.assertEquals("a n", computer.getDisplayName());
     }
 
+    @Test
+    public void drain_should_stop_accepting_tasks_once() {
+        EC2FleetNodeComputer computer = spy(new EC2FleetNodeComputer(slave, "n", cloud));
+
+        Assert.assertTrue(computer.drain("test", 10L));
+        Assert.assertFalse(computer.drain("other", null));
+
+        Assert.assertTrue(computer.isDraining());
+        Assert.assertEquals("test", computer.getDrainReason());
+        Assert.assertEquals(Long.valueOf(10), computer.getDrainDeadline());
+        verify(computer, times(1)).setAcceptingTasks(false);
+    }
+
+    @Test
+    public void cancelDrain_should_accept_tasks_again() {
+        EC2FleetNodeComputer computer = spy(new EC2FleetNodeComputer(slave, "n", cloud));
+        computer.drain("test", null);
+
+        computer.cancelDrain();
+
+        Assert.assertFalse(computer.isDraining());
+        Assert.assertNull(computer.getDrainDeadline());
+        verify(computer).setAcceptingTasks(true);
+    }
+
+    @Test
+    public void cancelDrain_should_not_accept_tasks_if_node_did_not_accept_them_before_drain() {
+        EC2FleetNodeComputer computer = spy(new EC2FleetNodeComputer(slave, "n", cloud));
+        // switched off by max total uses
+        computer.setAcceptingTasks(false);
+        computer.drain("excess capacity", null);
+
+        computer.cancelDrain();
+
+        Assert.assertFalse(computer.isDraining());
+        Assert.assertFalse(computer.isAcceptingTasks());
+        verify(computer, never()).setAcceptingTasks(true);
+    }
+
 }
@@ -2,7 +2,10 @@ package com.amazon.jenkins.ec2fleet;
 
 import com.google.common.util.concurrent.SettableFuture;
 import hudson.model.Computer;
+import hudson.model.Label;
 import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.slaves.NodeProvisioner;
 import jenkins.model.Jenkins;
 import org.junit.Assert;
 import org.junit.Before;
@@ -12,12 +15,18 @@ import org.mockito.Mock;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -25,7 +34,7 @@ import static org.mockito.Mockito.when;
 
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({EC2FleetOnlineChecker.class, EC2FleetNode.class, Jenkins.class, Computer.class})
+@PrepareForTest({EC2FleetOnlineChecker.class, EC2FleetNode.class, Jenkins.class, Computer.class, Label.class})
 public class EC2FleetOnlineCheckerTest {
 
     private SettableFuture<Node> future = SettableFuture.create();
@@ -135,4 +144,37 @@ public class EC2FleetOnlineCheckerTest {
         verify(computer, times(1)).isOnline();
     }
 
+    @Test
+    public void shouldScheduleQueueMaintenanceWhenResolved() throws InterruptedException, ExecutionException {
+        final Queue queue = mock(Queue.class);
+        when(jenkins.getQueue()).thenReturn(queue);
+        PowerMockito.when(computer.isOnline()).thenReturn(true);
+
+        EC2FleetOnlineChecker.start(node, future, 100, 10);
+
+        Assert.assertSame(node, future.get());
+        verify(queue, timeout(5000)).scheduleMaintenance();
+    }
+
+    @Test
+    public void shouldReviewEveryLabelWhichNodeMatchesWhenResolved() throws InterruptedException, ExecutionException {
+        final Label linuxAndDocker = label();
+        final Label windows = label();
+        when(linuxAndDocker.contains(node)).thenReturn(true);
+        when(jenkins.getLabels()).thenReturn(new HashSet<>(Arrays.asList(linuxAndDocker, windows)));
+        PowerMockito.when(computer.isOnline()).thenReturn(true);
+
+        EC2FleetOnlineChecker.start(node, future, 100, 10);
+
+        Assert.assertSame(node, future.get());
+        verify(linuxAndDocker.nodeProvisioner, timeout(5000)).suggestReviewNow();
+        verify(windows.nodeProvisioner, never()).suggestReviewNow();
+    }
+
+    private static Label label() {
+        final Label label = PowerMockito.mock(Label.class);
+        Whitebox.setInternalState(label, "nodeProvisioner", mock(NodeProvisioner.class));
+        return label;
+    }
+
 }
@@ -0,0 +1,98 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EC2FleetPrewarmStepTest {
+
+    private final List<Cloud> clouds = new ArrayList<>();
+    private final StepContext context = mock(StepContext.class);
+    private final TaskListener listener = mock(TaskListener.class);
+    private final EC2FleetCloud cloud1 = mock(EC2FleetCloud.class);
+    private final EC2FleetCloud cloud2 = mock(EC2FleetCloud.class);
+
+    @Before
+    public void before() throws Exception {
+        when(context.get(TaskListener.class)).thenReturn(listener);
+        when(listener.getLogger()).thenReturn(new PrintStream(new ByteArrayOutputStream()));
+        when(cloud1.canProvision(null)).thenReturn(true);
+        when(cloud2.canProvision(null)).thenReturn(true);
+    }
+
+    @Test
+    public void shouldReserveExecutorsInMatchingCloudWithTtl() throws Exception {
+        clouds.add(cloud1);
+        when(cloud1.reserve(10, TimeUnit.MINUTES.toMillis(5))).thenReturn(10);
+
+        final EC2FleetPrewarmStep step = new EC2FleetPrewarmStep("", 10);
+        step.setTtlMinutes(5);
+
+        assertEquals(10, (int) execution(step).run());
+    }
+
+    @Test
+    public void shouldUseDefaultTtl() throws Exception {
+        clouds.add(cloud1);
+        when(cloud1.reserve(10, TimeUnit.MINUTES.toMillis(EC2FleetPrewarmStep.DEFAULT_TTL_MINUTES))).thenReturn(10);
+
+        assertEquals(10, (int) execution(new EC2FleetPrewarmStep(null, 10)).run());
+    }
+
+    @Test
+    public void shouldReserveRestInNextCloudIfFirstReachedMax() throws Exception {
+        clouds.add(cloud1);
+        clouds.add(cloud2);
+        when(cloud1.reserve(anyInt(), anyLong())).thenReturn(4);
+        when(cloud2.reserve(6, TimeUnit.MINUTES.toMillis(EC2FleetPrewarmStep.DEFAULT_TTL_MINUTES))).thenReturn(6);
+
+        assertEquals(10, (int) execution(new EC2FleetPrewarmStep(null, 10)).run());
+    }
+
+    @Test
+    public void shouldNotReserveInNextCloudIfAllReserved() throws Exception {
+        clouds.add(cloud1);
+        clouds.add(cloud2);
+        when(cloud1.reserve(anyInt(), anyLong())).thenReturn(10);
+
+        assertEquals(10, (int) execution(new EC2FleetPrewarmStep(null, 10)).run());
+        verify(cloud2, never()).reserve(anyInt(), anyLong());
+    }
+
+    @Test
+    public void shouldSkipCloudWhichCannotProvisionLabel() throws Exception {
+        clouds.add(cloud1);
+        clouds.add(cloud2);
+        when(cloud1.canProvision(null)).thenReturn(false);
+        when(cloud2.reserve(anyInt(), anyLong())).thenReturn(3);
+
+        assertEquals(3, (int) execution(new EC2FleetPrewarmStep(null, 10)).run());
+        verify(cloud1, never()).reserve(anyInt(), anyLong());
+    }
+
+    private EC2FleetPrewarmStep.Execution execution(final EC2FleetPrewarmStep step) {
+        return new EC2FleetPrewarmStep.Execution(step, context) {
+            @Override
+            List<Cloud> getClouds() {
+                return clouds;
+            }
+        };
+    }
+
+}
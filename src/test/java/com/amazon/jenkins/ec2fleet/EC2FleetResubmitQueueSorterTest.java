@@ -0,0 +1,44 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Queue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Queue.BuildableItem.class})
+public class EC2FleetResubmitQueueSorterTest {
+
+    @Test
+    public void sortBuildableItems_shouldPutResubmittedFirstKeepingOrder() {
+        final Queue.BuildableItem new1 = item(false);
+        final Queue.BuildableItem resubmitted1 = item(true);
+        final Queue.BuildableItem new2 = item(false);
+        final Queue.BuildableItem resubmitted2 = item(true);
+        final List<Queue.BuildableItem> buildables = new ArrayList<>(Arrays.asList(new1, resubmitted1, new2, resubmitted2));
+
+        new EC2FleetResubmitQueueSorter().sortBuildableItems(buildables);
+
+        assertEquals(Arrays.asList(resubmitted1, resubmitted2, new1, new2), buildables);
+    }
+
+    private static Queue.BuildableItem item(final boolean resubmitted) {
+        final Queue.BuildableItem item = mock(Queue.BuildableItem.class);
+        if (resubmitted) {
+            when(item.getAction(EC2FleetResubmitAction.class))
+                    .thenReturn(new EC2FleetResubmitAction(Collections.singleton("i-1")));
+        }
+        return item;
+    }
+
+}
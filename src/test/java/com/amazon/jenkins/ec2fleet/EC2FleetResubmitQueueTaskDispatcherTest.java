@@ -0,0 +1,84 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Computer.class, Queue.BuildableItem.class})
+public class EC2FleetResubmitQueueTaskDispatcherTest {
+
+    @Mock
+    private Queue.BuildableItem item;
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    private final EC2FleetResubmitQueueTaskDispatcher dispatcher = new EC2FleetResubmitQueueTaskDispatcher() {
+        @Override
+        List<Node> getNodes() {
+            return nodes;
+        }
+    };
+
+    @Test
+    public void canTake_givenNotResubmittedTaskShouldTakeAnyNode() {
+        final Node node = node("i-1", 1);
+        node("i-2", 1);
+
+        assertNull(dispatcher.canTake(node, item));
+    }
+
+    @Test
+    public void canTake_shouldBlockFailedNodeIfOtherNodeCanTakeTask() {
+        when(item.getAction(EC2FleetResubmitAction.class))
+                .thenReturn(new EC2FleetResubmitAction(Collections.singleton("i-1")));
+        final Node failed = node("i-1", 1);
+        final Node other = node("i-2", 1);
+
+        final CauseOfBlockage cause = dispatcher.canTake(failed, item);
+
+        assertEquals("Avoiding node i-1 where task was interrupted", cause.getShortDescription());
+        assertNull(dispatcher.canTake(other, item));
+    }
+
+    @Test
+    public void canTake_shouldTakeFailedNodeIfNoOtherNodeCanTakeTask() {
+        when(item.getAction(EC2FleetResubmitAction.class))
+                .thenReturn(new EC2FleetResubmitAction(Collections.singleton("i-1")));
+        final Node failed = node("i-1", 1);
+        node("i-2", 0);
+        final Node other = node("i-3", 1);
+        when(other.canTake(item)).thenReturn(mock(CauseOfBlockage.class));
+
+        assertNull(dispatcher.canTake(failed, item));
+    }
+
+    private Node node(final String name, final int idle) {
+        final Computer computer = PowerMockito.mock(Computer.class);
+        PowerMockito.when(computer.countIdle()).thenReturn(idle);
+        when(computer.isAcceptingTasks()).thenReturn(true);
+
+        final Node node = mock(Node.class);
+        when(node.getNodeName()).thenReturn(name);
+        when(node.toComputer()).thenReturn(computer);
+        nodes.add(node);
+        return node;
+    }
+
+}
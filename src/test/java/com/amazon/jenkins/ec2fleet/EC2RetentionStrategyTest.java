@@ -1,5 +1,7 @@
 package com.amazon.jenkins.ec2fleet;
 
+import hudson.model.Computer;
+import hudson.model.Executor;
 import hudson.slaves.SlaveComputer;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,18 +15,22 @@ import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(SlaveComputer.class)
+@PrepareForTest({Computer.class, SlaveComputer.class})
 public class EC2RetentionStrategyTest {
 
     @Mock
-    private EC2FleetCloud cloud;
+    private EC2FleetLabelCloud cloud;
 
     @Mock
     private EC2FleetNodeComputer slaveComputer;
@@ -55,6 +61,18 @@ public class EC2RetentionStrategyTest {
         verify(slaveComputer).setAcceptingTasks(true);
     }
 
+    @Test
+    public void given_fleet_cloud_should_leave_idle_node_to_retention_pass_of_cloud() {
+        final EC2FleetCloud fleetCloud = mock(EC2FleetCloud.class);
+        when(fleetCloud.hasExcessCapacity()).thenReturn(true);
+        when(slaveComputer.getCloud()).thenReturn(fleetCloud);
+
+        new EC2RetentionStrategy().check(slaveComputer);
+
+        verify(fleetCloud, never()).scheduleToTerminate(anyString());
+        verify(slaveComputer, never()).setAcceptingTasks(anyBoolean());
+    }
+
     @Test
     public void shouldScheduleExcessCapacityForTerminationIfIdle() {
         when(cloud.hasExcessCapacity()).thenReturn(Boolean.TRUE);
@@ -74,11 +92,54 @@ public class EC2RetentionStrategyTest {
 
         new EC2RetentionStrategy().check(slaveComputer);
 
-        verify(slaveComputer, times(0)).getNode();
         verify(cloud, times(0)).scheduleToTerminate(anyString());
         verify(slaveComputer).setAcceptingTasks(true);
     }
 
+    @Test
+    public void shouldNotTerminateDrainingNodeWhileBusy() {
+        when(slaveComputer.isDraining()).thenReturn(true);
+        PowerMockito.when(slaveComputer.countBusy()).thenReturn(1);
+
+        new EC2RetentionStrategy().check(slaveComputer);
+
+        verify(cloud, never()).scheduleToTerminate(anyString());
+        verify(slaveComputer, never()).setAcceptingTasks(true);
+    }
+
+    @Test
+    public void shouldTerminateDrainingNodeWhenTasksCompleted() {
+        when(slaveComputer.isDraining()).thenReturn(true);
+        when(cloud.scheduleToTerminate("n-a")).thenReturn(true);
+
+        new EC2RetentionStrategy().check(slaveComputer);
+
+        verify(cloud).scheduleToTerminate("n-a");
+        verify(slaveComputer, never()).cancelDrain();
+    }
+
+    @Test
+    public void shouldTerminateBusyDrainingNodeAfterDeadline() {
+        when(slaveComputer.isDraining()).thenReturn(true);
+        when(slaveComputer.getDrainDeadline()).thenReturn(System.currentTimeMillis() - 1);
+        PowerMockito.when(slaveComputer.countBusy()).thenReturn(1);
+        when(cloud.scheduleToTerminate("n-a")).thenReturn(true);
+
+        new EC2RetentionStrategy().check(slaveComputer);
+
+        verify(cloud).scheduleToTerminate("n-a");
+    }
+
+    @Test
+    public void shouldCancelDrainIfNodeCannotBeTerminated() {
+        when(slaveComputer.isDraining()).thenReturn(true);
+        when(cloud.scheduleToTerminate("n-a")).thenReturn(false);
+
+        new EC2RetentionStrategy().check(slaveComputer);
+
+        verify(slaveComputer).cancelDrain();
+    }
+
     @Test
     public void shouldNotScheduleTerminationIfNotExcessCapacity() {
         when(cloud.hasExcessCapacity()).thenReturn(Boolean.FALSE);
@@ -174,6 +235,67 @@ public class EC2RetentionStrategyTest {
         }
     }
 
+    @Test
+    public void given_last_task_completed_should_schedule_idle_timeout() {
+        final Executor executor = mock(Executor.class);
+        when(executor.getOwner()).thenReturn(slaveComputer);
+        PowerMockito.when(slaveComputer.countBusy()).thenReturn(1);
+
+        new EC2RetentionStrategy().taskCompleted(executor, null, 0);
+
+        verify(slaveComputer).setIdleTimeout(notNull());
+    }
+
+    @Test
+    public void given_other_tasks_running_should_not_schedule_idle_timeout() {
+        final Executor executor = mock(Executor.class);
+        when(executor.getOwner()).thenReturn(slaveComputer);
+        PowerMockito.when(slaveComputer.countBusy()).thenReturn(2);
+
+        new EC2RetentionStrategy().taskCompletedWithProblems(executor, null, 0, null);
+
+        verify(slaveComputer, never()).setIdleTimeout(any());
+    }
+
+    @Test
+    public void given_idle_time_not_configured_should_not_schedule_idle_timeout() {
+        final Executor executor = mock(Executor.class);
+        when(executor.getOwner()).thenReturn(slaveComputer);
+        when(cloud.getIdleMinutes()).thenReturn(0);
+
+        new EC2RetentionStrategy().taskCompleted(executor, null, 0);
+
+        verify(slaveComputer, never()).setIdleTimeout(any());
+    }
+
+    @Test
+    public void task_accepted_should_cancel_idle_timeout() {
+        final Executor executor = mock(Executor.class);
+        when(executor.getOwner()).thenReturn(slaveComputer);
+
+        new EC2RetentionStrategy().taskAccepted(executor, null);
+
+        verify(slaveComputer).setIdleTimeout(null);
+    }
+
+    @Test
+    public void given_fleet_cloud_idle_timeout_should_request_retention_check() {
+        final EC2FleetCloud fleetCloud = mock(EC2FleetCloud.class);
+        when(slaveComputer.getCloud()).thenReturn(fleetCloud);
+
+        new EC2RetentionStrategy().checkIdleTimeout(slaveComputer);
+
+        verify(fleetCloud).requestRetentionCheck();
+        verify(fleetCloud, never()).scheduleToTerminate(anyString());
+    }
+
+    @Test
+    public void idle_timeout_should_check_node() {
+        new EC2RetentionStrategy().checkIdleTimeout(slaveComputer);
+
+        verify(cloud).scheduleToTerminate("n-a");
+    }
+
     // todo we do nothing if computer doesn't have node
 
 }
@@ -0,0 +1,88 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Queue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FleetHealthTest {
+
+    private final FleetHealth health = new FleetHealth();
+
+    @Test
+    public void recordBuild_shouldReturnMedianOfJobBeforeBuild() {
+        assertNull(health.recordBuild("job", 100, false));
+        assertNull(health.recordBuild("job", 300, false));
+        assertNull(health.recordBuild("job", 200, false));
+
+        assertEquals(Long.valueOf(200), health.recordBuild("job", 1000, false));
+        assertNull(health.recordBuild("other", 1000, false));
+    }
+
+    @Test
+    public void recordBuild_shouldNotCountFailedBuildInMedian() {
+        health.recordBuild("job", 100, false);
+        health.recordBuild("job", 100, false);
+        health.recordBuild("job", 1, true);
+
+        assertNull(health.recordBuild("job", 100, false));
+        assertEquals(Long.valueOf(100), health.recordBuild("job", 1, true));
+    }
+
+    @Test
+    public void recordBuild_shouldKeepRecentSamplesOnly() {
+        for (int i = 0; i < FleetHealth.SAMPLES; i++) health.recordBuild("job", 100, false);
+        for (int i = 0; i < FleetHealth.SAMPLES; i++) health.recordBuild("job", 500, false);
+
+        assertEquals(Long.valueOf(500), health.recordBuild("job", 500, false));
+    }
+
+    @Test
+    public void getFailureRate_shouldCountRecentBuildsOfAllJobs() {
+        assertEquals(0, health.getFailureRate(), 0);
+
+        health.recordBuild("a", 100, true);
+        health.recordBuild("b", 100, false);
+        health.recordBuild("b", 100, false);
+        health.recordBuild("a", 100, true);
+        assertEquals(0.5, health.getFailureRate(), 0);
+
+        for (int i = 0; i < FleetHealth.FAILURE_SAMPLES; i++) health.recordBuild("b", 100, false);
+        assertEquals(0, health.getFailureRate(), 0);
+    }
+
+    @Test
+    public void recordConnect_shouldReturnMedianBeforeConnect() {
+        assertNull(health.recordConnect(10));
+        assertNull(health.recordConnect(30));
+        assertNull(health.recordConnect(20));
+
+        assertEquals(Long.valueOf(20), health.recordConnect(100));
+    }
+
+    @Test
+    public void getKey_shouldKeepSubTasksOfJobApartAndMatchThemAcrossBuilds() {
+        final Queue.Task job = mock(Queue.Task.class);
+        when(job.getOwnerTask()).thenReturn(job);
+        when(job.getFullDisplayName()).thenReturn("job");
+
+        assertEquals("job", FleetHealth.getKey(job));
+        assertEquals("job part of job - build", FleetHealth.getKey(subTask(job, "part of job #12 - build")));
+        assertEquals(FleetHealth.getKey(subTask(job, "part of job #12 - build")),
+                FleetHealth.getKey(subTask(job, "part of job #13 - build")));
+        assertNotEquals(FleetHealth.getKey(subTask(job, "part of job #12 - build")),
+                FleetHealth.getKey(subTask(job, "part of job #12 - checkout")));
+    }
+
+    private static Queue.Task subTask(final Queue.Task owner, final String displayName) {
+        final Queue.Task task = mock(Queue.Task.class);
+        when(task.getOwnerTask()).thenReturn(owner);
+        when(task.getDisplayName()).thenReturn(displayName);
+        return task;
+    }
+
+}
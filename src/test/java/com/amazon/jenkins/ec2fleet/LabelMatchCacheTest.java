@@ -0,0 +1,48 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.labels.LabelAtom;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LabelMatchCacheTest {
+
+    @Test
+    public void get_returnNullIfNotCached() {
+        Assert.assertNull(new LabelMatchCache().get(new LabelAtom("a")));
+    }
+
+    @Test
+    public void get_returnCachedResult() {
+        final LabelMatchCache cache = new LabelMatchCache();
+        cache.put(new LabelAtom("a"), true);
+        cache.put(new LabelAtom("b"), false);
+
+        Assert.assertEquals(true, cache.get(new LabelAtom("a")));
+        Assert.assertEquals(false, cache.get(new LabelAtom("b")));
+    }
+
+    @Test
+    public void put_evictLeastRecentlyUsedWhenFull() {
+        final LabelMatchCache cache = new LabelMatchCache();
+        for (int i = 0; i < LabelMatchCache.MAX_SIZE; i++) cache.put(new LabelAtom("l" + i), true);
+        // touch first to make it recently used
+        cache.get(new LabelAtom("l0"));
+
+        cache.put(new LabelAtom("new"), true);
+
+        Assert.assertEquals(true, cache.get(new LabelAtom("l0")));
+        Assert.assertNull(cache.get(new LabelAtom("l1")));
+        Assert.assertEquals(true, cache.get(new LabelAtom("new")));
+    }
+
+    @Test
+    public void clear_dropAllResults() {
+        final LabelMatchCache cache = new LabelMatchCache();
+        cache.put(new LabelAtom("a"), true);
+
+        cache.clear();
+
+        Assert.assertNull(cache.get(new LabelAtom("a")));
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({NodeProvisioner.class, Queue.BuildableItem.class})
+public class NoDelayProvisionQueueListenerTest {
+
+    @Mock
+    private Label label;
+
+    @Mock
+    private NodeProvisioner nodeProvisioner;
+
+    @Mock
+    private EC2FleetCloud cloud;
+
+    @Mock
+    private NoDelayProvisionStrategy strategy;
+
+    private List<Cloud> clouds = new ArrayList<>();
+
+    private NoDelayProvisionQueueListener listener;
+
+    @Before
+    public void before() {
+        listener = spy(new NoDelayProvisionQueueListener());
+        doReturn(clouds).when(listener).getClouds();
+        doReturn(nodeProvisioner).when(listener).getNodeProvisioner(label);
+        doReturn(strategy).when(listener).getStrategy();
+        clouds.add(cloud);
+        when(cloud.isNoDelayProvision()).thenReturn(true);
+        when(cloud.canProvision(label)).thenReturn(true);
+    }
+
+    @Test
+    public void onEnterBuildable_shouldReviewLabelServedByNoDelayCloud() {
+        listener.onEnterBuildable(createItem());
+
+        verify(nodeProvisioner, timeout(5000)).suggestReviewNow();
+    }
+
+    @Test
+    public void onEnterBuildable_shouldProvisionNowLabelServedByNoDelayCloud() {
+        listener.onEnterBuildable(createItem());
+
+        verify(strategy, timeout(5000)).provisionNow(label);
+    }
+
+    @Test
+    public void onEnterBuildable_shouldReviewOnceForItemsEnteredTogether() {
+        listener.onEnterBuildable(createItem());
+        listener.onEnterBuildable(createItem());
+        listener.onEnterBuildable(createItem());
+
+        verify(nodeProvisioner, timeout(5000)).suggestReviewNow();
+        verify(listener, times(1)).review();
+    }
+
+    @Test
+    public void onEnterBuildable_shouldSkipLabelNotServedByNoDelayCloud() {
+        when(cloud.isNoDelayProvision()).thenReturn(false);
+
+        listener.onEnterBuildable(createItem());
+
+        verify(listener, never()).getNodeProvisioner(any(Label.class));
+        verify(strategy, never()).provisionNow(any(Label.class));
+    }
+
+    private Queue.BuildableItem createItem() {
+        final Queue.BuildableItem item = mock(Queue.BuildableItem.class);
+        when(item.getAssignedLabel()).thenReturn(label);
+        return item;
+    }
+
+}
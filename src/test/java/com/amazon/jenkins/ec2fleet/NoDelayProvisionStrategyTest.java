@@ -4,19 +4,29 @@ import com.google.common.util.concurrent.SettableFuture;
 import hudson.model.Label;
 import hudson.model.LoadStatistics;
 import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -41,14 +51,23 @@ public class NoDelayProvisionStrategyTest {
     @Mock
     private Label label;
 
+    @Mock
+    private NodeProvisioner.StrategyState otherState;
+
+    @Mock
+    private LoadStatistics.LoadStatisticsSnapshot otherSnapshot;
+
     private NoDelayProvisionStrategy strategy;
 
     private List<Cloud> clouds = new ArrayList<>();
 
+    private Map<Label, Integer> queueDemand = new HashMap<>();
+
     @Before
     public void before() {
         strategy = spy(new NoDelayProvisionStrategy());
         doReturn(clouds).when(strategy).getClouds();
+        doReturn(queueDemand).when(strategy).getQueueDemand(any());
         when(state.getSnapshot()).thenReturn(snapshot);
     }
 
@@ -215,4 +234,126 @@ public class NoDelayProvisionStrategyTest {
         verify(ec2FleetCloud1, times(1)).provision(label, 2);
     }
 
+    @Test
+    public void givenLabelAtom_shouldCheckOnlyCloudsWithThisAtom() {
+        final LabelAtom labelB = new LabelAtom("b");
+        when(snapshot.getQueueLength()).thenReturn(10);
+        when(state.getLabel()).thenReturn(labelB);
+
+        final EC2FleetCloud ec2FleetCloud1 = mock(EC2FleetCloud.class);
+        clouds.add(ec2FleetCloud1);
+        final EC2FleetCloud ec2FleetCloud2 = mock(EC2FleetCloud.class);
+        clouds.add(ec2FleetCloud2);
+        when(ec2FleetCloud1.getLabelAtoms()).thenReturn(Collections.singleton(new LabelAtom("a")));
+        when(ec2FleetCloud2.getLabelAtoms()).thenReturn(Collections.singleton(new LabelAtom("b")));
+        when(ec2FleetCloud1.isNoDelayProvision()).thenReturn(true);
+        when(ec2FleetCloud2.isNoDelayProvision()).thenReturn(true);
+        when(ec2FleetCloud2.canProvision(any(Label.class))).thenReturn(true);
+
+        Assert.assertEquals(
+                NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES,
+                strategy.apply(state));
+        verify(ec2FleetCloud1, never()).canProvision(any(Label.class));
+        verify(ec2FleetCloud2, times(1)).provision(labelB, 10);
+    }
+
+    @Test
+    public void givenCloudsChanged_shouldUseNewClouds() {
+        when(snapshot.getQueueLength()).thenReturn(10);
+        when(state.getLabel()).thenReturn(label);
+
+        final EC2FleetCloud ec2FleetCloud1 = mock(EC2FleetCloud.class);
+        clouds.add(ec2FleetCloud1);
+        when(ec2FleetCloud1.canProvision(any(Label.class))).thenReturn(true);
+        when(ec2FleetCloud1.isNoDelayProvision()).thenReturn(true);
+        strategy.apply(state);
+
+        final EC2FleetCloud ec2FleetCloud2 = mock(EC2FleetCloud.class);
+        clouds.set(0, ec2FleetCloud2);
+        when(ec2FleetCloud2.canProvision(any(Label.class))).thenReturn(true);
+        when(ec2FleetCloud2.isNoDelayProvision()).thenReturn(true);
+        strategy.apply(state);
+
+        verify(ec2FleetCloud1, times(1)).provision(label, 10);
+        verify(ec2FleetCloud2, times(1)).provision(label, 10);
+    }
+
+    @Test
+    public void givenOverlappingLabelsServedBySameCloud_shouldProvisionOnceForSumOfDemand() {
+        final LabelAtom labelA = new LabelAtom("a");
+        final LabelAtom labelB = new LabelAtom("b");
+        when(snapshot.getQueueLength()).thenReturn(2);
+        when(state.getLabel()).thenReturn(labelA);
+        when(otherState.getSnapshot()).thenReturn(otherSnapshot);
+        when(otherSnapshot.getQueueLength()).thenReturn(3);
+        when(otherState.getLabel()).thenReturn(labelB);
+        queueDemand.put(labelA, 2);
+        queueDemand.put(labelB, 3);
+
+        final EC2FleetCloud ec2FleetCloud = mock(EC2FleetCloud.class);
+        clouds.add(ec2FleetCloud);
+        when(ec2FleetCloud.getLabelAtoms()).thenReturn(new HashSet<>(Arrays.asList(labelA, labelB)));
+        when(ec2FleetCloud.canProvision(any(Label.class))).thenReturn(true);
+        when(ec2FleetCloud.isNoDelayProvision()).thenReturn(true);
+        final List<NodeProvisioner.PlannedNode> plannedNodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            plannedNodes.add(new NodeProvisioner.PlannedNode("", SettableFuture.<Node>create(), 1));
+        }
+        when(ec2FleetCloud.provision(any(Label.class), anyInt())).thenReturn(plannedNodes);
+
+        Assert.assertEquals(NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED, strategy.apply(state));
+        Assert.assertEquals(NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED, strategy.apply(otherState));
+
+        verify(ec2FleetCloud, times(1)).provision(any(Label.class), anyInt());
+        verify(ec2FleetCloud).provision(labelA, 5);
+        final ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(state).recordPendingLaunches(captor.capture());
+        Assert.assertEquals(plannedNodes.subList(0, 2), new ArrayList<>(captor.getValue()));
+        verify(otherState).recordPendingLaunches(captor.capture());
+        Assert.assertEquals(plannedNodes.subList(2, 5), new ArrayList<>(captor.getValue()));
+    }
+
+    @Test
+    public void givenSecondCallForSameLabel_shouldStartNewRoundAndProvisionOnlyForOwnDemand() {
+        final LabelAtom labelA = new LabelAtom("a");
+        when(snapshot.getQueueLength()).thenReturn(2);
+        when(state.getLabel()).thenReturn(labelA);
+
+        final EC2FleetCloud ec2FleetCloud = mock(EC2FleetCloud.class);
+        clouds.add(ec2FleetCloud);
+        when(ec2FleetCloud.getLabelAtoms()).thenReturn(Collections.singleton(labelA));
+        when(ec2FleetCloud.canProvision(any(Label.class))).thenReturn(true);
+        when(ec2FleetCloud.isNoDelayProvision()).thenReturn(true);
+        strategy.apply(state);
+        strategy.apply(state);
+
+        verify(ec2FleetCloud, times(2)).provision(labelA, 2);
+    }
+
+    @Test
+    public void givenPlanBuilt_shouldProvisionOutsideOfStrategyLock() {
+        final LabelAtom labelA = new LabelAtom("a");
+        when(snapshot.getQueueLength()).thenReturn(2);
+        when(state.getLabel()).thenReturn(labelA);
+
+        final EC2FleetCloud ec2FleetCloud = mock(EC2FleetCloud.class);
+        clouds.add(ec2FleetCloud);
+        when(ec2FleetCloud.getLabelAtoms()).thenReturn(Collections.singleton(labelA));
+        when(ec2FleetCloud.canProvision(any(Label.class))).thenReturn(true);
+        when(ec2FleetCloud.isNoDelayProvision()).thenReturn(true);
+        final AtomicBoolean holdsLock = new AtomicBoolean(true);
+        when(ec2FleetCloud.provision(any(Label.class), anyInt())).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                holdsLock.set(Thread.holdsLock(strategy));
+                return Collections.emptyList();
+            }
+        });
+
+        strategy.apply(state);
+
+        verify(ec2FleetCloud).provision(labelA, 2);
+        Assert.assertFalse(holdsLock.get());
+    }
+
 }
@@ -0,0 +1,85 @@
+package com.amazon.jenkins.ec2fleet;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NodeHealthTest {
+
+    private final NodeHealth health = new NodeHealth();
+
+    @Test
+    public void check_givenNotEnoughBuildsShouldBeHealthy() {
+        health.recordBuild(0.1, false);
+        health.recordBuild(null, true);
+
+        assertEquals(Collections.emptyList(), health.check(40, 0));
+        assertEquals(Integer.valueOf(100), health.getScore());
+        assertNull(health.getSpeedScore());
+        assertNull(health.getFailureRate());
+    }
+
+    @Test
+    public void check_givenSlowBuildsShouldReportSpeed() {
+        health.recordBuild(0.3, false);
+        health.recordBuild(0.3, false);
+        health.recordBuild(0.3, false);
+
+        assertEquals(Collections.singletonList("builds 3.3x slower than job median"), health.check(40, 0));
+        assertEquals(Integer.valueOf(30), health.getScore());
+    }
+
+    @Test
+    public void check_shouldNotRewardFasterBuilds() {
+        health.recordBuild(5.0, false);
+        health.recordBuild(0.2, false);
+        health.recordBuild(0.2, false);
+
+        assertEquals(Integer.valueOf(47), health.getSpeedScore());
+    }
+
+    @Test
+    public void check_shouldCompareFailureRateWithCloud() {
+        for (int i = 0; i < NodeHealth.MIN_FAILURE_BUILDS; i++) health.recordBuild(null, i % 3 != 0);
+
+        // whole cloud fails as often, broken job is not node problem
+        assertEquals(Collections.emptyList(), health.check(40, 0.7));
+        assertEquals(Collections.singletonList("failure rate 60% while cloud 10%"), health.check(50, 0.1));
+        assertEquals(Integer.valueOf(44), health.getScore());
+    }
+
+    @Test
+    public void check_givenFewFailedBuildsShouldNotScoreSuccess() {
+        health.recordBuild(null, true);
+        health.recordBuild(null, true);
+        health.recordBuild(null, false);
+
+        assertEquals(Collections.emptyList(), health.check(40, 0.1));
+        assertNull(health.getFailureRate());
+    }
+
+    @Test
+    public void check_givenSlowConnectShouldReportConnect() {
+        health.recordConnect(0.25);
+
+        assertEquals(Collections.singletonList("connect 4.0x slower than cloud median"), health.check(40, 0));
+        assertEquals(Integer.valueOf(25), health.getConnectScore());
+    }
+
+    @Test
+    public void quarantine_shouldKeepFirstReason() {
+        assertFalse(health.isQuarantined());
+
+        assertTrue(health.quarantine("slow"));
+        assertFalse(health.quarantine("other"));
+
+        assertTrue(health.isQuarantined());
+        assertEquals("slow", health.getQuarantineReason());
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.amazon.jenkins.ec2fleet;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScaleInControllerTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long NOW = TimeUnit.DAYS.toMillis(1);
+
+    private final ScaleInController controller = new ScaleInController();
+
+    @Test
+    public void isDeferred_givenNoLimitsShouldReleaseAnyCandidate() {
+        final ScaleInController.Pass pass = controller.startPass(3, 0, 0, 0, NOW);
+
+        assertFalse(pass.isDeferred("i-3", 1));
+        assertFalse(pass.isDeferred("i-1", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldDeferDuringCooldownAfterScaleOut() {
+        controller.recordScaleOut(NOW - 5 * MINUTE);
+
+        assertTrue(controller.startPass(3, 10 * MINUTE, 0, 0, NOW).isDeferred("i-1", 1));
+        assertFalse(controller.startPass(3, 10 * MINUTE, 0, 0, NOW + 5 * MINUTE).isDeferred("i-1", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldReleaseLongestIdleNodesUpToMaxInstances() {
+        final ScaleInController.Pass pass = controller.startPass(3, 0, 1, 0, NOW);
+
+        assertFalse(pass.isDeferred("i-1", 1));
+        assertTrue(pass.isDeferred("i-2", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldCountReleasedNodesPerInterval() {
+        assertFalse(controller.startPass(3, 0, 1, 0, NOW).isDeferred("i-1", 1));
+
+        assertTrue(controller.startPass(2, 0, 1, 0, NOW + MINUTE - 1).isDeferred("i-2", 1));
+        // interval is one minute without cooldown
+        assertFalse(controller.startPass(2, 0, 1, 0, NOW + MINUTE).isDeferred("i-2", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldNotCountSameNodeTwice() {
+        assertFalse(controller.startPass(3, 0, 1, 0, NOW).isDeferred("i-1", 1));
+        // termination was refused, for example by min size
+        assertFalse(controller.startPass(3, 0, 1, 0, NOW + 1).isDeferred("i-1", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldKeepExecutorsForPeakDemand() {
+        controller.recordDemand(2, NOW - 5 * MINUTE, 10 * MINUTE);
+        controller.recordDemand(0, NOW, 10 * MINUTE);
+
+        final ScaleInController.Pass pass = controller.startPass(3, 0, 0, 10 * MINUTE, NOW);
+        assertFalse(pass.isDeferred("i-1", 1));
+        assertTrue(pass.isDeferred("i-2", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldForgetDemandOutOfWindow() {
+        controller.recordDemand(3, NOW - 11 * MINUTE, 10 * MINUTE);
+        controller.recordDemand(0, NOW, 10 * MINUTE);
+
+        assertEquals(0, controller.getPeakDemand(NOW, 10 * MINUTE));
+        assertFalse(controller.startPass(3, 0, 0, 10 * MINUTE, NOW).isDeferred("i-1", 1));
+    }
+
+    @Test
+    public void isDeferred_shouldNotReleaseNodeWithMoreExecutorsThanSurplus() {
+        controller.recordDemand(1, NOW, 10 * MINUTE);
+
+        assertTrue(controller.startPass(4, 0, 0, 10 * MINUTE, NOW).isDeferred("i-1", 4));
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.amazon.jenkins.ec2fleet;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduledCapacityTest {
+
+    @Test
+    public void isActive_shouldBeTrueWithinDurationAfterScheduleMatch() {
+        final ScheduledCapacity scheduledCapacity = new ScheduledCapacity("0 8 * * *", 60, 5, null);
+
+        assertTrue(scheduledCapacity.isActive(time(8, 0)));
+        assertTrue(scheduledCapacity.isActive(time(8, 59)));
+    }
+
+    @Test
+    public void isActive_shouldBeFalseOutsideOfWindow() {
+        final ScheduledCapacity scheduledCapacity = new ScheduledCapacity("0 8 * * *", 60, 5, null);
+
+        assertFalse(scheduledCapacity.isActive(time(7, 59)));
+        assertFalse(scheduledCapacity.isActive(time(9, 0)));
+    }
+
+    @Test
+    public void isActive_shouldCheckEachScheduleLine() {
+        final ScheduledCapacity scheduledCapacity = new ScheduledCapacity(
+                "# nightly\n0 8 * * *\n0 20 * * *", 30, 5, null);
+
+        assertTrue(scheduledCapacity.isActive(time(8, 10)));
+        assertTrue(scheduledCapacity.isActive(time(20, 10)));
+        assertFalse(scheduledCapacity.isActive(time(12, 0)));
+    }
+
+    @Test
+    public void isActive_givenInvalidScheduleShouldBeFalse() {
+        assertFalse(new ScheduledCapacity("invalid", 60, 5, null).isActive(time(8, 0)));
+        assertFalse(new ScheduledCapacity(null, 60, 5, null).isActive(time(8, 0)));
+    }
+
+    @Test
+    public void isActive_givenZeroDurationShouldBeFalse() {
+        assertFalse(new ScheduledCapacity("0 8 * * *", 0, 5, null).isActive(time(8, 0)));
+    }
+
+    private static Calendar time(final int hour, final int minute) {
+        return new GregorianCalendar(2020, Calendar.MARCH, 2, hour, minute);
+    }
+
+}
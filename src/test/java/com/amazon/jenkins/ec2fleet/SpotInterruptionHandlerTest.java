@@ -0,0 +1,180 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.Message;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.slaves.SlaveComputer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Computer.class, SlaveComputer.class})
+public class SpotInterruptionHandlerTest {
+
+    private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/123/interruptions";
+    private static final String TIME = "2020-01-01T00:00:00Z";
+    private static final long NOW = Instant.parse(TIME).toEpochMilli() + 5000;
+
+    @Mock
+    private SqsApi sqsApi;
+
+    @Mock
+    private AmazonSQS sqs;
+
+    @Mock
+    private EC2FleetCloud cloud;
+
+    @Mock
+    private EC2FleetNodeComputer computer;
+
+    @Mock
+    private EC2FleetNode node;
+
+    private List<Node> nodes;
+
+    private final SpotInterruptionHandler handler = new SpotInterruptionHandler();
+
+    @Before
+    public void before() {
+        Registry.setSqsApi(sqsApi);
+        when(cloud.getInterruptionQueueUrl()).thenReturn(QUEUE_URL);
+        when(sqsApi.connect(null, QUEUE_URL)).thenReturn(sqs);
+        when(node.getNodeName()).thenReturn("i-1");
+        when(node.toComputer()).thenReturn(computer);
+        nodes = Collections.<Node>singletonList(node);
+    }
+
+    @After
+    public void after() {
+        Registry.setSqsApi(new SqsApi());
+    }
+
+    @Test
+    public void parse_shouldReadInterruptionWarning() {
+        final SpotInterruptionHandler.Notice notice = SpotInterruptionHandler.Notice.parse(
+                event(SpotInterruptionHandler.INTERRUPTION_WARNING, "i-1"));
+
+        assertEquals("i-1", notice.instanceId);
+        assertEquals(Instant.parse(TIME).toEpochMilli(), notice.time);
+        assertTrue(notice.isInterruption());
+    }
+
+    @Test
+    public void parse_shouldReadRebalanceRecommendation() {
+        final SpotInterruptionHandler.Notice notice = SpotInterruptionHandler.Notice.parse(
+                event(SpotInterruptionHandler.REBALANCE_RECOMMENDATION, "i-1"));
+
+        assertEquals("i-1", notice.instanceId);
+        assertFalse(notice.isInterruption());
+    }
+
+    @Test
+    public void parse_shouldIgnoreOtherMessages() {
+        assertNull(SpotInterruptionHandler.Notice.parse(event("EC2 Instance State-change Notification", "i-1")));
+        assertNull(SpotInterruptionHandler.Notice.parse(event(SpotInterruptionHandler.INTERRUPTION_WARNING, "")));
+        assertNull(SpotInterruptionHandler.Notice.parse("not json {"));
+    }
+
+    @Test
+    public void handle_givenInterruptionShouldDrainResubmitAndReplaceNode() {
+        final List<Message> messages = messages(event(SpotInterruptionHandler.INTERRUPTION_WARNING, "i-1"));
+
+        assertEquals(1, handler.handle(cloud, nodes, NOW));
+
+        verify(computer).drain("spot interruption",
+                Instant.parse(TIME).toEpochMilli() + SpotInterruptionHandler.INTERRUPTION_NOTICE_MILLIS);
+        verify(computer).getExecutors();
+        verify(sqsApi).deleteMessages(sqs, QUEUE_URL, messages);
+    }
+
+    @Test
+    public void handle_givenDisabledResubmitShouldOnlyDrainInterruptedNode() {
+        when(cloud.isDisableTaskResubmit()).thenReturn(true);
+        messages(event(SpotInterruptionHandler.INTERRUPTION_WARNING, "i-1"));
+
+        assertEquals(1, handler.handle(cloud, nodes, NOW));
+
+        verify(computer).drain("spot interruption",
+                Instant.parse(TIME).toEpochMilli() + SpotInterruptionHandler.INTERRUPTION_NOTICE_MILLIS);
+        verify(computer, never()).getExecutors();
+    }
+
+    @Test
+    public void handle_givenRebalanceShouldDrainWithTimeoutWithoutResubmit() {
+        when(cloud.getDrainTimeoutMinutes()).thenReturn(30);
+        messages(event(SpotInterruptionHandler.REBALANCE_RECOMMENDATION, "i-1"));
+
+        assertEquals(1, handler.handle(cloud, nodes, NOW));
+
+        verify(computer).drain("rebalance recommendation", NOW + TimeUnit.MINUTES.toMillis(30));
+        verify(computer, never()).getExecutors();
+    }
+
+    @Test
+    public void handle_shouldReplaceNodeOnce() {
+        messages(event(SpotInterruptionHandler.REBALANCE_RECOMMENDATION, "i-1"),
+                event(SpotInterruptionHandler.INTERRUPTION_WARNING, "i-1"));
+        assertEquals(1, handler.handle(cloud, nodes, NOW));
+
+        messages(event(SpotInterruptionHandler.INTERRUPTION_WARNING, "i-1"));
+        assertEquals(0, handler.handle(cloud, nodes, NOW));
+        // resubmitted once
+        verify(computer).getExecutors();
+    }
+
+    @Test
+    public void handle_shouldIgnoreNoticesForOtherInstances() {
+        final List<Message> messages = messages(event(SpotInterruptionHandler.INTERRUPTION_WARNING, "i-2"));
+
+        assertEquals(0, handler.handle(cloud, nodes, NOW));
+
+        verify(computer, never()).drain(anyString(), any());
+        verify(sqsApi).deleteMessages(sqs, QUEUE_URL, messages);
+    }
+
+    @Test
+    public void handle_shouldDoNothingIfQueueCannotBeRead() {
+        when(sqsApi.receiveMessages(sqs, QUEUE_URL, 100)).thenThrow(new AmazonSQSException("test"));
+
+        assertEquals(0, handler.handle(cloud, nodes, NOW));
+
+        verify(computer, never()).drain(anyString(), any());
+    }
+
+    private List<Message> messages(final String... bodies) {
+        final Message[] messages = new Message[bodies.length];
+        for (int i = 0; i < bodies.length; i++) messages[i] = new Message().withBody(bodies[i]);
+        final List<Message> result = Arrays.asList(messages);
+        when(sqsApi.receiveMessages(sqs, QUEUE_URL, 100)).thenReturn(result);
+        return result;
+    }
+
+    private static String event(final String type, final String instanceId) {
+        return "{\"detail-type\":\"" + type + "\",\"source\":\"aws.ec2\",\"time\":\"" + TIME + "\","
+                + "\"detail\":{\"instance-id\":\"" + instanceId + "\",\"instance-action\":\"terminate\"}}";
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.amazon.jenkins.ec2fleet;
+
+import com.amazon.jenkins.ec2fleet.fleet.AutoScalingGroupFleet;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AmazonEC2Exception;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Tag;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StoppedInstancePoolTest {
+
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+    private static final long NOW = TimeUnit.DAYS.toMillis(10);
+
+    @Mock
+    private EC2Api ec2Api;
+
+    @Mock
+    private AmazonEC2 ec2;
+
+    @Mock
+    private AutoScalingGroupFleet autoScalingGroupFleet;
+
+    @Mock
+    private EC2FleetCloud cloud;
+
+    private final StoppedInstancePool pool = new StoppedInstancePool();
+
+    private Set<String> standby = Collections.emptySet();
+
+    @Before
+    public void before() {
+        // mocks return empty set of failed instances by default
+        Registry.setEc2Api(ec2Api);
+    }
+
+    @After
+    public void after() {
+        Registry.setEc2Api(new EC2Api());
+    }
+
+    @Test
+    public void stop_shouldMoveInstancesToStandbyAndStopThem() {
+        final Set<String> released = pool.stop(ec2, autoScalingGroupFleet, cloud, Arrays.asList("i-1", "i-2"), 5, NOW);
+
+        assertEquals(ImmutableSet.of("i-1", "i-2"), released);
+        assertEquals(2, pool.getSize());
+        verify(autoScalingGroupFleet).enterStandby(any(), any(), any(), any(), eq(Arrays.asList("i-1", "i-2")));
+        verify(ec2Api).tagInstances(ec2, ImmutableSet.of("i-1", "i-2"), StoppedInstancePool.STOPPED_AT_TAG, Long.toString(NOW));
+        verify(ec2Api).stopInstances(ec2, ImmutableSet.of("i-1", "i-2"));
+    }
+
+    @Test
+    public void stop_shouldNotExceedPoolSize() {
+        final Set<String> released = pool.stop(ec2, autoScalingGroupFleet, cloud, Arrays.asList("i-2", "i-1"), 1, NOW);
+
+        assertEquals(ImmutableSet.of("i-1"), released);
+        assertEquals(0, pool.stop(ec2, autoScalingGroupFleet, cloud, Arrays.asList("i-3"), 1, NOW).size());
+    }
+
+    @Test
+    public void stop_shouldNotReleaseInstancesWhichFailedToEnterStandby() {
+        when(autoScalingGroupFleet.enterStandby(any(), any(), any(), any(), anyCollection()))
+                .thenReturn(Collections.singleton("i-1"));
+
+        final Set<String> released = pool.stop(ec2, autoScalingGroupFleet, cloud, Arrays.asList("i-1", "i-2"), 5, NOW);
+
+        assertEquals(ImmutableSet.of("i-2"), released);
+    }
+
+    @Test
+    public void stop_shouldTerminateInstancesWhichFailedToStop() {
+        when(ec2Api.stopInstances(any(AmazonEC2.class), anyCollection())).thenReturn(Collections.singleton("i-1"));
+
+        final Set<String> released = pool.stop(ec2, autoScalingGroupFleet, cloud, Arrays.asList("i-1", "i-2"), 5, NOW);
+
+        assertEquals(ImmutableSet.of("i-1", "i-2"), released);
+        assertEquals(1, pool.getSize());
+        verify(ec2Api).terminateInstances(ec2, Collections.singleton("i-1"));
+    }
+
+    @Test
+    public void stop_shouldTerminateInstancesIfCannotTagThem() {
+        doThrow(new AmazonEC2Exception("test")).when(ec2Api).tagInstances(any(AmazonEC2.class), anySet(), anyString(), anyString());
+
+        final Set<String> released = pool.stop(ec2, autoScalingGroupFleet, cloud, Arrays.asList("i-1"), 5, NOW);
+
+        assertEquals(ImmutableSet.of("i-1"), released);
+        assertEquals(0, pool.getSize());
+        verify(ec2Api).terminateInstances(ec2, Collections.singleton("i-1"));
+        verify(ec2Api, never()).stopInstances(any(AmazonEC2.class), anyCollection());
+    }
+
+    @Test
+    public void sync_shouldIgnoreStandbyInstancesWithoutTag() {
+        givenStandby(new Instance().withInstanceId("i-1")
+                .withState(new InstanceState().withName(InstanceStateName.Stopped)));
+
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.start(ec2, 1));
+    }
+
+    @Test
+    public void sync_shouldTerminateExpiredInstances() {
+        givenStandby(
+                pooled("i-1", InstanceStateName.Stopped, NOW - MAX_AGE - 1),
+                pooled("i-2", InstanceStateName.Stopped, NOW - MAX_AGE + 1));
+
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+
+        verify(ec2Api).terminateInstances(ec2, Collections.singleton("i-1"));
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getStoppedCount());
+    }
+
+    @Test
+    public void sync_shouldTerminateOldestInstancesAbovePoolSize() {
+        givenStandby(
+                pooled("i-1", InstanceStateName.Stopped, NOW - 2),
+                pooled("i-2", InstanceStateName.Stopped, NOW - 1));
+
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 1, MAX_AGE, NOW);
+
+        verify(ec2Api).terminateInstances(ec2, Collections.singleton("i-1"));
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    public void sync_shouldNotStartStoppingInstances() {
+        givenStandby(pooled("i-1", InstanceStateName.Stopping, NOW));
+
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+
+        assertEquals(1, pool.getSize());
+        assertEquals(0, pool.start(ec2, 1));
+    }
+
+    @Test
+    public void start_shouldStartNewestInstancesFirst() {
+        givenStandby(
+                pooled("i-1", InstanceStateName.Stopped, NOW - 2),
+                pooled("i-2", InstanceStateName.Stopped, NOW - 1),
+                pooled("i-3", InstanceStateName.Stopped, NOW - 3));
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+
+        assertEquals(2, pool.start(ec2, 2));
+
+        verify(ec2Api).startInstances(ec2, Arrays.asList("i-2", "i-1"));
+        assertEquals(2, pool.getStartingCount());
+        assertEquals(1, pool.getStoppedCount());
+    }
+
+    @Test
+    public void sync_shouldMoveRunningStartedInstancesBackToGroup() {
+        givenStandby(pooled("i-1", InstanceStateName.Stopped, NOW));
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+        pool.start(ec2, 1);
+
+        givenStandby(pooled("i-1", InstanceStateName.Pending, NOW));
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+        assertEquals(1, pool.getStartingCount());
+        verify(autoScalingGroupFleet, never()).exitStandby(any(), any(), any(), any(), anyCollection());
+
+        givenStandby(pooled("i-1", InstanceStateName.Running, NOW));
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+        assertEquals(0, pool.getStartingCount());
+        verify(autoScalingGroupFleet).exitStandby(any(), any(), any(), any(), eq(Collections.singleton("i-1")));
+    }
+
+    @Test
+    public void sync_shouldKeepStartingInstanceIfExitStandbyFailed() {
+        when(autoScalingGroupFleet.exitStandby(any(), any(), any(), any(), anyCollection()))
+                .thenReturn(Collections.singleton("i-1"));
+        givenStandby(pooled("i-1", InstanceStateName.Running, NOW));
+
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+
+        assertEquals(1, pool.getStartingCount());
+    }
+
+    @Test
+    public void sync_shouldForgetStartingInstanceWhichLeftStandby() {
+        givenStandby(pooled("i-1", InstanceStateName.Stopped, NOW));
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+        pool.start(ec2, 1);
+
+        givenStandby();
+        pool.sync(ec2, autoScalingGroupFleet, cloud, standby, 5, MAX_AGE, NOW);
+
+        assertEquals(0, pool.getStartingCount());
+        assertEquals(0, pool.getSize());
+    }
+
+    private void givenStandby(final Instance... instances) {
+        final ImmutableMap.Builder<String, Instance> described = ImmutableMap.builder();
+        final ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+        for (final Instance instance : instances) {
+            described.put(instance.getInstanceId(), instance);
+            ids.add(instance.getInstanceId());
+        }
+        standby = ids.build();
+        when(ec2Api.describeNotTerminatedInstances(any(AmazonEC2.class), anySet())).thenReturn(described.build());
+    }
+
+    private static Instance pooled(final String instanceId, final InstanceStateName state, final long stoppedAt) {
+        return new Instance().withInstanceId(instanceId)
+                .withState(new InstanceState().withName(state))
+                .withTags(new Tag(StoppedInstancePool.STOPPED_AT_TAG, Long.toString(stoppedAt)));
+    }
+
+}
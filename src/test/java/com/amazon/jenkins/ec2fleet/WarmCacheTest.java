@@ -0,0 +1,98 @@
+package com.amazon.jenkins.ec2fleet;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Queue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class WarmCacheTest {
+
+    private final WarmCache cache = new WarmCache();
+
+    @Test
+    public void getAffinity_givenEmptyCacheShouldBeCold() {
+        assertEquals(0, cache.getAffinity(Arrays.asList("folder/job", "folder")));
+        assertEquals(0, cache.getAffinity(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void getAffinity_shouldPreferSameJobOverSameFolder() {
+        cache.record(Arrays.asList("folder/a", "folder"));
+
+        assertEquals(WarmCache.JOB_AFFINITY, cache.getAffinity(Arrays.asList("folder/a", "folder")));
+        assertEquals(WarmCache.FOLDER_AFFINITY, cache.getAffinity(Arrays.asList("folder/b", "folder")));
+        assertEquals(0, cache.getAffinity(Arrays.asList("other/b", "other")));
+    }
+
+    @Test
+    public void record_shouldCountHitsOfSameJobOnly() {
+        assertFalse(cache.record(Arrays.asList("folder/a", "folder")));
+        assertFalse(cache.record(Arrays.asList("folder/b", "folder")));
+        assertTrue(cache.record(Arrays.asList("folder/a", "folder")));
+
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void record_shouldEvictLeastRecentlyUsedJob() {
+        for (int i = 0; i < WarmCache.MAX_KEYS; i++) cache.record(Collections.singletonList("job-" + i));
+        // job-0 becomes most recently used
+        cache.record(Collections.singletonList("job-0"));
+        cache.record(Collections.singletonList("new"));
+
+        assertEquals(WarmCache.JOB_AFFINITY, cache.getAffinity(Collections.singletonList("job-0")));
+        assertEquals(0, cache.getAffinity(Collections.singletonList("job-1")));
+        assertEquals(WarmCache.JOB_AFFINITY, cache.getAffinity(Collections.singletonList("new")));
+    }
+
+    @Test
+    public void record_shouldReportEvictedKeys() {
+        for (int i = 0; i < WarmCache.MAX_KEYS; i++) cache.record(Collections.singletonList("job-" + i));
+        final List<String> evicted = new ArrayList<>();
+
+        cache.record(Arrays.asList("new", "folder"), evicted);
+
+        assertEquals(Arrays.asList("job-0", "job-1"), evicted);
+    }
+
+    @Test
+    public void isEmpty_shouldBeFalseAfterFirstJob() {
+        assertTrue(cache.isEmpty());
+
+        cache.record(Arrays.asList("folder/a", "folder"));
+
+        assertFalse(cache.isEmpty());
+    }
+
+    @Test
+    public void getKeys_shouldReturnJobAndFolder() {
+        final Item folder = mock(Item.class, withSettings().extraInterfaces(ItemGroup.class));
+        when(folder.getFullName()).thenReturn("folder");
+        final Queue.Task job = mock(Queue.Task.class, withSettings().extraInterfaces(Item.class));
+        when(job.getOwnerTask()).thenReturn(job);
+        when(((Item) job).getFullName()).thenReturn("folder/job");
+        when(((Item) job).getParent()).thenReturn((ItemGroup) folder);
+
+        final List<String> keys = WarmCache.getKeys(job);
+
+        assertEquals(Arrays.asList("folder/job", "folder"), keys);
+    }
+
+    @Test
+    public void getKeys_givenNoTaskShouldReturnEmpty() {
+        assertEquals(Collections.<String>emptyList(), WarmCache.getKeys(null));
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.amazon.jenkins.ec2fleet;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class WarmNodeIndexTest {
+
+    private final WarmNodeIndex index = new WarmNodeIndex();
+
+    @Test
+    public void getNodes_shouldReturnNodesWhichRecordedKey() {
+        index.record("i-1", Arrays.asList("folder/a", "folder"), Collections.<String>emptyList());
+        index.record("i-2", Arrays.asList("folder/b", "folder"), Collections.<String>emptyList());
+
+        assertEquals(Collections.singletonList("i-1"), index.getNodes("folder/a"));
+        assertEquals(Arrays.asList("i-1", "i-2"), index.getNodes("folder"));
+        assertEquals(Collections.<String>emptyList(), index.getNodes("other"));
+    }
+
+    @Test
+    public void record_shouldForgetEvictedKeysOfNode() {
+        index.record("i-1", Collections.singletonList("a"), Collections.<String>emptyList());
+        index.record("i-2", Collections.singletonList("a"), Collections.<String>emptyList());
+
+        index.record("i-1", Collections.singletonList("b"), Collections.singletonList("a"));
+
+        assertEquals(Collections.singletonList("i-2"), index.getNodes("a"));
+        assertEquals(Collections.singletonList("i-1"), index.getNodes("b"));
+    }
+
+    @Test
+    public void retainNodes_shouldForgetRemovedNodes() {
+        index.record("i-1", Collections.singletonList("a"), Collections.<String>emptyList());
+        index.record("i-2", Collections.singletonList("a"), Collections.<String>emptyList());
+
+        index.retainNodes(new HashSet<>(Collections.singletonList("i-2")));
+
+        assertEquals(Collections.singletonList("i-2"), index.getNodes("a"));
+    }
+
+}
@@ -1,15 +1,21 @@
 package com.amazon.jenkins.ec2fleet.fleet;
 
+import com.amazon.jenkins.ec2fleet.utils.AWSClientCache;
+import com.amazon.jenkins.ec2fleet.utils.AWSCredentialsProviderCache;
 import com.amazon.jenkins.ec2fleet.utils.AWSUtils;
 import com.amazon.jenkins.ec2fleet.FleetStateStats;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
+import com.amazonaws.services.autoscaling.model.AmazonAutoScalingException;
 import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.autoscaling.model.EnterStandbyRequest;
+import com.amazonaws.services.autoscaling.model.ExitStandbyRequest;
 import com.amazonaws.services.autoscaling.model.Instance;
+import com.amazonaws.services.autoscaling.model.LifecycleState;
+import com.amazonaws.services.autoscaling.model.TerminateInstanceInAutoScalingGroupRequest;
 import com.amazonaws.services.autoscaling.model.UpdateAutoScalingGroupRequest;
-import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
@@ -24,7 +30,9 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -37,7 +45,7 @@ import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ AWSUtils.class, AWSCredentialsHelper.class, AutoScalingGroupFleet.class, Jenkins.class })
+@PrepareForTest({ AWSUtils.class, AWSCredentialsProviderCache.class, AutoScalingGroupFleet.class, Jenkins.class })
 public class AutoScalingGroupFleetTest {
     private static final String ENDPOINT = "fake-endpoint";
     private static final String REGION = "fake-region";
@@ -56,10 +64,11 @@ public class AutoScalingGroupFleetTest {
     @Before
     public void before() {
         mockStatic(AWSUtils.class);
-        mockStatic(AWSCredentialsHelper.class);
+        mockStatic(AWSCredentialsProviderCache.class);
         mockStatic(Jenkins.class);
         when(Jenkins.getInstance()).thenReturn(jenkins);
         when(AWSUtils.getClientConfiguration(ENDPOINT)).thenReturn(clientConfiguration);
+        AWSClientCache.invalidate();
     }
 
     @Test
@@ -74,7 +83,7 @@ public class AutoScalingGroupFleetTest {
 
     @Test
     public void createAsgClientWithAWSCredentialsWhenCredentialIdExists() throws Exception {
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
 
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
                 .withArguments(amazonWebServicesCredentials, clientConfiguration)
@@ -88,7 +97,7 @@ public class AutoScalingGroupFleetTest {
     public void describeAutoScalingGroupsWithNoASG() throws Exception {
         final ListBoxModel listBoxModel = new ListBoxModel();
 
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
 
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
                 .withArguments(amazonWebServicesCredentials, clientConfiguration)
@@ -106,7 +115,7 @@ public class AutoScalingGroupFleetTest {
     @Test
     public void describeAutoScalingGroupsWithSingleASG() throws Exception {
         final String selectedAsgName = "selected-asg";
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
         final ListBoxModel listBoxModel = new ListBoxModel();
 
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
@@ -129,7 +138,7 @@ public class AutoScalingGroupFleetTest {
     public void describeAutoScalingGroupsWithMultipleASG() throws Exception {
         final String selectedAsgName = "selected-asg";
 
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
         ListBoxModel listBoxModel = new ListBoxModel();
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
                 .withArguments(amazonWebServicesCredentials, clientConfiguration)
@@ -163,7 +172,7 @@ public class AutoScalingGroupFleetTest {
 
         when(Jenkins.getInstance()).thenReturn(jenkins);
 
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
         ListBoxModel listBoxModel = new ListBoxModel();
 
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
@@ -187,7 +196,7 @@ public class AutoScalingGroupFleetTest {
     @Test (expected = IllegalArgumentException.class)
     public void getFleetStateStatesWithEmptyASGs() throws Exception {
         when(Jenkins.getInstance()).thenReturn(jenkins);
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
                 .withArguments(amazonWebServicesCredentials, clientConfiguration)
                 .thenReturn(autoScalingClient);
@@ -206,7 +215,7 @@ public class AutoScalingGroupFleetTest {
     public void getFleetStateStates() throws Exception {
         final int desiredCapacity = 5;
         when(Jenkins.getInstance()).thenReturn(jenkins);
-        when(AWSCredentialsHelper.getCredentials(CREDS_ID, jenkins)).thenReturn(amazonWebServicesCredentials);
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
         PowerMockito.whenNew(AmazonAutoScalingClient.class)
                 .withArguments(amazonWebServicesCredentials, clientConfiguration)
                 .thenReturn(autoScalingClient);
@@ -228,4 +237,100 @@ public class AutoScalingGroupFleetTest {
         assertEquals(FleetStateStats.State.active(), result.getState());
         assertEquals(1, result.getInstances().size());
     }
+
+    @Test
+    public void terminateInstancesShouldTerminateEachInstanceAndDecrementCapacity() throws Exception {
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
+        PowerMockito.whenNew(AmazonAutoScalingClient.class)
+                .withArguments(amazonWebServicesCredentials, clientConfiguration)
+                .thenReturn(autoScalingClient);
+
+        final Set<String> failed = new AutoScalingGroupFleet().terminateInstances(
+                CREDS_ID, REGION, ENDPOINT, Arrays.asList("i-1", "i-2"), true);
+
+        assertEquals(Collections.emptySet(), failed);
+        verify(autoScalingClient).terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest()
+                .withInstanceId("i-1").withShouldDecrementDesiredCapacity(true));
+        verify(autoScalingClient).terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest()
+                .withInstanceId("i-2").withShouldDecrementDesiredCapacity(true));
+    }
+
+    @Test
+    public void terminateInstancesShouldAssumeNotFoundAsTerminatedAndReturnFailed() throws Exception {
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
+        PowerMockito.whenNew(AmazonAutoScalingClient.class)
+                .withArguments(amazonWebServicesCredentials, clientConfiguration)
+                .thenReturn(autoScalingClient);
+
+        final AmazonAutoScalingException notFound = new AmazonAutoScalingException(
+                "Instance Id not found - No managed instance found for instance ID: i-1");
+        notFound.setErrorCode("ValidationError");
+        when(autoScalingClient.terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest()
+                .withInstanceId("i-1").withShouldDecrementDesiredCapacity(false))).thenThrow(notFound);
+        final AmazonAutoScalingException throttled = new AmazonAutoScalingException("Rate exceeded");
+        throttled.setErrorCode("Throttling");
+        when(autoScalingClient.terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest()
+                .withInstanceId("i-2").withShouldDecrementDesiredCapacity(false))).thenThrow(throttled);
+
+        final Set<String> failed = new AutoScalingGroupFleet().terminateInstances(
+                CREDS_ID, REGION, ENDPOINT, Arrays.asList("i-1", "i-2", "i-3"), false);
+
+        assertEquals(Collections.singleton("i-2"), failed);
+        verify(autoScalingClient, times(3)).terminateInstanceInAutoScalingGroup(any(TerminateInstanceInAutoScalingGroupRequest.class));
+    }
+
+    @Test
+    public void getStateShouldNotCountStandbyInstances() throws Exception {
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
+        PowerMockito.whenNew(AmazonAutoScalingClient.class)
+                .withArguments(amazonWebServicesCredentials, clientConfiguration)
+                .thenReturn(autoScalingClient);
+
+        final AutoScalingGroup asg = new AutoScalingGroup()
+                .withAutoScalingGroupName(ASG_NAME)
+                .withDesiredCapacity(1)
+                .withInstances(
+                        new Instance().withInstanceId("i-1").withLifecycleState(LifecycleState.InService),
+                        new Instance().withInstanceId("i-2").withLifecycleState(LifecycleState.Standby),
+                        new Instance().withInstanceId("i-3").withLifecycleState(LifecycleState.EnteringStandby));
+        when(autoScalingClient.describeAutoScalingGroups(any(DescribeAutoScalingGroupsRequest.class)))
+                .thenReturn(new DescribeAutoScalingGroupsResult().withAutoScalingGroups(asg));
+
+        final FleetStateStats state = new AutoScalingGroupFleet().getState(CREDS_ID, REGION, ENDPOINT, ASG_NAME);
+        assertEquals(Collections.singleton("i-1"), state.getInstances());
+        assertEquals(new HashSet<>(Arrays.asList("i-2", "i-3")), state.getStandbyInstances());
+        verify(autoScalingClient, times(1)).describeAutoScalingGroups(any(DescribeAutoScalingGroupsRequest.class));
+    }
+
+    @Test
+    public void enterStandbyShouldDecrementCapacityAndReturnFailed() throws Exception {
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
+        PowerMockito.whenNew(AmazonAutoScalingClient.class)
+                .withArguments(amazonWebServicesCredentials, clientConfiguration)
+                .thenReturn(autoScalingClient);
+        when(autoScalingClient.enterStandby(any(EnterStandbyRequest.class)))
+                .thenThrow(new AmazonAutoScalingException("test"));
+
+        final Set<String> failed = new AutoScalingGroupFleet().enterStandby(
+                CREDS_ID, REGION, ENDPOINT, ASG_NAME, Collections.singletonList("i-1"));
+
+        assertEquals(Collections.singleton("i-1"), failed);
+        verify(autoScalingClient).enterStandby(new EnterStandbyRequest().withAutoScalingGroupName(ASG_NAME)
+                .withInstanceIds("i-1").withShouldDecrementDesiredCapacity(true));
+    }
+
+    @Test
+    public void exitStandbyShouldMoveInstancesBack() throws Exception {
+        when(AWSCredentialsProviderCache.get(CREDS_ID)).thenReturn(amazonWebServicesCredentials);
+        PowerMockito.whenNew(AmazonAutoScalingClient.class)
+                .withArguments(amazonWebServicesCredentials, clientConfiguration)
+                .thenReturn(autoScalingClient);
+
+        final Set<String> failed = new AutoScalingGroupFleet().exitStandby(
+                CREDS_ID, REGION, ENDPOINT, ASG_NAME, Collections.singletonList("i-1"));
+
+        assertEquals(Collections.emptySet(), failed);
+        verify(autoScalingClient).exitStandby(new ExitStandbyRequest().withAutoScalingGroupName(ASG_NAME)
+                .withInstanceIds("i-1"));
+    }
 }
@@ -0,0 +1,65 @@
+package com.amazon.jenkins.ec2fleet.utils;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AWSCredentialsProviderCache.class)
+public class AWSClientCacheTest {
+
+    private final AWSClientCache.Factory<AmazonEC2Client> factory = new AWSClientCache.Factory<AmazonEC2Client>() {
+        @Override
+        public AmazonEC2Client create(final AWSCredentialsProvider credentialsProvider) {
+            return mock(AmazonEC2Client.class);
+        }
+    };
+
+    @Before
+    public void before() {
+        PowerMockito.mockStatic(AWSCredentialsProviderCache.class);
+        AWSClientCache.invalidate();
+    }
+
+    @Test
+    public void get_shouldReuseClientForSameCredentialsRegionAndEndpoint() {
+        final AmazonEC2Client client = AWSClientCache.get(AmazonEC2Client.class, "cred", "us-east-1", null, factory);
+
+        assertSame(client, AWSClientCache.get(AmazonEC2Client.class, "cred", "us-east-1", null, factory));
+        assertNotSame(client, AWSClientCache.get(AmazonEC2Client.class, "cred", "us-west-2", null, factory));
+        assertNotSame(client, AWSClientCache.get(AmazonEC2Client.class, "other", "us-east-1", null, factory));
+        verify(client, never()).shutdown();
+    }
+
+    @Test
+    public void get_givenOtherCredentialsProviderShouldReplaceAndShutdownClient() {
+        final AmazonEC2Client client = AWSClientCache.get(AmazonEC2Client.class, "cred", "us-east-1", null, factory);
+        when(AWSCredentialsProviderCache.get("cred")).thenReturn(mock(AWSCredentialsProvider.class));
+
+        assertNotSame(client, AWSClientCache.get(AmazonEC2Client.class, "cred", "us-east-1", null, factory));
+        verify(client).shutdown();
+    }
+
+    @Test
+    public void invalidate_shouldShutdownClients() {
+        final AmazonEC2Client client = AWSClientCache.get(AmazonEC2Client.class, "cred", "us-east-1", null, factory);
+
+        AWSClientCache.invalidate();
+
+        verify(client).shutdown();
+        assertNotSame(client, AWSClientCache.get(AmazonEC2Client.class, "cred", "us-east-1", null, factory));
+    }
+
+}
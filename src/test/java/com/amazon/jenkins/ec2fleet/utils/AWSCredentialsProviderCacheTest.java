@@ -0,0 +1,121 @@
+package com.amazon.jenkins.ec2fleet.utils;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({AWSCredentialsHelper.class, Jenkins.class})
+public class AWSCredentialsProviderCacheTest {
+
+    @Before
+    public void before() {
+        PowerMockito.mockStatic(Jenkins.class);
+        PowerMockito.mockStatic(AWSCredentialsHelper.class);
+        AWSCredentialsProviderCache.invalidate();
+    }
+
+    @Test
+    public void get_shouldCacheNotFoundCredentialsTillTtl() {
+        assertNull(AWSCredentialsProviderCache.get("cred", 0));
+        assertNull(AWSCredentialsProviderCache.get("cred", AWSCredentialsProviderCache.TTL_MILLIS - 1));
+        PowerMockito.verifyStatic(AWSCredentialsHelper.class, times(1));
+        AWSCredentialsHelper.getCredentials("cred", null);
+
+        final AmazonWebServicesCredentials added = mock(AmazonWebServicesCredentials.class);
+        when(AWSCredentialsHelper.getCredentials("cred", null)).thenReturn(added);
+
+        assertNotNull(AWSCredentialsProviderCache.get("cred", AWSCredentialsProviderCache.TTL_MILLIS));
+    }
+
+    @Test
+    public void get_afterTtlShouldKeepProviderOnlyIfCredentialsAreTheSame() {
+        final AmazonWebServicesCredentials credentials = mock(AmazonWebServicesCredentials.class);
+        when(AWSCredentialsHelper.getCredentials("cred", null)).thenReturn(credentials);
+        final AWSCredentialsProvider provider = AWSCredentialsProviderCache.get("cred", 0);
+
+        assertSame(provider, AWSCredentialsProviderCache.get("cred", AWSCredentialsProviderCache.TTL_MILLIS));
+
+        final AmazonWebServicesCredentials rotated = mock(AmazonWebServicesCredentials.class);
+        when(AWSCredentialsHelper.getCredentials("cred", null)).thenReturn(rotated);
+
+        assertNotSame(provider, AWSCredentialsProviderCache.get("cred", 3 * AWSCredentialsProviderCache.TTL_MILLIS));
+    }
+
+    @Test
+    public void onChange_givenFolderCredentialsSavedShouldInvalidate() {
+        final AmazonWebServicesCredentials credentials = mock(AmazonWebServicesCredentials.class);
+        when(AWSCredentialsHelper.getCredentials("cred", null)).thenReturn(credentials);
+        final AWSCredentialsProvider provider = AWSCredentialsProviderCache.get("cred", 0);
+
+        final Saveable folder = (Saveable) mock(ItemGroup.class, withSettings().extraInterfaces(Saveable.class));
+        new AWSCredentialsProviderCache.CredentialsListener().onChange(folder, null);
+
+        assertNotSame(provider, AWSCredentialsProviderCache.get("cred", 1));
+    }
+
+    @Test
+    public void getCredentials_shouldLoadStaticCredentialsOnce() {
+        final AWSCredentialsProvider credentials = mock(AWSCredentialsProvider.class);
+        final AWSCredentials basic = new BasicAWSCredentials("a", "b");
+        when(credentials.getCredentials()).thenReturn(basic);
+
+        final AWSCredentialsProviderCache.RefreshAheadCredentialsProvider provider =
+                new AWSCredentialsProviderCache.RefreshAheadCredentialsProvider(credentials);
+
+        for (int i = 0; i < 10; i++) assertSame(basic, provider.getCredentials());
+        verify(credentials, times(1)).getCredentials();
+    }
+
+    @Test
+    public void getCredentials_shouldReuseSessionCredentialsTillRefreshTime() {
+        final AWSCredentialsProvider credentials = mock(AWSCredentialsProvider.class);
+        final AWSCredentials session = new BasicSessionCredentials("a", "b", "c");
+        when(credentials.getCredentials()).thenReturn(session);
+
+        final AWSCredentialsProviderCache.RefreshAheadCredentialsProvider provider =
+                new AWSCredentialsProviderCache.RefreshAheadCredentialsProvider(credentials);
+
+        for (int i = 0; i < 10; i++) assertSame(session, provider.getCredentials());
+        verify(credentials, times(1)).getCredentials();
+    }
+
+    @Test
+    public void refresh_shouldLoadCredentialsAgain() {
+        final AWSCredentialsProvider credentials = mock(AWSCredentialsProvider.class);
+        final AWSCredentials first = new BasicSessionCredentials("a", "b", "c");
+        final AWSCredentials second = new BasicSessionCredentials("d", "e", "f");
+        when(credentials.getCredentials()).thenReturn(first, second);
+
+        final AWSCredentialsProviderCache.RefreshAheadCredentialsProvider provider =
+                new AWSCredentialsProviderCache.RefreshAheadCredentialsProvider(credentials);
+
+        assertSame(first, provider.getCredentials());
+        provider.refresh();
+        assertSame(second, provider.getCredentials());
+        verify(credentials).refresh();
+    }
+
+}
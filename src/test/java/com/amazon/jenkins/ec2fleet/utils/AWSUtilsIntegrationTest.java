@@ -1,6 +1,6 @@
 package com.amazon.jenkins.ec2fleet.utils;
 
-import com.amazon.jenkins.ec2fleet.utils.AWSUtils;
+import com.amazon.jenkins.ec2fleet.EC2FleetCloud;
 import com.amazonaws.ClientConfiguration;
 import hudson.ProxyConfiguration;
 import org.junit.Assert;
@@ -51,4 +51,43 @@ public class AWSUtilsIntegrationTest {
         Assert.assertEquals(PROXY_PORT, clientConfiguration.getProxyPort());
     }
 
+    @Test
+    public void getClientConfiguration_when_transport_profile_not_configured_uses_defaults() {
+        ClientConfiguration clientConfiguration = AWSUtils.getClientConfiguration("somehost");
+        Assert.assertEquals(100, clientConfiguration.getMaxConnections());
+        Assert.assertEquals(5000, clientConfiguration.getConnectionTimeout());
+        Assert.assertEquals(30000, clientConfiguration.getSocketTimeout());
+        Assert.assertEquals(60000, clientConfiguration.getRequestTimeout());
+        Assert.assertEquals(60000, clientConfiguration.getConnectionTTL());
+        Assert.assertTrue(clientConfiguration.useTcpKeepAlive());
+        Assert.assertTrue(clientConfiguration.useGzip());
+        Assert.assertTrue(clientConfiguration.useThrottledRetries());
+        Assert.assertEquals(5, clientConfiguration.getRetryPolicy().getMaxErrorRetry());
+    }
+
+    @Test
+    public void getClientConfiguration_uses_configured_transport_profile() {
+        EC2FleetCloud.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(EC2FleetCloud.DescriptorImpl.class);
+        descriptor.setAwsMaxConnections(7);
+        descriptor.setAwsConnectionTimeoutMillis(11);
+        descriptor.setAwsSocketTimeoutMillis(12);
+        descriptor.setAwsRequestTimeoutMillis(13);
+        descriptor.setAwsConnectionTtlMillis(14L);
+        descriptor.setAwsTcpKeepAlive(false);
+        descriptor.setAwsGzip(false);
+        descriptor.setAwsMaxErrorRetry(2);
+        descriptor.setAwsThrottledRetries(false);
+
+        ClientConfiguration clientConfiguration = AWSUtils.getClientConfiguration("somehost");
+        Assert.assertEquals(7, clientConfiguration.getMaxConnections());
+        Assert.assertEquals(11, clientConfiguration.getConnectionTimeout());
+        Assert.assertEquals(12, clientConfiguration.getSocketTimeout());
+        Assert.assertEquals(13, clientConfiguration.getRequestTimeout());
+        Assert.assertEquals(14, clientConfiguration.getConnectionTTL());
+        Assert.assertFalse(clientConfiguration.useTcpKeepAlive());
+        Assert.assertFalse(clientConfiguration.useGzip());
+        Assert.assertFalse(clientConfiguration.useThrottledRetries());
+        Assert.assertEquals(2, clientConfiguration.getRetryPolicy().getMaxErrorRetry());
+    }
+
 }
@@ -0,0 +1,47 @@
+package com.amazon.jenkins.ec2fleet.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EndpointResolverTest {
+
+    @Test
+    public void getEndpoint_returnNullIfRegionNameOrEndpointAreEmpty() {
+        assertNull(EndpointResolver.getEndpoint(EndpointResolver.EC2, null, null));
+        // second call served from cache
+        assertNull(EndpointResolver.getEndpoint(EndpointResolver.EC2, null, null));
+    }
+
+    @Test
+    public void getEndpoint_returnEndpointAsIsIfProvided() {
+        assertEquals("mymy", EndpointResolver.getEndpoint(EndpointResolver.AUTOSCALING, "us-east-1", "mymy"));
+    }
+
+    @Test
+    public void getEndpoint_returnRegionEndpointIfRegionSupportsService() {
+        assertEquals("ec2.us-east-1.amazonaws.com",
+                EndpointResolver.getEndpoint(EndpointResolver.EC2, "us-east-1", null));
+        assertEquals("autoscaling.eu-west-1.amazonaws.com",
+                EndpointResolver.getEndpoint(EndpointResolver.AUTOSCALING, "eu-west-1", null));
+    }
+
+    @Test
+    public void getEndpoint_returnCraftedPerService() {
+        assertEquals("https://ec2.non-real-region.amazonaws.com",
+                EndpointResolver.getEndpoint(EndpointResolver.EC2, "non-real-region", null));
+        assertEquals("https://autoscaling.non-real-region.amazonaws.com",
+                EndpointResolver.getEndpoint(EndpointResolver.AUTOSCALING, "non-real-region", null));
+        assertEquals("https://cloudformation.cn-non-real.amazonaws.com.cn",
+                EndpointResolver.getEndpoint(EndpointResolver.CLOUDFORMATION, "cn-non-real", null));
+    }
+
+    @Test
+    public void getEndpoint_returnSameInstanceForSameArguments() {
+        assertSame(EndpointResolver.getEndpoint(EndpointResolver.EC2, "us-west-2", null),
+                EndpointResolver.getEndpoint(EndpointResolver.EC2, "us-west-2", null));
+    }
+
+}